@@ -0,0 +1,100 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.bench;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cg.sqlcp.impl.ColumnBatch;
+import com.cg.sqlcp.loader.BatchInsertLoader;
+
+/**
+ * Binding and executing one batch with BatchInsertLoader, the default load
+ * method of db2db, against an in-memory database. The driver must be on the
+ * classpath, jdbcUrl selects it: jdbc:h2:mem:bench (default) or
+ * jdbc:hsqldb:mem:bench. The table is emptied after every iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchInsertBench {
+
+    private static final String TABLE = "BENCH_TARGET";
+
+    @Param({ "jdbc:h2:mem:bench" })
+    String jdbcUrl;
+
+    @Param({ "4", "16", "64" })
+    int columns;
+
+    @Param({ "8", "64", "512" })
+    int width;
+
+    @Param({ "1000", "10000" })
+    int batchSize;
+
+    private Connection con;
+    private BatchInsertLoader loader;
+    private ColumnBatch batch;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        con = DriverManager.getConnection(jdbcUrl, "SA", "");
+        con.setAutoCommit(false);
+        try (Statement st = con.createStatement()) {
+            st.execute(BenchData.createTableStmt(TABLE, columns, width));
+        }
+        con.commit();
+        batch = BenchData.createBatch(columns, width, batchSize);
+        loader = new BatchInsertLoader();
+        loader.open(con, TABLE, BenchData.columnNames(columns), BenchData.columnTypes(columns));
+    }
+
+    @Benchmark
+    public int load() throws SQLException {
+        loader.load(batch);
+        con.commit();
+        return batch.getRowCount();
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncate() throws SQLException {
+        try (Statement st = con.createStatement()) {
+            st.execute("DELETE FROM " + TABLE);
+        }
+        con.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        loader.close();
+        try (Statement st = con.createStatement()) {
+            st.execute("DROP TABLE " + TABLE);
+        }
+        con.commit();
+        con.close();
+    }
+}
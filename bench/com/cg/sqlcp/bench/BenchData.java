@@ -0,0 +1,99 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.util.Random;
+
+import com.cg.sqlcp.impl.ColumnBatch;
+
+/**
+ * Test rows for the benchmarks. Columns repeat BIGINT, DECIMAL, VARCHAR and
+ * TIMESTAMP, VARCHAR values are width characters long. The random generator
+ * is seeded, the same parameters always give the same rows.
+ */
+public class BenchData {
+
+    public static final long SEED = 4711;
+
+    private static final int[] TYPES = { Types.BIGINT, Types.DECIMAL, Types.VARCHAR, Types.TIMESTAMP };
+    private static final String[] TYPE_NAMES = { "BIGINT", "DECIMAL(18,2)", "VARCHAR", "TIMESTAMP" };
+
+    public static int[] columnTypes(int columns) {
+        int[] t = new int[columns];
+        for (int c = 0; c < columns; c++)
+            t[c] = TYPES[c % TYPES.length];
+        return t;
+    }
+
+    public static String[] columnNames(int columns) {
+        String[] n = new String[columns];
+        for (int c = 0; c < columns; c++)
+            n[c] = "C" + (c + 1);
+        return n;
+    }
+
+    public static String createTableStmt(String table, int columns, int width) {
+        StringBuilder sb = new StringBuilder("CREATE TABLE ").append(table).append(" (");
+        for (int c = 0; c < columns; c++) {
+            if (c > 0)
+                sb.append(", ");
+            sb.append("C").append(c + 1).append(' ').append(TYPE_NAMES[c % TYPES.length]);
+            if (TYPES[c % TYPES.length] == Types.VARCHAR)
+                sb.append('(').append(width).append(')');
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * @return batch with rows rows, every 20th value is NULL
+     */
+    public static ColumnBatch createBatch(int columns, int width, int rows) {
+        Random rnd = new Random(SEED);
+        int[] types = columnTypes(columns);
+        ColumnBatch b = new ColumnBatch(types, rows);
+        byte[] text = new byte[Math.max(width, 32)];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                if (rnd.nextInt(20) == 0) {
+                    b.putNull(c);
+                    continue;
+                }
+                int len;
+                switch (types[c]) {
+                case Types.BIGINT:
+                    len = put(text, Long.toString(rnd.nextLong()));
+                    break;
+                case Types.DECIMAL:
+                    len = put(text, (rnd.nextInt(2000000000) - 1000000000) / 100.0 + "");
+                    break;
+                case Types.TIMESTAMP:
+                    len = put(text, String.format("2024-%02d-%02d %02d:%02d:%02d.%03d", rnd.nextInt(12) + 1,
+                            rnd.nextInt(28) + 1, rnd.nextInt(24), rnd.nextInt(60), rnd.nextInt(60),
+                            rnd.nextInt(1000)));
+                    break;
+                default:
+                    len = width;
+                    for (int i = 0; i < width; i++)
+                        text[i] = (byte) ('a' + rnd.nextInt(26));
+                    // some values need quoting
+                    if (width > 2 && rnd.nextInt(10) == 0)
+                        text[width / 2] = '"';
+                }
+                b.putText(c, text, 0, len, StandardCharsets.UTF_8);
+            }
+            b.endRow();
+        }
+        return b;
+    }
+
+    private static int put(byte[] dest, String s) {
+        byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(b, 0, dest, 0, b.length);
+        return b.length;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cg.sqlcp.impl.ByteBlock;
+import com.cg.sqlcp.impl.ByteBufferPool;
+import com.cg.sqlcp.impl.ColumnBatch;
+import com.cg.sqlcp.impl.CsvBlockFormatter;
+
+/**
+ * Rows to CSV as db2file does it: one ColumnBatch into one ByteBlock. Score
+ * is the time per batch, divide by batchSize for the time per row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvFormatBench {
+
+    @Param({ "4", "16", "64" })
+    int columns;
+
+    @Param({ "8", "64", "512" })
+    int width;
+
+    @Param({ "1000", "10000" })
+    int batchSize;
+
+    private ColumnBatch batch;
+    private CsvBlockFormatter formatter;
+
+    @Setup
+    public void setup() {
+        batch = BenchData.createBatch(columns, width, batchSize);
+        formatter = new CsvBlockFormatter(";", false, StandardCharsets.UTF_8, new ByteBufferPool(1024 * 1024, 16));
+    }
+
+    @Benchmark
+    public long format() {
+        ByteBlock b = formatter.format(batch, 1, false);
+        long size = b.size();
+        b.release();
+        return size;
+    }
+}
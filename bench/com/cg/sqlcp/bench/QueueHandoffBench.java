@@ -0,0 +1,96 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cg.sqlcp.impl.BatchChannel;
+import com.cg.sqlcp.impl.ColumnBatch;
+
+/**
+ * Handoff of batches from a reading to a writing thread through BatchChannel,
+ * with bufferedRows = 4 * batchSize like the defaults of db2db. The benchmark
+ * thread is the reader, a consumer thread takes the batches. Score is the
+ * time per batch including the wait until the consumer got it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueHandoffBench {
+
+    private static final int BATCHES = 100;
+
+    @Param({ "4", "16", "64" })
+    int columns;
+
+    @Param({ "1000", "10000" })
+    int batchSize;
+
+    private BatchChannel<ColumnBatch> queue;
+    private ColumnBatch batch;
+    private long batchBytes;
+    private final AtomicLong consumed = new AtomicLong();
+    private long produced;
+    private Thread consumer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // content does not matter here, width is fixed
+        batch = BenchData.createBatch(columns, 16, batchSize);
+        batchBytes = batch.getByteSize();
+        queue = new BatchChannel<>(4L * batchSize);
+        queue.registerProducer();
+        produced = 0;
+        consumed.set(0);
+        consumer = new Thread(() -> {
+            try {
+                while (queue.take() != null)
+                    consumed.incrementAndGet();
+            } catch (InterruptedException e) {
+                // benchmark ends
+            }
+        }, "QueueHandoffBench-consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCHES)
+    public long handoff() throws InterruptedException {
+        for (int i = 0; i < BATCHES; i++)
+            queue.put(batch, batchSize, batchBytes);
+        produced += BATCHES;
+        // plain spin, Thread.onSpinWait() needs Java 9
+        while (consumed.get() < produced) {
+        }
+        return produced;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        queue.producerDone();
+        consumer.join(10000);
+    }
+}
@@ -0,0 +1,92 @@
+#!/bin/sh
+# End-to-end throughput of sqlcp with a synthetic source (srcJDBC=synthetic:)
+# against the null: sink, H2 and Derby in memory, and a file. One JVM per
+# configuration, results go to bench/out/matrix.csv.
+#   SQLCP_CP   classpath of sqlcp incl. sqlutil, cli, H2 and Derby jars
+#   ROWS       rows per configuration, default 1000000
+#   JAVA_OPTS  default -Xms1g -Xmx1g
+set -e
+# column lists contain '*'
+set -f
+cd "$(dirname "$0")/.."
+if [ -z "$SQLCP_CP" ]; then
+    echo "set SQLCP_CP to the classpath of sqlcp and the H2/Derby drivers" >&2
+    exit 1
+fi
+ROWS=${ROWS:-1000000}
+JAVA_OPTS=${JAVA_OPTS:-"-Xms1g -Xmx1g"}
+OUT=bench/out
+mkdir -p $OUT
+RESULT=$OUT/matrix.csv
+echo "command;target;columns;batchSize;rows/sec;MB/sec;allocMB/sec;gcCount;gcTime" > $RESULT
+
+NARROW="BIGINT,DECIMAL,VARCHAR(32),TIMESTAMP"
+WIDE="BIGINT*4,DECIMAL*4,VARCHAR(64)*8,TIMESTAMP*4"
+
+# CREATE TABLE for a synthetic column list, columns are named C1..Cn
+ddl() {
+    cols=""
+    n=0
+    for item in $(echo "$1" | tr ',' ' '); do
+        type=${item%%\**}
+        repeat=1
+        case "$item" in *\**) repeat=${item##*\*} ;; esac
+        case "$type" in DECIMAL) type="DECIMAL(12,2)" ;; esac
+        i=0
+        while [ $i -lt "$repeat" ]; do
+            n=$((n + 1))
+            cols="$cols${cols:+, }C$n $type"
+            i=$((i + 1))
+        done
+    done
+    echo "CREATE TABLE BENCH ($cols)"
+}
+
+# appends rows/sec..gcTime of the summary line "jvm..." to the result
+record() {
+    line=$(grep -o 'rows/sec=[0-9]*, MB/sec=.*' "$4" | tail -1)
+    if [ -z "$line" ]; then
+        echo "$1 $2 failed, see $4" >&2
+        return
+    fi
+    values=$(echo "$line" | sed 's/[a-zA-Z/]*=//g; s/ms$//; s/, /;/g')
+    echo "$1;$2;$3;$5;$values" >> $RESULT
+    echo "$1 $2 columns=$3 batchSize=$5: $line"
+}
+
+sqlcp() {
+    java $JAVA_OPTS -cp "$SQLCP_CP" com.cg.sqlcp.SQLcp "$@"
+}
+
+for shape in narrow wide; do
+    if [ $shape = narrow ]; then cols=$NARROW; else cols=$WIDE; fi
+    src="synthetic:rows=$ROWS;columns=$cols"
+    for batch in 1000 10000; do
+        log=$OUT/db2db-null-$shape-$batch.log
+        sqlcp db2db -srcJDBC="$src" -srcUser=- -srcPassword=- -srcData=synthetic -destJDBC=null: -destUser=- \
+            -destPassword=- -destTarget=BENCH -batchSize=$batch -printSummary > $log 2>&1 || true
+        record db2db null $shape $log $batch
+
+        for db in h2 derby; do
+            url="jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1"
+            [ $db = derby ] && url="jdbc:derby:memory:bench;create=true"
+            log=$OUT/db2db-$db-$shape-$batch.log
+            sqlcp db2db -srcJDBC="$src" -srcUser=- -srcPassword=- -srcData=synthetic -destJDBC="$url" -destUser=sa \
+                -destPassword=sa -destTarget=BENCH -destSQLBeforeImport="$(ddl $cols)" -batchSize=$batch \
+                -printSummary > $log 2>&1 || true
+            record db2db $db $shape $log $batch
+        done
+
+        log=$OUT/db2file-null-$shape-$batch.log
+        sqlcp db2file -srcJDBC="$src" -srcUser=- -srcPassword=- -srcData=synthetic -destFile=null: \
+            -batchSize=$batch -printSummary > $log 2>&1 || true
+        record db2file null $shape $log $batch
+
+        log=$OUT/db2file-csv-$shape-$batch.log
+        sqlcp db2file -srcJDBC="$src" -srcUser=- -srcPassword=- -srcData=synthetic -destFile=$OUT/bench.csv \
+            -batchSize=$batch -printSummary > $log 2>&1 || true
+        rm -f $OUT/bench.csv
+        record db2file csv $shape $log $batch
+    done
+done
+echo "results: $RESULT"
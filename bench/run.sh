@@ -0,0 +1,18 @@
+#!/bin/sh
+# Runs the JMH benchmarks in bench/, arguments are passed to JMH, e.g.
+#   bench/run.sh CsvFormatBench -p columns=16 -p width=64
+#   bench/run.sh BatchInsertBench -p jdbcUrl=jdbc:hsqldb:mem:bench
+# JMH_CP: jmh-core, jmh-generator-annprocess, jopt-simple, commons-math3 and
+# the H2 or HSQLDB driver. SQLCP_CP: the classpath of sqlcp (see SQLcp.env).
+set -e
+cd "$(dirname "$0")/.."
+if [ -z "$JMH_CP" ]; then
+    echo "set JMH_CP to the JMH jars and the JDBC driver of the in-memory database" >&2
+    exit 1
+fi
+CP="$JMH_CP${SQLCP_CP:+:$SQLCP_CP}"
+# classes go to their own directory, bench/out also holds the results of matrix.sh
+rm -rf bench/out/jmh
+mkdir -p bench/out/jmh
+javac -d bench/out/jmh -cp "$CP" $(find src bench -name '*.java')
+java -cp "bench/out/jmh:$CP" org.openjdk.jmh.Main -rf json -rff bench/out/result.json "$@"
@@ -8,8 +8,10 @@ package com.cg.sqlcp;
 import java.io.IOException;
 import java.sql.SQLException;
 
+import com.cg.sqlcp.commands.CopyJob;
 import com.cg.sqlcp.commands.ExportDB2DB;
 import com.cg.sqlcp.commands.ExportDB2File;
+import com.cg.sqlcp.commands.ImportFile2DB;
 
 /*
 CURRENT
@@ -54,10 +56,11 @@ DONE
 public final class SQLcp {
 
     public static void printMainHelp() {
-        System.out.println("SQLcp <db2db | db2file | file2db>");
+        System.out.println("SQLcp <db2db | db2file | file2db | job>");
         System.out.println("  db2db: read from source database, write into target database");
         System.out.println("  db2file: read from source database, write to target file");
-        System.out.println("  (not yet implemented) file2db: read from source file, write to target database");
+        System.out.println("  file2db: read from source file, write to target database");
+        System.out.println("  job: run the db2db copies of a job file, sharing reader and writer threads");
         System.exit(1);
     }
 
@@ -66,6 +69,10 @@ public final class SQLcp {
             new ExportDB2DB().start(args);
         } else if (args.length >= 1 && "db2file".equals(args[0])) {
             new ExportDB2File().start(args);
+        } else if (args.length >= 1 && "file2db".equals(args[0])) {
+            new ImportFile2DB().start(args);
+        } else if (args.length >= 1 && "job".equals(args[0])) {
+            new CopyJob().start(args);
         } else {
             printMainHelp();
         }
@@ -0,0 +1,358 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.commands;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.cg.cli.CLIParsed;
+import com.cg.cli.CLIParsedException;
+import com.cg.cli.CLIRules;
+import com.cg.sqlcp.SQLcp;
+import com.cg.sqlcp.impl.CLIParams;
+import com.cg.sqlcp.impl.JvmStats;
+import com.cg.sqlcp.impl.Latencies;
+import com.cg.sqlcp.impl.SyntheticSource;
+import com.cg.sqlcp.impl.Util;
+import com.cg.sqlutil.SQLUtilFactory;
+import com.cg.sqlutil.SQLUtilInterface;
+
+/**
+ * Runs many db2db copies in one JVM. The job file has one copy per line,
+ * written like the db2db parameters on the command line:
+ *
+ * <pre>
+ * # comment
+ * defaults -srcJDBC=jdbc:... -srcUser=a -srcPassword=b -destJDBC=jdbc:... -destUser=c -destPassword=d
+ * copy -srcData=HR.EMPLOYEES -destTarget=HR.EMPLOYEES
+ * copy -srcData=SALES.ORDERS -destTarget=SALES.ORDERS -srcParallelism=4 -srcSplitColumn=ID -destNumThreads=4
+ * </pre>
+ *
+ * A defaults line is added to all following copies, a parameter of the copy
+ * replaces the one of the defaults. Copies run concurrently as long as their
+ * reading (srcParallelism) and writing threads (destNumThreads or
+ * destMaxThreads) fit into jobMaxReaders and jobMaxWriters. The largest
+ * tables start first, their size is the row estimate of the source database
+ * statistics; queries and tables without statistics keep the file order.
+ *
+ * Every copy has its own latency histograms. latencyJsonFile on a copy line
+ * is written by that copy, on the defaults line it is taken by the job and
+ * gets the histograms of all copies.
+ */
+public class CopyJob {
+
+    private static class Copy {
+        final int number;
+        final String[] args;
+        String srcJdbc, srcUser, srcPassword, srcData, destTarget;
+        int readers, writers;
+        long estimatedRows = 0;
+        final ExportDB2DB export = new ExportDB2DB();
+        long tStart, tEnd;
+        boolean ok;
+
+        Copy(int number, String[] args) {
+            this.number = number;
+            this.args = args;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private int freeReaders, freeWriters, running = 0;
+    private final ArrayList<Copy> finished = new ArrayList<>();
+    private final JvmStats jvmStats = new JvmStats();
+    // latencyJsonFile of the defaults line, written with the totals of all copies
+    private String latencyJson = null;
+    private long t0Start = System.currentTimeMillis();
+
+    public void start(String[] args) throws IOException, InterruptedException {
+        CLIRules rules = new CLIRules("runs the db2db copies of a job file: " + SQLcp.class.getName() + " job ");
+        rules.addRequired(CLIParams.JOB_FILE).setDescription("file with one db2db copy per line");
+        rules.addOptional(CLIParams.JOB_MAX_READERS, "8")
+                .setDescription("most reading threads (source connections) of all running copies");
+        rules.addOptional(CLIParams.JOB_MAX_WRITERS, "8")
+                .setDescription("most writing threads (target connections) of all running copies");
+        rules.addOptional(CLIParams.PRINTRUNTIMEINFO, "0")
+                .setDescription("Interval of seconds when runtime info will be printed, 0=no stats during execution");
+        rules.addFlag(CLIParams.PRINTSUMMARY, "Print one line per copy and the totals of the job");
+        CLIParsed parsed = null;
+        try {
+            parsed = new CLIParsed(rules, args);
+        } catch (CLIParsedException pe) {
+            System.err.println(pe.getMessage());
+            rules.printHelp(CLIParams.HELPORDER_JOB);
+            System.exit(1);
+        }
+        int maxReaders = parsed.getIntegerArgument(CLIParams.JOB_MAX_READERS);
+        int maxWriters = parsed.getIntegerArgument(CLIParams.JOB_MAX_WRITERS);
+        int runtimeInfoInterval = parsed.getIntegerArgument(CLIParams.PRINTRUNTIMEINFO);
+
+        List<Copy> copies;
+        try {
+            copies = readJobFile(parsed.getArgument(CLIParams.JOB_FILE), maxReaders, maxWriters);
+        } catch (IllegalArgumentException | CLIParsedException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        estimateRows(copies);
+        // largest first, the sort is stable: same estimate keeps the file order
+        ArrayList<Copy> pending = new ArrayList<>(copies);
+        pending.sort(Comparator.comparingLong((Copy c) -> c.estimatedRows).reversed());
+        Util.log("job: " + copies.size() + " copies, jobMaxReaders=" + maxReaders + ", jobMaxWriters="
+                + maxWriters);
+
+        freeReaders = maxReaders;
+        freeWriters = maxWriters;
+        long lastPrintRuntime = System.currentTimeMillis();
+        lock.lock();
+        try {
+            while (!pending.isEmpty() || running > 0) {
+                // a smaller copy may use the threads a larger one still waits for
+                for (int i = 0; i < pending.size(); i++) {
+                    Copy c = pending.get(i);
+                    if (c.readers <= freeReaders && c.writers <= freeWriters) {
+                        pending.remove(i--);
+                        launch(c);
+                    }
+                }
+                changed.await(100, TimeUnit.MILLISECONDS);
+                if (runtimeInfoInterval > 0 && System.currentTimeMillis() - lastPrintRuntime >= runtimeInfoInterval
+                        * 1000L) {
+                    Util.log("job: running=" + running + ", pending=" + pending.size() + ", finished="
+                            + finished.size() + ", readers=" + (maxReaders - freeReaders) + "/" + maxReaders
+                            + ", writers=" + (maxWriters - freeWriters) + "/" + maxWriters);
+                    lastPrintRuntime = System.currentTimeMillis();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        int failed = 0;
+        for (Copy c : copies)
+            if (!c.ok)
+                failed++;
+        Latencies total = new Latencies();
+        for (Copy c : copies)
+            total.add(c.export.getLatencies());
+        if (parsed.hasFlag(CLIParams.PRINTSUMMARY))
+            printSummary(copies, failed, total);
+        if (latencyJson != null)
+            total.writeJson(latencyJson);
+        if (failed == 0)
+            Util.log("job done");
+        else {
+            Util.log("job failed, " + failed + " of " + copies.size() + " copies failed");
+            System.exit(1);
+        }
+    }
+
+    // called with lock held
+    private void launch(Copy c) {
+        freeReaders -= c.readers;
+        freeWriters -= c.writers;
+        running++;
+        c.export.setName("job" + c.number);
+        Thread t = new Thread(() -> {
+            c.tStart = System.currentTimeMillis();
+            try {
+                c.ok = c.export.run(c.args);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+            c.tEnd = System.currentTimeMillis();
+            lock.lock();
+            try {
+                freeReaders += c.readers;
+                freeWriters += c.writers;
+                running--;
+                finished.add(c);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }, "CopyJob#" + c.number);
+        t.start();
+    }
+
+    private List<Copy> readJobFile(String fileName, int maxReaders, int maxWriters)
+            throws IOException, CLIParsedException {
+        ArrayList<Copy> copies = new ArrayList<>();
+        List<String> defaults = new ArrayList<>();
+        List<String> lines = Files.readAllLines(Paths.get(fileName), StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            List<String> tokens = tokenize(lines.get(i));
+            if (tokens.isEmpty() || tokens.get(0).startsWith("#"))
+                continue;
+            String kind = tokens.remove(0);
+            if ("defaults".equals(kind)) {
+                defaults = tokens;
+                latencyJson = null;
+                for (int t = defaults.size() - 1; t >= 0; t--)
+                    if (CLIParams.LATENCY_JSON.equals(key(defaults.get(t)))) {
+                        String token = defaults.remove(t);
+                        latencyJson = token.substring(token.indexOf('=') + 1);
+                    }
+                continue;
+            }
+            if (!"copy".equals(kind))
+                throw new IllegalArgumentException(fileName + " line " + (i + 1) + ": defaults or copy expected, found "
+                        + kind);
+            ArrayList<String> args = new ArrayList<>();
+            args.add("db2db");
+            args.addAll(merge(defaults, tokens));
+            Copy c = new Copy(copies.size() + 1, args.toArray(new String[0]));
+            CLIParsed p;
+            try {
+                p = new CLIParsed(ExportDB2DB.createRules(), c.args);
+            } catch (CLIParsedException e) {
+                throw new IllegalArgumentException(fileName + " line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+            c.srcJdbc = p.getArgument(CLIParams.SRC_JDBC);
+            c.srcUser = p.getArgument(CLIParams.SRC_USER);
+            c.srcPassword = p.getArgument(CLIParams.SRC_PASSWORD);
+            c.srcData = p.getArgument(CLIParams.SRC_DATA);
+            c.destTarget = p.getArgument(CLIParams.DEST_DB_TARGET);
+            c.readers = Math.max(1, p.getIntegerArgument(CLIParams.SRC_PARALLELISM));
+            int maxThreads = p.getIntegerArgument(CLIParams.DEST_DB_MAX_THREADS);
+            c.writers = Math.max(1, maxThreads > 0 ? maxThreads : p.getIntegerArgument(CLIParams.DEST_DB_NUM_THREADS));
+            if (c.readers > maxReaders || c.writers > maxWriters)
+                throw new IllegalArgumentException(fileName + " line " + (i + 1) + ": needs " + c.readers
+                        + " readers and " + c.writers + " writers, more than " + CLIParams.JOB_MAX_READERS + "="
+                        + maxReaders + " or " + CLIParams.JOB_MAX_WRITERS + "=" + maxWriters);
+            copies.add(c);
+        }
+        if (copies.isEmpty())
+            throw new IllegalArgumentException(fileName + " contains no copy");
+        return copies;
+    }
+
+    /**
+     * Splits at blanks, "..." keeps blanks within a value.
+     */
+    static List<String> tokenize(String line) {
+        ArrayList<String> tokens = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false, inToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (ch == '"') {
+                quoted = !quoted;
+                inToken = true;
+            } else if (Character.isWhitespace(ch) && !quoted) {
+                if (inToken)
+                    tokens.add(sb.toString());
+                sb.setLength(0);
+                inToken = false;
+            } else {
+                sb.append(ch);
+                inToken = true;
+            }
+        }
+        if (inToken)
+            tokens.add(sb.toString());
+        return tokens;
+    }
+
+    // name of -name=value or -flag
+    private static String key(String token) {
+        int start = 0;
+        while (start < token.length() && token.charAt(start) == '-')
+            start++;
+        int eq = token.indexOf('=');
+        return eq < 0 ? token.substring(start) : token.substring(start, eq);
+    }
+
+    private static List<String> merge(List<String> defaults, List<String> own) {
+        LinkedHashMap<String, String> m = new LinkedHashMap<>();
+        for (String t : defaults)
+            m.put(key(t), t);
+        for (String t : own)
+            m.put(key(t), t);
+        return new ArrayList<>(m.values());
+    }
+
+    // one connection per source database
+    private void estimateRows(List<Copy> copies) {
+        HashMap<String, SQLUtilInterface> connections = new HashMap<>();
+        try {
+            for (Copy c : copies) {
+                if (SyntheticSource.isSynthetic(c.srcJdbc) || Util.isSelectStmt(c.srcData))
+                    continue;
+                try {
+                    String id = c.srcJdbc + "|" + c.srcUser;
+                    SQLUtilInterface sql = connections.get(id);
+                    if (sql == null) {
+                        sql = SQLUtilFactory.createSQLUtil(c.srcJdbc, c.srcUser, c.srcPassword);
+                        connections.put(id, sql);
+                    }
+                    c.estimatedRows = estimateRows(sql.getConnection().getMetaData(), c.srcData);
+                } catch (SQLException e) {
+                    Util.log("job: no row estimate for " + c.srcData + ", " + e.getMessage());
+                }
+            }
+        } finally {
+            for (SQLUtilInterface sql : connections.values())
+                sql.closeConnection();
+        }
+    }
+
+    private static long estimateRows(DatabaseMetaData md, String table) throws SQLException {
+        String schema = null;
+        int dot = table.lastIndexOf('.');
+        if (dot > 0) {
+            schema = table.substring(0, dot);
+            table = table.substring(dot + 1);
+        }
+        // unquoted names are stored in upper or lower case, depending on the database
+        if (md.storesUpperCaseIdentifiers()) {
+            table = table.toUpperCase();
+            schema = schema == null ? null : schema.toUpperCase();
+        } else if (md.storesLowerCaseIdentifiers()) {
+            table = table.toLowerCase();
+            schema = schema == null ? null : schema.toLowerCase();
+        }
+        try (ResultSet rs = md.getIndexInfo(null, schema, table, false, true)) {
+            while (rs.next())
+                if (rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic)
+                    return rs.getLong("CARDINALITY");
+        }
+        return 0;
+    }
+
+    private void printSummary(List<Copy> copies, int failed, Latencies total) {
+        Util.log("SUMMARY");
+        long rows = 0;
+        for (Copy c : copies) {
+            long ms = c.tEnd - c.tStart;
+            rows += c.export.getRowsCopied();
+            Util.log("copy#" + c.number + "     : " + (c.ok ? "done" : "FAILED") + ", srcData=" + c.srcData
+                    + ", destTarget=" + c.destTarget + ", estimate=" + c.estimatedRows + ", rows="
+                    + c.export.getRowsCopied() + ", time=" + ms + "ms, (rows/sec)="
+                    + (ms == 0 ? -1 : c.export.getRowsCopied() * 1000 / ms));
+        }
+        long overallMs = System.currentTimeMillis() - t0Start;
+        Util.log("job        : copies=" + copies.size() + ", failed=" + failed + ", execTime=" + overallMs
+                + "ms, rows=" + rows + ", (rows/sec)=" + (overallMs == 0 ? -1 : rows * 1000 / overallMs));
+        Util.log("jvm        : " + jvmStats.getSummary(rows, 0));
+        total.log();
+    }
+}
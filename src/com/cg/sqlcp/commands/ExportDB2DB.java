@@ -8,17 +8,32 @@ package com.cg.sqlcp.commands;
 import java.io.IOException;
 import java.lang.Thread.State;
 import java.sql.SQLException;
-import java.util.concurrent.LinkedTransferQueue;
 
 import com.cg.cli.CLIParsed;
 import com.cg.cli.CLIParsedException;
 import com.cg.cli.CLIRules;
 import com.cg.sqlcp.SQLcp;
+import com.cg.sqlcp.impl.AdaptiveBatchSize;
+import com.cg.sqlcp.impl.BatchChannel;
 import com.cg.sqlcp.impl.CLIParams;
+import com.cg.sqlcp.impl.Checkpoint;
+import com.cg.sqlcp.impl.ColumnBatch;
+import com.cg.sqlcp.impl.CommitPolicy;
+import com.cg.sqlcp.impl.CopyMetrics;
+import com.cg.sqlcp.impl.JvmStats;
+import com.cg.sqlcp.impl.KeyRangeSplitter;
+import com.cg.sqlcp.impl.Latencies;
+import com.cg.sqlcp.impl.Stage;
+import com.cg.sqlcp.impl.StageExecutor;
+import com.cg.sqlcp.impl.StagingMerge;
+import com.cg.sqlcp.impl.SyntheticSource;
 import com.cg.sqlcp.impl.ThreadReadingFromDB;
 import com.cg.sqlcp.impl.ThreadWritingToDB;
 import com.cg.sqlcp.impl.Util;
-import com.cg.sqlutil.Row;
+import com.cg.sqlcp.impl.Watermark;
+import com.cg.sqlcp.impl.WriterScaler;
+import com.cg.sqlcp.loader.BulkLoaders;
+import com.cg.sqlcp.loader.UpsertSql;
 
 public class ExportDB2DB {
 
@@ -26,99 +41,355 @@ public class ExportDB2DB {
     private long tInsertAll = 0, t0Start = System.currentTimeMillis();
     private Long memPeakM = 0L;
     private CLIParsed cliParsed;
+    private Checkpoint checkpoint = null;
+    private AdaptiveBatchSize adaptive = null;
+    private WriterScaler scaler = null;
+    private StagingMerge stagingMerge = null;
+    private CopyMetrics metrics = null;
+    private final JvmStats jvmStats = new JvmStats();
+    private final Latencies latencies = new Latencies();
+    private StageExecutor executor = null;
+    // MBean name, one per copy of a job
+    private String name = "db2db";
+    private long rowsCopied = 0;
+    private Throwable failure = null;
 
     public ExportDB2DB() {
     }
 
     public void start(String[] args) throws SQLException, IOException, InterruptedException {
+        if (!run(args))
+            System.exit(1);
+    }
+
+    public static CLIRules createRules() {
         CLIRules rules = new CLIRules(
                 "copies the result of a SELECT directly via INSERT: " + SQLcp.class.getName() + " db2db ");
-        rules.addRequired(CLIParams.SRC_JDBC).setDescription("Source: JDBC Connection String");
+        rules.addRequired(CLIParams.SRC_JDBC)
+                .setDescription("Source: JDBC Connection String, synthetic:rows=n;columns=... generates rows");
         rules.addRequired(CLIParams.SRC_USER).setDescription("Source: Username");
         rules.addRequired(CLIParams.SRC_PASSWORD).setDescription("Source: Password");
         rules.addRequired(CLIParams.SRC_DATA).setDescription("Source: Tablename or Select Query");
         rules.addOptional(CLIParams.SRC_BUFFERED_ROWS, "50000")
                 .setDescription("Source: Maximum number of rows queued to be written to Target");
-
-        rules.addRequired(CLIParams.DEST_DB_JDBC).setDescription("Target: JDBC Connection String");
+        rules.addOptional(CLIParams.SRC_PARALLELISM, "1")
+                .setDescription("Source: number of reading threads, needs " + CLIParams.SRC_SPLIT_COLUMN);
+        rules.addOptional(CLIParams.SRC_SPLIT_COLUMN, "")
+                .setDescription("Source: numeric or date column (RANGE) or expression (MOD) to split srcData by");
+        rules.addOptional(CLIParams.SRC_SPLIT_METHOD, KeyRangeSplitter.METHOD_RANGE)
+                .setDescription("Source: RANGE=min/max intervals of the split column, MOD=MOD(column,n)")
+                .setValidValues(KeyRangeSplitter.METHOD_RANGE, KeyRangeSplitter.METHOD_MOD);
+        rules.addOptional(CLIParams.SRC_CHECKPOINT_COLUMN, "")
+                .setDescription("Source: ordered key column, checkpoints record the committed key per range");
+        rules.addOptional(CLIParams.SRC_INCREMENTAL_COLUMN, "")
+                .setDescription("Source: increasing column (e.g. updated_at, id), copies only rows newer than the "
+                        + "last run. UPSERT/MERGE also read the rows at the last maximum again, with APPEND rows "
+                        + "committed later with the same value are skipped");
+        rules.addOptional(CLIParams.SRC_INCREMENTAL_STATE, null)
+                .setDescription("Source: file with the watermark of " + CLIParams.SRC_INCREMENTAL_COLUMN
+                        + " of the last successful run");
+
+        rules.addRequired(CLIParams.DEST_DB_JDBC)
+                .setDescription("Target: JDBC Connection String, null: discards all rows");
         rules.addRequired(CLIParams.DEST_DB_USER).setDescription("Target: Username");
         rules.addRequired(CLIParams.DEST_DB_PASSWORD).setDescription("Target: Password");
         rules.addRequired(CLIParams.DEST_DB_TARGET)
                 .setDescription("Target: Tablename where the data will be written into");
+        rules.addOptional(CLIParams.DEST_DB_MODE, BulkLoaders.MODE_APPEND)
+                .setDescription("Target: APPEND=insert all rows, UPSERT=update rows with the same "
+                        + CLIParams.DEST_DB_KEY_COLUMNS + ", insert the others, MERGE=same as UPSERT, but load "
+                        + "into a staging table and merge it once at the end")
+                .setValidValues(BulkLoaders.MODES);
+        rules.addOptional(CLIParams.DEST_DB_KEY_COLUMNS, "")
+                .setDescription("Target: comma separated key columns for " + CLIParams.DEST_DB_MODE + "="
+                        + BulkLoaders.MODE_UPSERT + " and " + BulkLoaders.MODE_MERGE);
+        rules.addOptional(CLIParams.DEST_DB_STAGING_TABLE, "")
+                .setDescription("Target: staging table for " + CLIParams.DEST_DB_MODE + "=" + BulkLoaders.MODE_MERGE
+                        + ", created and dropped by sqlcp, default is " + CLIParams.DEST_DB_TARGET
+                        + StagingMerge.STAGING_SUFFIX);
         rules.addOptional(CLIParams.DEST_DB_SQL_BEF_IMPORT, "")
                 .setDescription("Target: ???create table, truncate, delete of target object");
         rules.addOptional(CLIParams.DEST_DB_NUM_THREADS, "1").setDescription("Target: number of writing threads");
+        rules.addOptional(CLIParams.DEST_DB_MIN_THREADS, "1")
+                .setDescription("Target: autoscaling, least number of writing threads");
+        rules.addOptional(CLIParams.DEST_DB_MAX_THREADS, "0")
+                .setDescription("Target: autoscaling, most number of writing threads, 0=fixed "
+                        + CLIParams.DEST_DB_NUM_THREADS);
         rules.addOptional(CLIParams.DEST_DB_BINDTYPES, "").setDescription("Target: ???");
+        rules.addOptional(CLIParams.DEST_DB_LOAD_METHOD, BulkLoaders.METHOD_BATCH)
+                .setDescription("Target: BATCH=parameterized INSERT, MULTIROW=INSERT with multiple VALUES rows, "
+                        + "COPY=PostgreSQL COPY FROM STDIN, LOADDATA=MySQL LOAD DATA LOCAL INFILE, "
+                        + "CSVIMPORT=H2/Derby CSV import")
+                .setValidValues(BulkLoaders.METHODS);
+        rules.addOptional(CLIParams.DEST_DB_COMMIT_EVERY, "1")
+                .setDescription("Target: commit after n batches, nrows, ns (seconds) or " + CommitPolicy.END
+                        + " (one transaction per writing thread)");
+        rules.addFlag(CLIParams.DEST_DB_ASYNC_COMMIT,
+                "Target: commit without waiting for the log flush (PostgreSQL, Oracle), a crash may lose commits");
+        rules.addFlag(CLIParams.DEST_DB_PIPELINE,
+                "Target: bind the next batch while the last one executes, needs " + BulkLoaders.METHOD_BATCH
+                        + ", only PostgreSQL, ignored for other databases");
 
         rules.addOptional(CLIParams.BATCHSIZE, "5000")
                 .setDescription("number of rows that are read or written per chunk");
+        rules.addOptional(CLIParams.ADAPTIVE_BATCH_MS, "0")
+                .setDescription("adapt batchSize at runtime, so fetching or writing a chunk takes about n ms, "
+                        + "0=fixed");
+        rules.addOptional(CLIParams.ADAPTIVE_BUFFER_MB, "0")
+                .setDescription("adapt bufferedRows at runtime, so queued chunks use about n MB, 0=fixed");
         rules.addOptional(CLIParams.GCINTERVALSEC, "0")
                 .setDescription("Call the Java Memory Garbage Collector every n Seconds, 0=JVM Managed");
+        rules.addOptional(CLIParams.THREAD_MODE, StageExecutor.PLATFORM)
+                .setDescription("PLATFORM=one OS thread per reader/writer, VIRTUAL=virtual threads (Java 21)")
+                .setValidValues(StageExecutor.PLATFORM, StageExecutor.VIRTUAL);
+        rules.addOptional(CLIParams.CHECKPOINT_FILE, null)
+                .setDescription("file that records the committed progress per key range");
+        rules.addFlag(CLIParams.RESUME, "continue a failed copy from " + CLIParams.CHECKPOINT_FILE
+                + ", skips " + CLIParams.DEST_DB_SQL_BEF_IMPORT);
 
         rules.addFlag(CLIParams.PRINTPARAMSONLY, "YES=Print given parameters only, then exit");
         rules.addOptional(CLIParams.PRINTRUNTIMEINFO, "0")
                 .setDescription("Interval of seconds when runtime info will be printed, 0=no stats during execution");
         rules.addFlag(CLIParams.PRINTSUMMARY, "Print statistics and used settings");
+        rules.addOptional(CLIParams.LATENCY_JSON, null)
+                .setDescription("write latency percentiles of all stages as JSON to this file");
+        rules.addOptional(CLIParams.METRICS_PORT, "0")
+                .setDescription("serve Prometheus metrics on http://localhost:n/metrics, 0=JMX only");
+        return rules;
+    }
 
+    /**
+     * Copies without calling System.exit(), used by job.
+     *
+     * @return false if the copy failed, see getFailure()
+     */
+    public boolean run(String[] args) throws SQLException, IOException, InterruptedException {
+        CLIRules rules = createRules();
         try {
             cliParsed = new CLIParsed(rules, args);
         } catch (CLIParsedException pe) {
             System.err.println(pe.getMessage());
             rules.printHelp(CLIParams.HELPORDER_DB2DB);
-            System.exit(1);
+            failure = pe;
+            return false;
         }
 
         if (cliParsed.hasFlag(CLIParams.PRINTPARAMSONLY)) {
             cliParsed.printParams(System.out);
-            return;
+            return true;
         }
 
         // start real work here
         ThreadWritingToDB outInit = null;
-        ThreadReadingFromDB in = null;
+        ThreadReadingFromDB[] in = null;
         ThreadWritingToDB[] outThreads = null;
 
-        LinkedTransferQueue<Row[]> queue = new LinkedTransferQueue<>();
+        BatchChannel<ColumnBatch> queue = null;
         try {
-            // init and start reading thread
+            // init and start reading threads, one per key range
             int batchSize = cliParsed.getIntegerArgument(CLIParams.BATCHSIZE);
-            in = new ThreadReadingFromDB(cliParsed.getArgument(CLIParams.SRC_JDBC),
-                    cliParsed.getArgument(CLIParams.SRC_USER), cliParsed.getArgument(CLIParams.SRC_PASSWORD),
-                    cliParsed.getArgument(CLIParams.SRC_DATA),
-                    cliParsed.getIntegerArgument(CLIParams.SRC_BUFFERED_ROWS), batchSize, queue);
-            in.start();
+            String srcJdbc = cliParsed.getArgument(CLIParams.SRC_JDBC);
+            String srcUser = cliParsed.getArgument(CLIParams.SRC_USER);
+            String srcPassword = cliParsed.getArgument(CLIParams.SRC_PASSWORD);
+            String srcData = cliParsed.getArgument(CLIParams.SRC_DATA);
+            String destTarget = cliParsed.getArgument(CLIParams.DEST_DB_TARGET);
+            String checkpointFile = cliParsed.getArgument(CLIParams.CHECKPOINT_FILE);
+            boolean resume = cliParsed.hasFlag(CLIParams.RESUME);
+            String destMode = cliParsed.getArgument(CLIParams.DEST_DB_MODE);
+            String[] keyColumns = null;
+            if (!BulkLoaders.MODE_APPEND.equalsIgnoreCase(destMode)) {
+                keyColumns = UpsertSql.parseKeys(cliParsed.getArgument(CLIParams.DEST_DB_KEY_COLUMNS));
+                if (keyColumns.length == 0)
+                    throw new IllegalArgumentException(CLIParams.DEST_DB_MODE + "=" + destMode + " needs "
+                            + CLIParams.DEST_DB_KEY_COLUMNS);
+            }
+            // MERGE: writers and checkpoint work on the staging table
+            String loadTarget = destTarget;
+            if (BulkLoaders.MODE_MERGE.equalsIgnoreCase(destMode)) {
+                stagingMerge = new StagingMerge(cliParsed.getArgument(CLIParams.DEST_DB_JDBC),
+                        cliParsed.getArgument(CLIParams.DEST_DB_USER),
+                        cliParsed.getArgument(CLIParams.DEST_DB_PASSWORD), destTarget,
+                        cliParsed.getArgument(CLIParams.DEST_DB_STAGING_TABLE), keyColumns);
+                loadTarget = stagingMerge.getStagingTable();
+            }
+            Watermark watermark = null;
+            String incrementalColumn = cliParsed.getArgument(CLIParams.SRC_INCREMENTAL_COLUMN);
+            if (!Util.isNull(incrementalColumn)) {
+                String stateFile = cliParsed.getArgument(CLIParams.SRC_INCREMENTAL_STATE);
+                if (stateFile == null)
+                    throw new IllegalArgumentException(
+                            CLIParams.SRC_INCREMENTAL_COLUMN + " needs " + CLIParams.SRC_INCREMENTAL_STATE);
+                if (SyntheticSource.isSynthetic(srcJdbc))
+                    throw new IllegalArgumentException(CLIParams.SRC_INCREMENTAL_COLUMN + " needs a source database");
+                watermark = Watermark.load(stateFile, srcData, incrementalColumn);
+                // rows at the watermark are updated again instead of duplicated
+                watermark.setInclusive(!BulkLoaders.MODE_APPEND.equalsIgnoreCase(destMode));
+                watermark.start(srcJdbc, srcUser, srcPassword, resume);
+                Util.log("incremental: " + watermark);
+                // splitting and checkpoint work on the new rows only
+                srcData = watermark.restrict();
+            }
+            String[] srcSelects;
+            int[] ranges = null;
+            if (checkpointFile == null) {
+                if (resume)
+                    throw new IllegalArgumentException(CLIParams.RESUME + " needs " + CLIParams.CHECKPOINT_FILE);
+                srcSelects = KeyRangeSplitter.createSelectStmts(srcJdbc, srcUser, srcPassword, srcData,
+                        cliParsed.getArgument(CLIParams.SRC_SPLIT_COLUMN),
+                        cliParsed.getArgument(CLIParams.SRC_SPLIT_METHOD),
+                        cliParsed.getIntegerArgument(CLIParams.SRC_PARALLELISM));
+            } else {
+                String keyColumn = cliParsed.getArgument(CLIParams.SRC_CHECKPOINT_COLUMN);
+                if (resume) {
+                    // key ranges are taken from the file, the source may have changed since
+                    checkpoint = Checkpoint.load(checkpointFile, srcData, loadTarget, keyColumn);
+                } else {
+                    checkpoint = Checkpoint.create(checkpointFile, srcData, loadTarget, keyColumn,
+                            KeyRangeSplitter.createPredicates(srcJdbc, srcUser, srcPassword, srcData,
+                                    cliParsed.getArgument(CLIParams.SRC_SPLIT_COLUMN),
+                                    cliParsed.getArgument(CLIParams.SRC_SPLIT_METHOD),
+                                    cliParsed.getIntegerArgument(CLIParams.SRC_PARALLELISM)),
+                            watermark == null ? null : watermark.getPredicate());
+                }
+                ranges = checkpoint.getOpenRanges();
+                if (ranges.length == 0) {
+                    if (stagingMerge != null)
+                        stagingMerge.mergeIfExists();
+                    if (watermark != null)
+                        watermark.committed();
+                    Util.log("checkpoint: all " + checkpoint.getRangeCount() + " ranges are done, nothing to copy");
+                    return true;
+                }
+                if (resume)
+                    Util.log("checkpoint: resuming " + ranges.length + " of " + checkpoint.getRangeCount()
+                            + " ranges, " + checkpoint.getRowsCommitted() + " rows committed before");
+                srcSelects = new String[ranges.length];
+                for (int i = 0; i < ranges.length; i++)
+                    srcSelects[i] = checkpoint.createSelectStmt(srcData, ranges[i]);
+            }
+            queue = new BatchChannel<>(cliParsed.getIntegerArgument(CLIParams.SRC_BUFFERED_ROWS));
+            // the first error of any reader or writer stops the whole copy
+            executor = new StageExecutor(cliParsed.getArgument(CLIParams.THREAD_MODE), true);
+            executor.onFailure(queue::abort);
+            adaptive = new AdaptiveBatchSize(batchSize, cliParsed.getIntegerArgument(CLIParams.ADAPTIVE_BATCH_MS),
+                    cliParsed.getIntegerArgument(CLIParams.ADAPTIVE_BUFFER_MB) * 1024L * 1024L, queue);
+            in = new ThreadReadingFromDB[srcSelects.length];
+            for (int i = 0; i < srcSelects.length; i++) {
+                in[i] = new ThreadReadingFromDB(srcJdbc, srcUser, srcPassword, srcSelects[i], batchSize, queue);
+                in[i].setExecutor(executor);
+                in[i].setLatencies(latencies);
+                in[i].setName("ThreadReadingFromDB#" + (i + 1));
+                if (checkpoint != null)
+                    in[i].setCheckpoint(checkpoint, ranges[i]);
+                if (adaptive.isEnabled())
+                    in[i].setAdaptiveBatchSize(adaptive);
+            }
+            for (ThreadReadingFromDB r : in)
+                r.start();
 
             // writing thread
             String destJdbc = cliParsed.getArgument(CLIParams.DEST_DB_JDBC);
             String destUser = cliParsed.getArgument(CLIParams.DEST_DB_USER);
             String destPassword = cliParsed.getArgument(CLIParams.DEST_DB_PASSWORD);
-            String destTarget = cliParsed.getArgument(CLIParams.DEST_DB_TARGET);
             String destBindTypes = cliParsed.getArgument(CLIParams.DEST_DB_BINDTYPES);
             String sqlBeforeImport = cliParsed.getArgument(CLIParams.DEST_DB_SQL_BEF_IMPORT);
+            String destLoadMethod = cliParsed.getArgument(CLIParams.DEST_DB_LOAD_METHOD);
+            if (BulkLoaders.MODE_UPSERT.equalsIgnoreCase(destMode)
+                    && !BulkLoaders.METHOD_BATCH.equalsIgnoreCase(destLoadMethod))
+                throw new IllegalArgumentException(CLIParams.DEST_DB_MODE + "=" + BulkLoaders.MODE_UPSERT + " needs "
+                        + CLIParams.DEST_DB_LOAD_METHOD + "=" + BulkLoaders.METHOD_BATCH);
+            // MERGE: the staging table is loaded with plain inserts
+            String[] destKeys = stagingMerge == null ? keyColumns : null;
+            String destLoadTarget = loadTarget;
+            CommitPolicy commitPolicy = CommitPolicy.parse(cliParsed.getArgument(CLIParams.DEST_DB_COMMIT_EVERY));
+            boolean asyncCommit = cliParsed.hasFlag(CLIParams.DEST_DB_ASYNC_COMMIT);
+            boolean pipelined = cliParsed.hasFlag(CLIParams.DEST_DB_PIPELINE);
+            if (asyncCommit && checkpoint != null)
+                Util.log("warning: with " + CLIParams.DEST_DB_ASYNC_COMMIT + " the checkpoint may contain commits lost "
+                        + "by a crash of the target database");
             // init first writing thread and execute sqlBeforeWrite if given
-            outInit = new ThreadWritingToDB(in, destJdbc, destUser, destPassword, destTarget, destBindTypes);
-            outInit.executeSQLBeforeInserts(sqlBeforeImport);
+            // all readers run the same select with different predicates and share
+            // one queue, the first one delivers the metadata
+            outInit = new ThreadWritingToDB(in[0], destJdbc, destUser, destPassword, destLoadTarget, destBindTypes,
+                    destLoadMethod);
+            outInit.setExecutor(executor);
+            outInit.setLatencies(latencies);
+            if (resume) {
+                // rows after the watermark of unfinished ranges are read again, UPSERT just updates them
+                if (!BulkLoaders.MODE_UPSERT.equalsIgnoreCase(destMode))
+                    for (int r : ranges)
+                        outInit.executeSQLBeforeInserts(checkpoint.createCleanupStmt(r));
+            } else {
+                outInit.executeSQLBeforeInserts(sqlBeforeImport);
+                if (stagingMerge != null)
+                    stagingMerge.createStagingTable(in[0].getColumnNames());
+            }
 
             // init and start all threads
             tInsertAll = System.currentTimeMillis();
             int destNumThreads = cliParsed.getIntegerArgument(CLIParams.DEST_DB_NUM_THREADS);
+            int destMinThreads = cliParsed.getIntegerArgument(CLIParams.DEST_DB_MIN_THREADS);
+            int destMaxThreads = cliParsed.getIntegerArgument(CLIParams.DEST_DB_MAX_THREADS);
+            if (destMaxThreads > 0)
+                destNumThreads = Math.max(destMinThreads, Math.min(destMaxThreads, destNumThreads));
+            ThreadReadingFromDB metaData = in[0];
+            WriterScaler.WriterFactory writerFactory = () -> {
+                ThreadWritingToDB w = new ThreadWritingToDB(metaData, destJdbc, destUser, destPassword,
+                        destLoadTarget, destBindTypes, destLoadMethod);
+                w.setExecutor(executor);
+                w.setLatencies(latencies);
+                w.setCheckpoint(checkpoint);
+                w.setCommitPolicy(commitPolicy);
+                w.setAsyncCommit(asyncCommit);
+                w.setPipelined(pipelined);
+                w.setKeyColumns(destKeys);
+                if (adaptive.isEnabled())
+                    w.setAdaptiveBatchSize(adaptive);
+                return w;
+            };
             outThreads = new ThreadWritingToDB[destNumThreads];
             for (int i = 0; i < destNumThreads; i++) {
-                if (i == 0)
+                if (i == 0) {
                     outThreads[i] = outInit;
-                else
-                    outThreads[i] = new ThreadWritingToDB(in, destJdbc, destUser, destPassword, destTarget,
-                            destBindTypes);
+                    outInit.setCheckpoint(checkpoint);
+                    outInit.setCommitPolicy(commitPolicy);
+                    outInit.setAsyncCommit(asyncCommit);
+                    outInit.setPipelined(pipelined);
+                    outInit.setKeyColumns(destKeys);
+                    if (adaptive.isEnabled())
+                        outInit.setAdaptiveBatchSize(adaptive);
+                } else
+                    outThreads[i] = writerFactory.create();
                 outThreads[i].start();
             }
+            if (destMaxThreads > 0)
+                scaler = new WriterScaler(destMinThreads, destMaxThreads, queue, writerFactory, outThreads);
+
+            ThreadReadingFromDB[] readers = in;
+            ThreadWritingToDB[] startedWriters = outThreads;
+            metrics = new CopyMetrics(name, queue, () -> readers,
+                    () -> scaler != null ? scaler.getWriters() : startedWriters);
+            metrics.registerMBean();
+            int metricsPort = cliParsed.getIntegerArgument(CLIParams.METRICS_PORT);
+            if (metricsPort > 0) {
+                metrics.startHttp(metricsPort);
+                Util.log("metrics: http://localhost:" + metricsPort + "/metrics");
+            }
 
             // print status or sleep while read/write threads active
             int gcIntervalSec = cliParsed.getIntegerArgument(CLIParams.GCINTERVALSEC);
             long lastGC = System.currentTimeMillis();
             long lastPrintRuntime = 0;
-            while (atLeastOneNotTerminated(outThreads)) {
+            // returns at once when all readers and writers are done or one of them failed
+            while (!executor.await(100)) {
                 // runtime-info
                 int runtimeInfoInterval = cliParsed.getIntegerArgument(CLIParams.PRINTRUNTIMEINFO);
+                if (scaler != null) {
+                    String decision = scaler.check();
+                    outThreads = scaler.getWriters();
+                    if (decision != null && runtimeInfoInterval > 0)
+                        Util.log(decision);
+                }
                 if (runtimeInfoInterval > 0) {
                     long currT = System.currentTimeMillis();
                     if ((currT - lastPrintRuntime) / 1000 >= runtimeInfoInterval) {
@@ -138,67 +409,118 @@ public class ExportDB2DB {
                         lastGC = System.currentTimeMillis();
                     }
                 }
-
-                Thread.sleep(100);
+            }
+            if (scaler != null)
+                outThreads = scaler.getWriters();
+            failure = executor.getFailure();
+            rowsCopied = getSumTotalRowsInserted(outThreads);
+            // cancelled stages roll back and close their connections
+            if (failure != null)
+                executor.awaitTermination(10000);
+            else if (stagingMerge != null) {
+                // one set-based statement, destTarget is locked only here
+                Util.log("merging " + stagingMerge.getStagingTable() + " into " + destTarget);
+                try {
+                    stagingMerge.merge();
+                } catch (Throwable t) {
+                    failure = t;
+                }
             }
 
             // summary and done
             tInsertAll = System.currentTimeMillis() - tInsertAll;
             if (cliParsed.hasFlag(CLIParams.PRINTSUMMARY))
                 printSummary(in, outThreads);
-
-            // check for errors
-            int errCnt = 0;
-            for (ThreadWritingToDB t : outThreads)
-                if (t.getException() != null) {
-                    errCnt++;
-                    t.getException().printStackTrace(System.err);
-                }
-
-            if (errCnt == 0)
+            if (cliParsed.getArgument(CLIParams.LATENCY_JSON) != null)
+                latencies.writeJson(cliParsed.getArgument(CLIParams.LATENCY_JSON));
+
+            // follow-up errors of the cancelled stages are not shown
+            if (failure != null)
+                failure.printStackTrace(System.err);
+
+            if (checkpoint != null)
+                checkpoint.save();
+            if (failure == null) {
+                if (watermark != null)
+                    watermark.committed();
                 Util.log("copy done");
+            }
             else {
-                Util.log("copy failed");
-                System.exit(1);
+                // the rows of the staging table are kept for the resume
+                if (stagingMerge != null && checkpoint == null)
+                    stagingMerge.dropStagingTable(true);
+                if (checkpoint != null)
+                    Util.log("copy failed, continue with " + CLIParams.RESUME + " and the same "
+                            + CLIParams.CHECKPOINT_FILE);
+                else
+                    Util.log("copy failed");
+                return false;
             }
+            return true;
         } catch (Throwable t) {
             t.printStackTrace();
-            System.exit(1);
+            failure = t;
+            return false;
         } finally {
-            if (in != null) {
-                in.terminate();
-                in.cleanUpAfterRun();
-            }
+            if (metrics != null)
+                metrics.close();
+            if (in != null)
+                for (ThreadReadingFromDB r : in) {
+                    if (r == null)
+                        continue;
+                    r.terminate();
+                    r.cleanUpAfterRun();
+                }
             if (outThreads != null)
                 for (ThreadWritingToDB out : outThreads)
                     out.cleanUpAfterRun();
         }
     }
 
-    private boolean atLeastOneNotTerminated(ThreadWritingToDB[] outThreads) {
-        for (ThreadWritingToDB out : outThreads)
-            if (out.getException() == null && out.getState() != State.TERMINATED)
-                return true;
-        return false;
+    public void setName(String name) {
+        this.name = name;
     }
 
-    private void printStatus(ThreadReadingFromDB in, ThreadWritingToDB[] outThreads, LinkedTransferQueue<Row[]> queue) {
+    public long getRowsCopied() {
+        return rowsCopied;
+    }
+
+    /**
+     * @return latency histograms of this copy
+     */
+    public Latencies getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @return exception that stopped the copy, null if it was successful
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    private void printStatus(ThreadReadingFromDB[] in, ThreadWritingToDB[] outThreads,
+            BatchChannel<ColumnBatch> queue) {
         StringBuffer msg = new StringBuffer();
         Long memUsgM = Long.valueOf(Runtime.getRuntime().totalMemory() / 1024 / 1024);
         if (memUsgM > memPeakM)
             memPeakM = memUsgM;
         msg.append("mem=").append(memUsgM.toString()).append("M; ");
-        msg.append("queue=" + Util.getRowCountOfQueue(queue) + "; ");
+        msg.append("queue=" + queue.getRows() + "(" + queue.getBytes() / 1024 / 1024 + "M); ");
         msg.append("T=" + formatMs((System.currentTimeMillis() - t0Start)) + "; ");
-        msg.append("in(" + in.getState() + " rcvd=" + in.getTotalRowsReceived() + " dbT=" + formatMs(in.getDBTime())
-                + "; waitT=" + formatMs(in.getWaitForQueueConsumer()) + "); ");
+        msg.append("in*" + in.length + "(" + getStates(in) + " rcvd=" + getSumTotalRowsReceived(in) + " dbT="
+                + formatMs(getSumDBTime(in)) + "; waitT=" + formatMs(getSumWaitForQueueConsumer(in)) + "); ");
         msg.append("out*" + outThreads.length + "(" + getStates(outThreads) + " ins="
                 + getSumTotalRowsInserted(outThreads) + " dbT=" + formatMs(getSumDBTime(outThreads)) + "; waitT="
                 + formatMs(getSumWaitForQueueProducer(outThreads)) + ")");
+        if (adaptive.isEnabled())
+            msg.append("; batch=" + adaptive.getBatchSize() + "; buffered=" + queue.getMaxRows());
+        if (scaler != null)
+            msg.append("; writers=" + scaler.getActive());
         Util.log(msg.toString());
     }
 
-    private void printSummary(ThreadReadingFromDB in, ThreadWritingToDB[] outThreads) {
+    private void printSummary(ThreadReadingFromDB[] in, ThreadWritingToDB[] outThreads) {
 
         Util.log("SUMMARY");
 
@@ -211,20 +533,57 @@ public class ExportDB2DB {
                 + cliParsed.getArgument(CLIParams.DEST_DB_USER) + ", target="
                 + cliParsed.getArgument(CLIParams.DEST_DB_TARGET));
 
-        // readProc : init=6611ms, wait=8167ms, fetch=121ms, 2831rows/sec, 19059rows
-        // fetched
-        Util.log("readProc   : init=" + formatMs(in.getInitTime()) + ", wait=" + formatMs(in.getWaitForQueueConsumer())
-                + ", " + "fetch=" + formatMs(in.getDBTime()) + ", "
-                + getRowsPerSec(in.getTotalRowsReceived(), in.getDBTime() + in.getInitTime()) + "rows/sec, "
-                + in.getTotalRowsReceived() + "rows fetched");
+        // readProc#1: init=611ms, wait=167ms, fetch=61ms, 2831rows/sec, 9059rows
+        // fetched, select=[[SELECT * FROM t WHERE (id>=1 AND id<1000)]]
+        if (in.length > 1)
+            for (int i = 0; i < in.length; i++)
+                Util.log("readProc#" + (i + 1) + ": init=" + formatMs(in[i].getInitTime()) + ", wait="
+                        + formatMs(in[i].getWaitForQueueConsumer()) + ", fetch=" + formatMs(in[i].getDBTime()) + ", "
+                        + getRowsPerSec(in[i].getTotalRowsReceived(), in[i].getDBTime() + in[i].getInitTime())
+                        + "rows/sec, " + in[i].getTotalRowsReceived() + "rows fetched, select=[["
+                        + in[i].getSelectStmt() + "]]");
+        // readProc : init=6611ms, wait=8167ms, threads=1, fetch=121ms, 2831rows/sec,
+        // 19059rows fetched
+        long rowsReceived = getSumTotalRowsReceived(in);
+        Util.log("readProc   : init=" + formatMs(getSumInitTime(in)) + ", wait="
+                + formatMs(getSumWaitForQueueConsumer(in)) + ", threads=" + in.length + ", fetch="
+                + formatMs(getSumDBTime(in)) + ", "
+                + getRowsPerSec(rowsReceived, getMaxDBAndInitTime(in)) + "rows/sec, " + rowsReceived
+                + "rows fetched");
         // writeProc : init=14695ms, wait=107ms, threads=8, insert=53936ms, 167rows/sec,
-        // 96*ps.executeBatch()/commit, 19059rows inserted
+        // 96*ps.executeBatch(), 19059rows inserted
         long getSumDBTime_ = getSumDBTime(outThreads);
         Util.log("writeProc  : init=" + formatMs(getSumInitTime(outThreads)) + ", wait="
                 + formatMs(getSumWaitForQueueProducer(outThreads)) + ", " + "threads=" + outThreads.length + ", insert="
                 + formatMs(getSumDBTime(outThreads)) + ", " + getRowsPerSec(tInsertAll, getSumDBTime_) + "rows/sec, "
-                + getSumTotalBatchedInserts(outThreads) + "*ps.executeBatch()/commit, "
+                + getSumTotalBatchedInserts(outThreads) + "*" + outThreads[0].getLoadOperationName() + ", "
                 + getSumTotalRowsInserted(outThreads) + "rows inserted");
+        // commit     : every=1, async=false, 96 commits, 1840ms
+        long commits = 0, commitTime = 0;
+        for (ThreadWritingToDB out : outThreads) {
+            commits += out.getCommits();
+            commitTime += out.getCommitTime();
+        }
+        Util.log("commit     : every=" + cliParsed.getArgument(CLIParams.DEST_DB_COMMIT_EVERY) + ", async="
+                + cliParsed.hasFlag(CLIParams.DEST_DB_ASYNC_COMMIT) + ", " + commits + " commits, "
+                + formatMs(commitTime));
+        // pipeline   : bind=2100ms, hidden=1900ms(90%) behind insert
+        if (cliParsed.hasFlag(CLIParams.DEST_DB_PIPELINE)) {
+            long bind = 0, hidden = 0;
+            for (ThreadWritingToDB out : outThreads) {
+                bind += out.getBindTime();
+                hidden += out.getBindHiddenTime();
+            }
+            Util.log("pipeline   : bind=" + formatMs(bind) + ", hidden=" + formatMs(hidden) + "("
+                    + (bind == 0 ? 0 : hidden * 100 / bind) + "%) behind insert");
+        }
+        // merge      : staging=t_sqlcp_stage, create=40ms, merge=2100ms, drop=15ms, 19059rows merged
+        if (stagingMerge != null)
+            Util.log("merge      : " + stagingMerge.getSummary());
+        if (adaptive.isEnabled())
+            Util.log("adaptive   : " + adaptive.getSummary());
+        if (scaler != null)
+            Util.log("autoscale  : " + scaler.getSummary());
         // summary : execTime=18839ms, rows=?, (rows/sec)=?memPeak=53M, outThreads=8,
         // rows=20447, (rows/sec)=1135
         long overallMs = System.currentTimeMillis() - t0Start;
@@ -233,10 +592,14 @@ public class ExportDB2DB {
         if (tGCwait != null)
             sb.append(", gcTime=" + formatMs(tGCwait));
         sb.append(", memPeak=" + memPeakM + "M");
+        sb.append(", inThreads=" + in.length);
         sb.append(", outThreads=" + outThreads.length);
-        sb.append(", rows=" + in.getTotalRowsReceived());
-        sb.append(", (rows/sec)=" + getRowsPerSec(in.getTotalRowsReceived(), overallMs));
+        sb.append(", threadMode=" + executor.getMode());
+        sb.append(", rows=" + rowsReceived);
+        sb.append(", (rows/sec)=" + getRowsPerSec(rowsReceived, overallMs));
         Util.log(sb.toString());
+        Util.log("jvm        : " + jvmStats.getSummary(rowsReceived, getSumTotalBytesReceived(in)));
+        latencies.log();
     }
 
     private String formatMs(long ms) {
@@ -265,6 +628,49 @@ public class ExportDB2DB {
         return sum;
     }
 
+    private long getSumDBTime(ThreadReadingFromDB[] in) {
+        long sum = 0;
+        for (ThreadReadingFromDB r : in)
+            sum += r.getDBTime();
+        return sum;
+    }
+
+    // readers run in parallel, the slowest one defines the elapsed read time
+    private long getMaxDBAndInitTime(ThreadReadingFromDB[] in) {
+        long max = 0;
+        for (ThreadReadingFromDB r : in)
+            max = Math.max(max, r.getDBTime() + r.getInitTime());
+        return max;
+    }
+
+    private long getSumTotalRowsReceived(ThreadReadingFromDB[] in) {
+        long sum = 0;
+        for (ThreadReadingFromDB r : in)
+            sum += r.getTotalRowsReceived();
+        return sum;
+    }
+
+    private long getSumTotalBytesReceived(ThreadReadingFromDB[] in) {
+        long sum = 0;
+        for (ThreadReadingFromDB r : in)
+            sum += r.getTotalBytesReceived();
+        return sum;
+    }
+
+    private long getSumWaitForQueueConsumer(ThreadReadingFromDB[] in) {
+        long sum = 0;
+        for (ThreadReadingFromDB r : in)
+            sum += r.getWaitForQueueConsumer();
+        return sum;
+    }
+
+    private long getSumInitTime(ThreadReadingFromDB[] in) {
+        long sum = 0;
+        for (ThreadReadingFromDB r : in)
+            sum += r.getInitTime();
+        return sum;
+    }
+
     private long getSumTotalRowsInserted(ThreadWritingToDB[] outThreads) {
         long sum = 0;
         if (outThreads != null)
@@ -297,10 +703,10 @@ public class ExportDB2DB {
         return sum;
     }
 
-    private void hlpGetStateStat(ThreadWritingToDB[] outThreads, State s, StringBuffer currSb) {
+    private void hlpGetStateStat(Stage[] threads, State s, StringBuffer currSb) {
         int cnt = 0;
-        if (outThreads != null) {
-            for (ThreadWritingToDB t : outThreads) {
+        if (threads != null) {
+            for (Stage t : threads) {
                 if (t != null) {
                     if (s.equals(t.getState()))
                         cnt++;
@@ -314,7 +720,7 @@ public class ExportDB2DB {
         }
     }
 
-    private String getStates(ThreadWritingToDB[] outThreads) {
+    private String getStates(Stage[] outThreads) {
         StringBuffer sb = new StringBuffer(100);
         // could be done in a loop, but i want a guaranteed order of states in the
         // output string
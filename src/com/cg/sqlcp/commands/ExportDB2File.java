@@ -5,39 +5,56 @@
  */
 package com.cg.sqlcp.commands;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.FileAlreadyExistsException;
-import java.sql.SQLException;
+import java.nio.charset.Charset;
 import java.util.Date;
-import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.cg.cli.CLIParsed;
 import com.cg.cli.CLIParsedException;
 import com.cg.cli.CLIRules;
 import com.cg.sqlcp.SQLcp;
+import com.cg.sqlcp.impl.BatchChannel;
+import com.cg.sqlcp.impl.BinaryDump;
+import com.cg.sqlcp.impl.BlockCompressor;
+import com.cg.sqlcp.impl.BlockFormatter;
+import com.cg.sqlcp.impl.ByteBufferPool;
 import com.cg.sqlcp.impl.CLIParams;
+import com.cg.sqlcp.impl.ColumnBatch;
+import com.cg.sqlcp.impl.CsvBlockFormatter;
+import com.cg.sqlcp.impl.JvmStats;
+import com.cg.sqlcp.impl.KeyRangeSplitter;
+import com.cg.sqlcp.impl.Latencies;
+import com.cg.sqlcp.impl.OrderedBlockWriter;
+import com.cg.sqlcp.impl.PartFiles;
+import com.cg.sqlcp.impl.PartRotator;
 import com.cg.sqlcp.impl.ThreadReadingFromDB;
+import com.cg.sqlcp.impl.ThreadWritingToFile;
 import com.cg.sqlcp.impl.Util;
-import com.cg.sqlutil.Row;
 
 public class ExportDB2File {
 
-    private long tStarted = -1, tFinished = -1, tFileWriteTime = 0;
+    private long tStarted = -1, tFinished = -1, tWaitForReader = 0, tWaitForFormatter = 0;
     private long rowsExported = 0;
-    private long charsWritten = 0;
     private long maxMemUsage = -1;
-    private boolean firstColIsRowCounter = false, writeColnamesAsFirstRow = false, firstRowWritten = false;
-    private BufferedWriter w = null;
+    private boolean firstColIsRowCounter = false, writeColnamesAsFirstRow = false;
+    private PartFiles parts = null;
+    private OrderedBlockWriter blockWriter = null;
+    private ThreadWritingToFile[] fileWriters = null;
+    private String manifest = null;
+    private BlockFormatter formatter = null;
+    private BlockCompressor compressor = null;
+    private JvmStats jvmStats = null;
+    private final Latencies latencies = new Latencies();
 
     public void start(String[] args) {
         tStarted = System.currentTimeMillis();
+        jvmStats = new JvmStats();
 
         CLIRules rules = new CLIRules(
                 "copies the result of a SELECT to a file: " + SQLcp.class.getName() + " db2file ");
-        rules.addRequired(CLIParams.SRC_JDBC).setDescription("Source: JDBC Connection String");
+        rules.addRequired(CLIParams.SRC_JDBC)
+                .setDescription("Source: JDBC Connection String, synthetic:rows=n;columns=... generates rows");
         rules.addRequired(CLIParams.SRC_USER).setDescription("Source: Username");
         rules.addRequired(CLIParams.SRC_PASSWORD).setDescription("Source: Password");
         rules.addRequired(CLIParams.SRC_DATA).setDescription("Source: Tablename or Select Query");
@@ -46,9 +63,19 @@ public class ExportDB2File {
                 .setDescription("number of rows that are read or written per chunk");
         rules.addOptional(CLIParams.SRC_BUFFERED_ROWS, "50000")
                 .setDescription("Source: Maximum number of rows queued to be written to Target");
+        rules.addOptional(CLIParams.SRC_PARALLELISM, "1")
+                .setDescription("Source: number of reading threads, needs " + CLIParams.SRC_SPLIT_COLUMN);
+        rules.addOptional(CLIParams.SRC_SPLIT_COLUMN, "")
+                .setDescription("Source: numeric or date column (RANGE) or expression (MOD) to split srcData by");
+        rules.addOptional(CLIParams.SRC_SPLIT_METHOD, KeyRangeSplitter.METHOD_RANGE)
+                .setDescription("Source: RANGE=min/max intervals of the split column, MOD=MOD(column,n)")
+                .setValidValues(KeyRangeSplitter.METHOD_RANGE, KeyRangeSplitter.METHOD_MOD);
 
         rules.addOptional(CLIParams.DEST_FILE_NAME, null)
-                .setDescription("Target: filename, if not given console will become target");
+                .setDescription("Target: filename, if not given console will become target, "
+                        + PartFiles.NULL_FILE + " discards the output");
+        rules.addOptional(CLIParams.DEST_FILE_ENCODING, Charset.defaultCharset().name())
+                .setDescription("Target: character set, see JAVA java.nio.charset.Charset");
         // +++rules.addOptional(CLIParams.DEST_FILE_INCLHEADER,
         // "NO").setDescription("YES=first line of destFile will contain columnnames");
         rules.addFlag(CLIParams.DEST_FILE_INCLHEADER)
@@ -59,6 +86,25 @@ public class ExportDB2File {
                 .setValidValues("OVERWRITE", "APPEND");
         // +++
         rules.addFlag(CLIParams.DEST_FILE_COUNTROWS).setDescription("first column becomes row number counter");
+        rules.addOptional(CLIParams.DEST_FILE_FORMAT, "csv")
+                .setDescription("Target: csv=text, binary=typed dump for fast reload with file2db")
+                .setValidValues("csv", "binary");
+        rules.addFlag(CLIParams.DEST_FILE_CHECKSUM).setDescription("binary: store a crc32 per block");
+        rules.addOptional(CLIParams.DEST_FILE_FORMAT_THREADS, "1")
+                .setDescription("number of threads formatting rows, one thread writes them in order");
+        rules.addOptional(CLIParams.DEST_FILE_COMPRESSION, BlockCompressor.NONE)
+                .setDescription("Target: compress blocks on the formatting threads, lz4 needs lz4-java")
+                .setValidValues(BlockCompressor.METHODS);
+        rules.addOptional(CLIParams.DEST_FILE_MAX_ROWS, "0")
+                .setDescription("Target: start a new numbered part after this many rows, 0=no limit");
+        rules.addOptional(CLIParams.DEST_FILE_MAX_BYTES, "0")
+                .setDescription("Target: start a new numbered part after this many (compressed) bytes, 0=no limit");
+        rules.addOptional(CLIParams.DEST_FILE_WRITERS, "1")
+                .setDescription("Target: >1 writes that many numbered parts in parallel, rows are not ordered");
+        rules.addOptional(CLIParams.DEST_FILE_VALUES, "driver")
+                .setDescription("Target csv: driver=text of the source driver, portable=true/false, Base64 for "
+                        + "binaries, read by file2db")
+                .setValidValues("driver", "portable");
         rules.addOptional(CLIParams.DEST_FILE_FMT_NULL, "").setDescription("output value for NULL values");
         rules.addOptional(CLIParams.DEST_FILE_FMT_BOOLTRUE, "TRUE").setDescription("output value for SQL BOOLEAN:TRUE");
         rules.addOptional(CLIParams.DEST_FILE_FMT_BOOLFALSE, "FALSE")
@@ -82,6 +128,8 @@ public class ExportDB2File {
         rules.addFlag(CLIParams.PRINTPARAMSONLY).setDescription("Print given parameters only, then exit");
         // +++
         rules.addFlag(CLIParams.PRINTSUMMARY).setDescription("Print statistics and used settings");
+        rules.addOptional(CLIParams.LATENCY_JSON, null)
+                .setDescription("write latency percentiles of all stages as JSON to this file");
 
         CLIParsed parsed = null;
         try {
@@ -104,194 +152,229 @@ public class ExportDB2File {
         boolean destAppend = "APPEND".equals(parsed.getArgument(CLIParams.DEST_FILE_DESTMODE));
         boolean destOverwrite = "OVERWRITE".equals(parsed.getArgument(CLIParams.DEST_FILE_DESTMODE));
 
-        ThreadReadingFromDB in = null;
-        LinkedTransferQueue<Row[]> queue = new LinkedTransferQueue<>();
+        ThreadReadingFromDB[] readers = null;
         try {
-            // init and start reading thread
+            // init and start reading threads, one per key range
             int batchSize = parsed.getIntegerArgument(CLIParams.BATCHSIZE);
-            in = new ThreadReadingFromDB(parsed.getArgument(CLIParams.SRC_JDBC), parsed.getArgument(CLIParams.SRC_USER),
-                    parsed.getArgument(CLIParams.SRC_PASSWORD), parsed.getArgument(CLIParams.SRC_DATA),
-                    parsed.getIntegerArgument(CLIParams.SRC_BUFFERED_ROWS), batchSize, queue);
-            in.start();
-
-            if (parsed.getArgument(CLIParams.DEST_FILE_NAME) != null)
-                w = prepareDestFile(destOverwrite, destAppend, parsed.getArgument(CLIParams.DEST_FILE_NAME));
-            boolean firstLineDone = true;
-            if (parsed.hasFlag(CLIParams.DEST_FILE_INCLHEADER))
-                firstLineDone = false;
-            String separator = parsed.getArgument(CLIParams.DEST_FILE_FIELDSEPARATOR);
-            while (in.isAlive()) {
-                if (in.getQueue().size() == 0) {
-                    Thread.sleep(20);
-                    continue;
-                }
-                Row[] rows = in.getQueue().poll();
-                if (!firstLineDone) {
-                    // TODO: do header line
-                    firstLineDone = true;
-                }
-
-                writeRows(rows, in, w, separator);
-
-                // get mem peak
-                long currMax = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
-                if (currMax > maxMemUsage)
-                    maxMemUsage = currMax;
-            }
-            long t0 = System.currentTimeMillis();
-            if (w != null) {
-                w.flush();
-                w.close();
+            String srcJdbc = parsed.getArgument(CLIParams.SRC_JDBC);
+            String srcUser = parsed.getArgument(CLIParams.SRC_USER);
+            String srcPassword = parsed.getArgument(CLIParams.SRC_PASSWORD);
+            String[] srcSelects = KeyRangeSplitter.createSelectStmts(srcJdbc, srcUser, srcPassword,
+                    parsed.getArgument(CLIParams.SRC_DATA), parsed.getArgument(CLIParams.SRC_SPLIT_COLUMN),
+                    parsed.getArgument(CLIParams.SRC_SPLIT_METHOD),
+                    parsed.getIntegerArgument(CLIParams.SRC_PARALLELISM));
+            BatchChannel<ColumnBatch> queue = new BatchChannel<>(
+                    parsed.getIntegerArgument(CLIParams.SRC_BUFFERED_ROWS));
+            boolean driverText = "csv".equals(parsed.getArgument(CLIParams.DEST_FILE_FORMAT))
+                    && "driver".equals(parsed.getArgument(CLIParams.DEST_FILE_VALUES));
+            readers = new ThreadReadingFromDB[srcSelects.length];
+            for (int i = 0; i < srcSelects.length; i++) {
+                readers[i] = new ThreadReadingFromDB(srcJdbc, srcUser, srcPassword, srcSelects[i], batchSize, queue);
+                readers[i].setDriverText(driverText);
+                readers[i].setLatencies(latencies);
             }
-            tFileWriteTime += System.currentTimeMillis() - t0;
+            for (ThreadReadingFromDB r : readers)
+                r.start();
+            // all readers deliver the same columns
+            ThreadReadingFromDB in = readers[0];
+
+            long maxRows = Long.parseLong(parsed.getArgument(CLIParams.DEST_FILE_MAX_ROWS));
+            long maxBytes = Long.parseLong(parsed.getArgument(CLIParams.DEST_FILE_MAX_BYTES));
+            int writers = Math.max(1, parsed.getIntegerArgument(CLIParams.DEST_FILE_WRITERS));
+            parts = new PartFiles(parsed.getArgument(CLIParams.DEST_FILE_NAME), destOverwrite, destAppend,
+                    maxRows > 0 || maxBytes > 0 || writers > 1);
+            parts.setLatencies(latencies);
+            int formatThreads = writers > 1 ? writers : parsed.getIntegerArgument(CLIParams.DEST_FILE_FORMAT_THREADS);
+            // 1MB direct buffers, enough to cover all blocks in flight
+            ByteBufferPool bufferPool = new ByteBufferPool(1024 * 1024, formatThreads * 8 + 8);
+            boolean binary = "binary".equals(parsed.getArgument(CLIParams.DEST_FILE_FORMAT));
+            compressor = BlockCompressor.create(parsed.getArgument(CLIParams.DEST_FILE_COMPRESSION), bufferPool);
+            if (binary && !BlockCompressor.NONE.equals(compressor.getName()))
+                throw new IllegalArgumentException("destFormat=binary is read back by block offsets, "
+                        + "it cannot be combined with " + CLIParams.DEST_FILE_COMPRESSION);
+            if (binary)
+                formatter = new BinaryDump(bufferPool, parsed.hasFlag(CLIParams.DEST_FILE_CHECKSUM));
+            else
+                formatter = new CsvBlockFormatter(parsed.getArgument(CLIParams.DEST_FILE_FIELDSEPARATOR),
+                        firstColIsRowCounter, Charset.forName(parsed.getArgument(CLIParams.DEST_FILE_ENCODING)),
+                        bufferPool);
+            // every part gets the header, the binary header is needed even without rows
+            boolean header = binary || writeColnamesAsFirstRow;
+
+            if (writers > 1)
+                exportParallel(queue, in, header, binary, maxRows, maxBytes, writers);
+            else
+                exportOrdered(queue, in, header, binary, maxRows, maxBytes, formatThreads);
+
+            if (parts.isNumbered())
+                manifest = parts.writeManifest();
 
             tFinished = System.currentTimeMillis();
 
             if (parsed.hasFlag(CLIParams.PRINTSUMMARY))
-                printSummary(in, parsed);
+                printSummary(readers, parsed);
+            if (parsed.getArgument(CLIParams.LATENCY_JSON) != null)
+                latencies.writeJson(parsed.getArgument(CLIParams.LATENCY_JSON));
 
         } catch (Throwable t) {
             t.printStackTrace();
             System.exit(1);
         } finally {
-            closeFile(w);
-            closeInThread(in);
+            if (blockWriter != null)
+                blockWriter.terminate();
+            if (fileWriters != null)
+                for (ThreadWritingToFile out : fileWriters)
+                    if (out != null)
+                        out.interrupt();
+            closeInThreads(readers);
+        }
+    }
+
+    // one thread writes all blocks in row order, formatting runs on a pool
+    private void exportOrdered(BatchChannel<ColumnBatch> queue, ThreadReadingFromDB in, boolean header,
+            boolean binary, long maxRows, long maxBytes, int formatThreads) throws Exception {
+        blockWriter = new OrderedBlockWriter(parts, compressor, formatThreads);
+        blockWriter.start();
+        PartRotator rotator = new PartRotator(blockWriter, formatter, header, maxRows, maxBytes,
+                in.getColumnNames(), in.getColumnTypes());
+        rotator.open(binary);
+        while (true) {
+            long t0 = System.currentTimeMillis();
+            ColumnBatch rows = queue.take();
+            tWaitForReader += System.currentTimeMillis() - t0;
+            // null: all readers are done and the queue is drained
+            if (rows == null)
+                break;
+            t0 = System.currentTimeMillis();
+            rotator.write(rows, rowsExported + 1);
+            tWaitForFormatter += System.currentTimeMillis() - t0;
+            rowsExported += rows.getRowCount();
+
+            // get mem peak
+            long currMax = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+            if (currMax > maxMemUsage)
+                maxMemUsage = currMax;
         }
+        rotator.close();
+        blockWriter.finish();
     }
 
-    private void printSummary(ThreadReadingFromDB in, CLIParsed cli) {
+    // every writer takes batches from the queue and writes its own parts
+    private void exportParallel(BatchChannel<ColumnBatch> queue, ThreadReadingFromDB in, boolean header,
+            boolean binary, long maxRows, long maxBytes, int writers) throws Exception {
+        AtomicLong rowCounter = new AtomicLong();
+        fileWriters = new ThreadWritingToFile[writers];
+        for (int i = 0; i < writers; i++) {
+            // parts are opened by the first batch, without rows the first writer opens one like exportOrdered()
+            fileWriters[i] = new ThreadWritingToFile(queue, parts, formatter, compressor, header, binary, i == 0,
+                    maxRows, maxBytes, in.getColumnNames(), in.getColumnTypes(), rowCounter);
+            fileWriters[i].setName("ThreadWritingToFile#" + (i + 1));
+            fileWriters[i].start();
+        }
+        for (ThreadWritingToFile out : fileWriters) {
+            while (out.isAlive()) {
+                out.join(1000);
+                // get mem peak
+                long currMax = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+                if (currMax > maxMemUsage)
+                    maxMemUsage = currMax;
+            }
+        }
+        for (ThreadWritingToFile out : fileWriters) {
+            if (out.getException() != null)
+                throw new IOException("writing output failed", out.getException());
+            rowsExported += out.getRowsWritten();
+            tWaitForReader += out.getWaitForReader();
+        }
+    }
+
+    private void printSummary(ThreadReadingFromDB[] readers, CLIParsed cli) {
         if (cli.getArgument(CLIParams.DEST_FILE_NAME) != null) {
             Util.log("target=" + cli.getArgument(CLIParams.DEST_FILE_NAME));
             Util.log("mode=" + cli.getArgument(CLIParams.DEST_FILE_DESTMODE));
         } else {
             Util.log("target=Console");
         }
+        Util.log("format=" + formatter.getName());
+        if (parts.isNumbered()) {
+            Util.log("parts=" + parts.getParts().size());
+            Util.log("manifest=" + manifest);
+        }
         Util.log("started=" + new Date(tStarted));
         Util.log("finished=" + new Date(tFinished));
         long durMs = (tFinished - tStarted);
         Util.log("time execution complete(ms)=" + durMs);
         Util.log("rows exported=" + rowsExported);
-        Util.log("time connect to source database (ms)=" + in.getInitTime());
-        Util.log("time read from source database (ms)=" + in.getDBTime());
-        Util.log("time wait, db thread in-buffer full (max=" + in.getMaxQueueSize()
-                + "), waiting for writing thread(ms)=" + in.getWaitForQueueConsumer());
-        Util.log("time output(ms)=" + tFileWriteTime);
-        long outSize = charsWritten;
-        if (cli.getArgument(CLIParams.DEST_FILE_NAME) != null)
-            outSize = new File(cli.getArgument(CLIParams.DEST_FILE_NAME)).length();
-        Util.log("output size(bytes)=" + outSize);
-        long bytesPerSec = (long) (outSize / ((double) durMs / 1000));
-        Util.log("bytes/sec exported=" + bytesPerSec);
-        Util.log("mb/sec exported=" + ((double) bytesPerSec / (1024 * 1024)));
-        Util.log("rows/sec exported=" + (long) (rowsExported / ((double) durMs / 1000)));
-        Util.log("max memory usage (mb)=" + Long.valueOf(maxMemUsage / (1024 * 1024)));
-    }
-
-    private BufferedWriter prepareDestFile(boolean destOverwrite, boolean destAppend, String destfile)
-            throws IOException {
-        File f = new File(destfile);
-        if (f.exists()) {
-            if (f.isDirectory()) {
-                throw new FileAlreadyExistsException("destination file is a directory:" + f.getAbsoluteFile());
-            } else if (!destOverwrite) {
-                throw new FileAlreadyExistsException("destination file already exists:" + f.getAbsoluteFile());
-            } else {
-                f.delete();
+        long initTime = 0, dbTime = 0, waitTime = 0;
+        for (int i = 0; i < readers.length; i++) {
+            ThreadReadingFromDB in = readers[i];
+            if (readers.length > 1) {
+                Util.log("reader#" + (i + 1) + " select=" + in.getSelectStmt());
+                Util.log("reader#" + (i + 1) + " rows read=" + in.getTotalRowsReceived());
+                Util.log("reader#" + (i + 1) + " time connect to source database (ms)=" + in.getInitTime());
+                Util.log("reader#" + (i + 1) + " time read from source database (ms)=" + in.getDBTime());
+                Util.log("reader#" + (i + 1) + " time wait, waiting for writing thread(ms)="
+                        + in.getWaitForQueueConsumer());
             }
+            initTime += in.getInitTime();
+            dbTime += in.getDBTime();
+            waitTime += in.getWaitForQueueConsumer();
         }
-        return new BufferedWriter(new FileWriter(destfile, destAppend));
-    }
-
-    private void closeInThread(ThreadReadingFromDB in) {
-        try {
-            if (in != null) {
-                in.terminate();
-                in.cleanUpAfterRun();
+        Util.log("reading threads=" + readers.length);
+        Util.log("time connect to source database (ms)=" + initTime);
+        Util.log("time read from source database (ms)=" + dbTime);
+        Util.log("time wait, db thread in-buffer full (max=" + readers[0].getMaxQueueSize()
+                + "), waiting for writing thread(ms)=" + waitTime);
+        Util.log("time wait, in-buffer empty, waiting for reading threads(ms)=" + tWaitForReader);
+        if (blockWriter != null) {
+            Util.log("formatting threads=" + blockWriter.getFormatThreads());
+            Util.log("time format, all formatting threads(ms)=" + formatter.getFormatTime());
+            Util.log("time wait, formatting threads busy, waiting for formatter(ms)=" + tWaitForFormatter);
+            Util.log("time wait, output thread waiting for formatted block(ms)="
+                    + blockWriter.getWaitForFormatter());
+            Util.log("time output(ms)=" + blockWriter.getWriteTime());
+        } else {
+            long writeTime = 0;
+            for (int i = 0; i < fileWriters.length; i++) {
+                Util.log("writer#" + (i + 1) + " rows written=" + fileWriters[i].getRowsWritten());
+                writeTime += fileWriters[i].getWriteTime();
             }
-        } catch (Exception e) {
-            Util.log(e);
-        }
-
-    }
-
-    private void closeFile(BufferedWriter w) {
-        try {
-            if (w != null)
-                w.close();
-        } catch (IOException ioe) {
-            Util.log(ioe);
+            Util.log("writing threads=" + fileWriters.length);
+            Util.log("time format, all writing threads(ms)=" + formatter.getFormatTime());
+            Util.log("time output, all writing threads(ms)=" + writeTime);
         }
-
+        Util.log("compression=" + compressor.getName());
+        Util.log("time compress, all formatting threads(ms)=" + compressor.getCompressTime());
+        long rawSize = compressor.getRawBytes();
+        long outSize = parts.getBytesWritten();
+        Util.log("raw size(bytes)=" + rawSize);
+        Util.log("output size(bytes)=" + outSize);
+        if (rawSize > 0)
+            Util.log("compression ratio=" + ((double) outSize / rawSize));
+        long bytesPerSec = (long) (rawSize / ((double) durMs / 1000));
+        Util.log("raw bytes/sec exported=" + bytesPerSec);
+        Util.log("raw mb/sec exported=" + ((double) bytesPerSec / (1024 * 1024)));
+        long outBytesPerSec = (long) (outSize / ((double) durMs / 1000));
+        Util.log("output bytes/sec exported=" + outBytesPerSec);
+        Util.log("output mb/sec exported=" + ((double) outBytesPerSec / (1024 * 1024)));
+        Util.log("rows/sec exported=" + (long) (rowsExported / ((double) durMs / 1000)));
+        Util.log("max memory usage (mb)=" + Long.valueOf(maxMemUsage / (1024 * 1024)));
+        Util.log("jvm=" + jvmStats.getSummary(rowsExported, rawSize));
+        latencies.log();
     }
 
-    private void writeRows(final Row[] rows, final ThreadReadingFromDB in, BufferedWriter w, String separator)
-            throws IOException, SQLException {
-
-        boolean needsNewLine = false;
-
-        if (writeColnamesAsFirstRow && !firstRowWritten) {
-            String firstRow = "";
-            for (int i = 1; i <= in.getColumnCount(); i++) {
-                if (i >= 2)
-                    firstRow += separator;
-                String n = in.getColumnName(i);
-                if (n != null)
-                    n = n.replace("\"", "\\\"");
-                firstRow += '"' + n + '"';
-            }
-            outPrint(firstRow);
-            needsNewLine = true;
-        }
-
-        for (int rCnt = 0; rCnt < rows.length; rCnt++) {
-            Row row = rows[rCnt];
-            rows[rCnt] = null; // help the gc. is this necessary?
-            if (needsNewLine) {
-                long t0 = System.currentTimeMillis();
-                outNewline();
-                tFileWriteTime += System.currentTimeMillis() - t0;
-            }
-            rowsExported++;
-            StringBuffer b = new StringBuffer(1000);
-            boolean needsSeparator = false;
-            if (firstColIsRowCounter) {
-                b.append(rowsExported).append(separator);
-                needsSeparator = true;
-            }
-            for (int i = 0; i < in.getColumnCount(); i++) {
-                if (needsSeparator)
-                    b.append(separator);
-                String s = row.getString(i);
-                if (s != null) {
-                    s = s.replace("\"", "\\\""); // " to \"
-                    b.append('"').append(s).append('"');
+    private void closeInThreads(ThreadReadingFromDB[] readers) {
+        if (readers == null)
+            return;
+        for (ThreadReadingFromDB in : readers) {
+            try {
+                if (in != null) {
+                    in.terminate();
+                    in.cleanUpAfterRun();
                 }
-                needsSeparator = true;
+            } catch (Exception e) {
+                Util.log(e);
             }
-            long t0 = System.currentTimeMillis();
-
-            outPrint(b.toString());
-
-            tFileWriteTime += System.currentTimeMillis() - t0;
-            needsNewLine = true;
         }
-
-    }
-
-    private void outPrint(String s) throws IOException {
-        if (w != null) {
-            w.write(s);
-        } else {
-            System.out.print(s);
-            charsWritten += s.length();
-        }
-    }
-
-    private void outNewline() throws IOException {
-        if (w != null)
-            w.newLine();
-        else
-            System.out.println();
-        charsWritten++;
     }
 }
@@ -0,0 +1,325 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.commands;
+
+import java.io.IOException;
+import java.lang.Thread.State;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.cg.cli.CLIParsed;
+import com.cg.cli.CLIParsedException;
+import com.cg.cli.CLIRules;
+import com.cg.sqlcp.SQLcp;
+import com.cg.sqlcp.impl.BatchChannel;
+import com.cg.sqlcp.impl.CLIParams;
+import com.cg.sqlcp.impl.ColumnBatch;
+import com.cg.sqlcp.impl.CommitPolicy;
+import com.cg.sqlcp.impl.CsvFormat;
+import com.cg.sqlcp.impl.Latencies;
+import com.cg.sqlcp.impl.ThreadReadingFromFile;
+import com.cg.sqlcp.impl.ThreadWritingToDB;
+import com.cg.sqlcp.impl.Util;
+import com.cg.sqlcp.loader.BulkLoaders;
+import com.cg.sqlutil.SQLUtilFactory;
+import com.cg.sqlutil.SQLUtilInterface;
+
+public class ImportFile2DB {
+
+    private long tInsertAll = 0, t0Start = System.currentTimeMillis();
+    private Long memPeakM = 0L;
+    private CLIParsed cliParsed;
+    private final Latencies latencies = new Latencies();
+
+    public void start(String[] args) throws SQLException, IOException, InterruptedException {
+        CLIRules rules = new CLIRules(
+                "loads a file written by db2file via INSERT: " + SQLcp.class.getName() + " file2db ");
+        rules.addRequired(CLIParams.SRC_FILE_NAME).setDescription("Source: filename");
+        rules.addOptional(CLIParams.SRC_FILE_ENCODING, Charset.defaultCharset().name())
+                .setDescription("Source: character set, see JAVA java.nio.charset.Charset");
+        rules.addFlag(CLIParams.SRC_FILE_INCLHEADER)
+                .setDescription("YES=first line of srcFile contains columnnames of the target");
+        rules.addOptional(CLIParams.SRC_FILE_FIELDSEPARATOR, ";")
+                .setDescription("Source: character to separate different values within the same line");
+        rules.addOptional(CLIParams.SRC_FILE_QUOTE, "\"").setDescription("Source: values are enclosed by");
+        rules.addOptional(CLIParams.SRC_FILE_ESCAPE, "\\")
+                .setDescription("Source: escape character for the quote within enclosed values");
+        rules.addOptional(CLIParams.SRC_FILE_NULL, "").setDescription("Source: unquoted value for NULL values");
+        rules.addOptional(CLIParams.SRC_FILE_ROWSTART, "").setDescription("Source: every line starts with, e.g. [[");
+        rules.addOptional(CLIParams.SRC_FILE_ROWEND, "").setDescription("Source: every line ends with, e.g. ]]");
+        rules.addFlag(CLIParams.SRC_FILE_COUNTROWS).setDescription("first column is a row number counter, skip it");
+        rules.addOptional(CLIParams.SRC_PARALLELISM, "" + Runtime.getRuntime().availableProcessors())
+                .setDescription("Source: number of parsing threads");
+        rules.addOptional(CLIParams.SRC_BUFFERED_ROWS, "50000")
+                .setDescription("Source: Maximum number of rows queued to be written to Target");
+
+        rules.addRequired(CLIParams.DEST_DB_JDBC).setDescription("Target: JDBC Connection String");
+        rules.addRequired(CLIParams.DEST_DB_USER).setDescription("Target: Username");
+        rules.addRequired(CLIParams.DEST_DB_PASSWORD).setDescription("Target: Password");
+        rules.addRequired(CLIParams.DEST_DB_TARGET)
+                .setDescription("Target: Tablename where the data will be written into");
+        rules.addOptional(CLIParams.DEST_DB_SQL_BEF_IMPORT, "")
+                .setDescription("Target: ???create table, truncate, delete of target object");
+        rules.addOptional(CLIParams.DEST_DB_NUM_THREADS, "1").setDescription("Target: number of writing threads");
+        rules.addOptional(CLIParams.DEST_DB_BINDTYPES, "").setDescription("Target: ???");
+        rules.addOptional(CLIParams.DEST_DB_LOAD_METHOD, BulkLoaders.METHOD_BATCH)
+                .setDescription("Target: see db2db").setValidValues(BulkLoaders.METHODS);
+        rules.addOptional(CLIParams.DEST_DB_COMMIT_EVERY, "1").setDescription("Target: see db2db");
+        rules.addFlag(CLIParams.DEST_DB_ASYNC_COMMIT, "Target: see db2db");
+        rules.addFlag(CLIParams.DEST_DB_PIPELINE, "Target: see db2db");
+
+        rules.addOptional(CLIParams.BATCHSIZE, "5000")
+                .setDescription("number of rows that are read or written per chunk");
+        rules.addFlag(CLIParams.PRINTPARAMSONLY, "YES=Print given parameters only, then exit");
+        rules.addOptional(CLIParams.PRINTRUNTIMEINFO, "0")
+                .setDescription("Interval of seconds when runtime info will be printed, 0=no stats during execution");
+        rules.addFlag(CLIParams.PRINTSUMMARY, "Print statistics and used settings");
+        rules.addOptional(CLIParams.LATENCY_JSON, null)
+                .setDescription("write latency percentiles of all stages as JSON to this file");
+
+        try {
+            cliParsed = new CLIParsed(rules, args);
+        } catch (CLIParsedException pe) {
+            System.err.println(pe.getMessage());
+            rules.printHelp(CLIParams.HELPORDER_FILE2DB);
+            System.exit(1);
+        }
+
+        if (cliParsed.hasFlag(CLIParams.PRINTPARAMSONLY)) {
+            cliParsed.printParams(System.out);
+            return;
+        }
+
+        ThreadReadingFromFile in = null;
+        ThreadWritingToDB[] outThreads = null;
+        try {
+            String destJdbc = cliParsed.getArgument(CLIParams.DEST_DB_JDBC);
+            String destUser = cliParsed.getArgument(CLIParams.DEST_DB_USER);
+            String destPassword = cliParsed.getArgument(CLIParams.DEST_DB_PASSWORD);
+            String destTarget = cliParsed.getArgument(CLIParams.DEST_DB_TARGET);
+            String destBindTypes = cliParsed.getArgument(CLIParams.DEST_DB_BINDTYPES);
+            String destLoadMethod = cliParsed.getArgument(CLIParams.DEST_DB_LOAD_METHOD);
+            int destNumThreads = cliParsed.getIntegerArgument(CLIParams.DEST_DB_NUM_THREADS);
+            CommitPolicy commitPolicy = CommitPolicy.parse(cliParsed.getArgument(CLIParams.DEST_DB_COMMIT_EVERY));
+
+            // target may be created or truncated first, then its columns define the
+            // conversion of the file values
+            outThreads = new ThreadWritingToDB[destNumThreads];
+            BatchChannel<ColumnBatch> queue = new BatchChannel<>(
+                    cliParsed.getIntegerArgument(CLIParams.SRC_BUFFERED_ROWS));
+            CsvFormat fmt = new CsvFormat(Charset.forName(cliParsed.getArgument(CLIParams.SRC_FILE_ENCODING)),
+                    cliParsed.getArgument(CLIParams.SRC_FILE_FIELDSEPARATOR),
+                    toChar(cliParsed.getArgument(CLIParams.SRC_FILE_QUOTE)),
+                    toChar(cliParsed.getArgument(CLIParams.SRC_FILE_ESCAPE)),
+                    cliParsed.getArgument(CLIParams.SRC_FILE_NULL), cliParsed.getArgument(CLIParams.SRC_FILE_ROWSTART),
+                    cliParsed.getArgument(CLIParams.SRC_FILE_ROWEND), cliParsed.hasFlag(CLIParams.SRC_FILE_INCLHEADER),
+                    cliParsed.hasFlag(CLIParams.SRC_FILE_COUNTROWS));
+
+            String sqlBeforeImport = cliParsed.getArgument(CLIParams.DEST_DB_SQL_BEF_IMPORT);
+            TargetColumns target = readTargetColumns(destJdbc, destUser, destPassword, destTarget, sqlBeforeImport);
+
+            in = new ThreadReadingFromFile(cliParsed.getArgument(CLIParams.SRC_FILE_NAME), fmt, target.names,
+                    target.types, cliParsed.getIntegerArgument(CLIParams.SRC_PARALLELISM),
+                    cliParsed.getIntegerArgument(CLIParams.BATCHSIZE), queue);
+            in.start();
+
+            tInsertAll = System.currentTimeMillis();
+            for (int i = 0; i < destNumThreads; i++) {
+                outThreads[i] = new ThreadWritingToDB(in, destJdbc, destUser, destPassword, destTarget,
+                        destBindTypes, destLoadMethod);
+                outThreads[i].setLatencies(latencies);
+                outThreads[i].setCommitPolicy(commitPolicy);
+                outThreads[i].setAsyncCommit(cliParsed.hasFlag(CLIParams.DEST_DB_ASYNC_COMMIT));
+                outThreads[i].setPipelined(cliParsed.hasFlag(CLIParams.DEST_DB_PIPELINE));
+                outThreads[i].start();
+            }
+
+            long lastPrintRuntime = 0;
+            while (atLeastOneNotTerminated(outThreads)) {
+                int runtimeInfoInterval = cliParsed.getIntegerArgument(CLIParams.PRINTRUNTIMEINFO);
+                if (runtimeInfoInterval > 0) {
+                    long currT = System.currentTimeMillis();
+                    if ((currT - lastPrintRuntime) / 1000 >= runtimeInfoInterval) {
+                        printStatus(in, outThreads, queue);
+                        lastPrintRuntime = System.currentTimeMillis();
+                    }
+                }
+                Thread.sleep(100);
+            }
+
+            tInsertAll = System.currentTimeMillis() - tInsertAll;
+            if (cliParsed.hasFlag(CLIParams.PRINTSUMMARY))
+                printSummary(in, outThreads);
+            if (cliParsed.getArgument(CLIParams.LATENCY_JSON) != null)
+                latencies.writeJson(cliParsed.getArgument(CLIParams.LATENCY_JSON));
+
+            int errCnt = 0;
+            for (ThreadWritingToDB t : outThreads)
+                if (t.getException() != null) {
+                    errCnt++;
+                    t.getException().printStackTrace(System.err);
+                }
+
+            if (errCnt == 0)
+                Util.log("import done");
+            else {
+                Util.log("import failed");
+                System.exit(1);
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.exit(1);
+        } finally {
+            if (in != null) {
+                in.terminate();
+                in.cleanUpAfterRun();
+            }
+            if (outThreads != null)
+                for (ThreadWritingToDB out : outThreads)
+                    if (out != null)
+                        out.cleanUpAfterRun();
+        }
+    }
+
+    private static char toChar(String s) {
+        if (s == null || s.length() != 1)
+            throw new IllegalArgumentException("exactly one character expected, got [[" + s + "]]");
+        return s.charAt(0);
+    }
+
+    private static class TargetColumns {
+        String[] names;
+        int[] types;
+    }
+
+    private TargetColumns readTargetColumns(String jdbc, String user, String password, String target,
+            String sqlBeforeImport) throws SQLException {
+        if (target.toUpperCase().startsWith("INSERT "))
+            throw new IllegalArgumentException("file2db needs a tablename as target, not an INSERT statement");
+        SQLUtilInterface sql = null;
+        try {
+            try {
+                sql = SQLUtilFactory.createSQLUtil(jdbc, user, password);
+            } catch (SQLException sqle) {
+                System.err.println("Cannot establish connection to target. jdbc=" + jdbc + " user=" + user
+                        + " len(password)=" + (password == null ? null : password.length()));
+                throw sqle;
+            }
+            if (sqlBeforeImport != null && sqlBeforeImport.length() >= 2) {
+                sql.executeDDL(sqlBeforeImport);
+                sql.commit();
+            }
+            Statement stmt = sql.getConnection().createStatement();
+            try {
+                ResultSet rs = stmt.executeQuery("SELECT * FROM " + target + " WHERE 1=0");
+                ResultSetMetaData md = rs.getMetaData();
+                TargetColumns tc = new TargetColumns();
+                tc.names = new String[md.getColumnCount()];
+                tc.types = new int[md.getColumnCount()];
+                for (int i = 0; i < tc.names.length; i++) {
+                    tc.names[i] = md.getColumnName(i + 1);
+                    tc.types[i] = md.getColumnType(i + 1);
+                }
+                rs.close();
+                return tc;
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            if (sql != null)
+                sql.closeConnection();
+        }
+    }
+
+    private boolean atLeastOneNotTerminated(ThreadWritingToDB[] outThreads) {
+        for (ThreadWritingToDB out : outThreads)
+            if (out.getException() == null && out.getState() != State.TERMINATED)
+                return true;
+        return false;
+    }
+
+    private void printStatus(ThreadReadingFromFile in, ThreadWritingToDB[] outThreads,
+            BatchChannel<ColumnBatch> queue) {
+        StringBuffer msg = new StringBuffer();
+        Long memUsgM = Long.valueOf(Runtime.getRuntime().totalMemory() / 1024 / 1024);
+        if (memUsgM > memPeakM)
+            memPeakM = memUsgM;
+        msg.append("mem=").append(memUsgM.toString()).append("M; ");
+        msg.append("queue=" + queue.getRows() + "(" + queue.getBytes() / 1024 / 1024 + "M); ");
+        msg.append("T=" + formatMs((System.currentTimeMillis() - t0Start)) + "; ");
+        msg.append("in*" + in.getParseThreads() + "(" + in.getState() + " parsed=" + in.getTotalRowsParsed() + " read="
+                + in.getBytesRead() / 1024 / 1024 + "M; waitT=" + formatMs(in.getWaitForQueueConsumer()) + "); ");
+        long ins = 0, dbT = 0, waitT = 0;
+        for (ThreadWritingToDB out : outThreads) {
+            ins += out.getTotalRowsInserted();
+            dbT += out.getDBTime();
+            waitT += out.getWaitForQueueProducer();
+        }
+        msg.append("out*" + outThreads.length + "(ins=" + ins + " dbT=" + formatMs(dbT) + "; waitT=" + formatMs(waitT)
+                + ")");
+        Util.log(msg.toString());
+    }
+
+    private void printSummary(ThreadReadingFromFile in, ThreadWritingToDB[] outThreads) {
+        Util.log("SUMMARY");
+        Util.log("source     : file=" + cliParsed.getArgument(CLIParams.SRC_FILE_NAME) + ", encoding="
+                + cliParsed.getArgument(CLIParams.SRC_FILE_ENCODING));
+        Util.log("destination: host=" + cliParsed.getArgument(CLIParams.DEST_DB_JDBC) + ", user="
+                + cliParsed.getArgument(CLIParams.DEST_DB_USER) + ", target="
+                + cliParsed.getArgument(CLIParams.DEST_DB_TARGET));
+        // readProc : init=6ms, read=1211ms(512M), threads=8, parse=8121ms, 19059rows parsed
+        Util.log("readProc   : init=" + formatMs(in.getInitTime()) + ", read=" + formatMs(in.getIOTime()) + "("
+                + in.getBytesRead() / 1024 / 1024 + "M), wait=" + formatMs(in.getWaitForQueueConsumer()) + ", threads="
+                + in.getParseThreads() + ", parse=" + formatMs(in.getParseTime()) + ", chunks=" + in.getChunksParsed()
+                + ", " + in.getTotalRowsParsed() + "rows parsed");
+        long init = 0, wait = 0, dbT = 0, batches = 0, ins = 0, commits = 0, commitT = 0, bind = 0, hidden = 0;
+        for (ThreadWritingToDB out : outThreads) {
+            bind += out.getBindTime();
+            hidden += out.getBindHiddenTime();
+            commits += out.getCommits();
+            commitT += out.getCommitTime();
+            init += out.getInitTime();
+            wait += out.getWaitForQueueProducer();
+            dbT += out.getDBTime();
+            batches += out.getTotalBatchedInserts();
+            ins += out.getTotalRowsInserted();
+        }
+        Util.log("writeProc  : init=" + formatMs(init) + ", wait=" + formatMs(wait) + ", threads=" + outThreads.length
+                + ", insert=" + formatMs(dbT) + ", " + getRowsPerSec(ins, tInsertAll) + "rows/sec, " + batches + "*"
+                + outThreads[0].getLoadOperationName() + ", " + ins + "rows inserted");
+        Util.log("commit     : every=" + cliParsed.getArgument(CLIParams.DEST_DB_COMMIT_EVERY) + ", async="
+                + cliParsed.hasFlag(CLIParams.DEST_DB_ASYNC_COMMIT) + ", " + commits + " commits, "
+                + formatMs(commitT));
+        if (cliParsed.hasFlag(CLIParams.DEST_DB_PIPELINE))
+            Util.log("pipeline   : bind=" + formatMs(bind) + ", hidden=" + formatMs(hidden) + "("
+                    + (bind == 0 ? 0 : hidden * 100 / bind) + "%) behind insert");
+        long overallMs = System.currentTimeMillis() - t0Start;
+        Util.log("summary    : execTime=" + formatMs(overallMs) + ", memPeak=" + memPeakM + "M, outThreads="
+                + outThreads.length + ", rows=" + ins + ", (rows/sec)=" + getRowsPerSec(ins, overallMs));
+        latencies.log();
+    }
+
+    private String formatMs(long ms) {
+        // stay ms under 10sec
+        if (ms < 10000)
+            return "" + ms + "ms";
+        // switch to sec
+        long s = ms / 1000;
+        if (s < 3600)
+            return "" + s + "sec";
+        long mi = s / 60;
+        return "" + mi + "m";
+    }
+
+    private long getRowsPerSec(long rows, long ms) {
+        if (ms / 1000 == 0)
+            return -1;
+        return (long) ((double) rows / (ms / 1000));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+/**
+ * Chooses batchSize and bufferedRows at runtime. Readers report the time to
+ * fetch a batch, writers the time to load and commit it. The slower side
+ * defines the cost per row, batchSize moves toward targetMs / cost, at most
+ * doubled or halved per step. With a memory budget bufferedRows is set to
+ * budget / bytes per row and batchSize stays below a quarter of it, so the
+ * queue always holds a few batches. Costs are moving averages, a change is
+ * only made if it is larger than 10%.
+ */
+public class AdaptiveBatchSize {
+
+    private static final double ALPHA = 0.3;
+
+    private final long targetNanos, memoryBudget;
+    private final int minBatchSize, maxBatchSize, initialBatchSize;
+    private final BatchChannel<?> queue;
+    private volatile int batchSize;
+    private double fetchNanosPerRow = -1, writeNanosPerRow = -1, bytesPerRow = -1;
+    private int smallest, largest, changes = 0;
+
+    /**
+     * @param targetMs     latency per batch, 0 keeps batchSize fixed
+     * @param memoryBudget bytes for queued batches, 0 keeps bufferedRows fixed
+     */
+    public AdaptiveBatchSize(int batchSize, long targetMs, long memoryBudget, BatchChannel<?> queue) {
+        this.initialBatchSize = batchSize;
+        this.batchSize = batchSize;
+        this.targetNanos = targetMs * 1000000L;
+        this.memoryBudget = memoryBudget;
+        this.queue = queue;
+        this.minBatchSize = Math.max(10, batchSize / 100);
+        this.maxBatchSize = (int) Math.min(1000000L, batchSize * 100L);
+        this.smallest = batchSize;
+        this.largest = batchSize;
+    }
+
+    public boolean isEnabled() {
+        return targetNanos > 0 || memoryBudget > 0;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public synchronized void fetched(int rows, long nanos, long bytes) {
+        if (rows <= 0)
+            return;
+        fetchNanosPerRow = average(fetchNanosPerRow, (double) nanos / rows);
+        bytesPerRow = average(bytesPerRow, (double) bytes / rows);
+        adjust();
+    }
+
+    public synchronized void written(int rows, long nanos) {
+        if (rows <= 0)
+            return;
+        writeNanosPerRow = average(writeNanosPerRow, (double) nanos / rows);
+        adjust();
+    }
+
+    private static double average(double avg, double v) {
+        return avg < 0 ? v : avg + ALPHA * (v - avg);
+    }
+
+    private void adjust() {
+        long size = batchSize;
+        double nanosPerRow = Math.max(fetchNanosPerRow, writeNanosPerRow);
+        if (targetNanos > 0 && nanosPerRow > 0)
+            size = Math.max(batchSize / 2, Math.min(batchSize * 2L, (long) (targetNanos / nanosPerRow)));
+        if (memoryBudget > 0 && bytesPerRow > 0) {
+            long bufferedRows = Math.max(minBatchSize * 4L, (long) (memoryBudget / bytesPerRow));
+            if (Math.abs(bufferedRows - queue.getMaxRows()) > queue.getMaxRows() / 10)
+                queue.setMaxRows(bufferedRows);
+            size = Math.min(size, bufferedRows / 4);
+        }
+        size = Math.max(minBatchSize, Math.min(maxBatchSize, size));
+        if (Math.abs(size - batchSize) > batchSize / 10) {
+            batchSize = (int) size;
+            changes++;
+            smallest = Math.min(smallest, batchSize);
+            largest = Math.max(largest, batchSize);
+        }
+    }
+
+    public synchronized String getSummary() {
+        StringBuilder sb = new StringBuilder(100);
+        sb.append("batchSize=").append(batchSize).append(" (start=").append(initialBatchSize).append(", min=")
+                .append(smallest).append(", max=").append(largest).append(", changes=").append(changes)
+                .append("), bufferedRows=").append(queue.getMaxRows());
+        if (fetchNanosPerRow >= 0)
+            sb.append(", fetch(us/row)=").append(String.format("%.2f", fetchNanosPerRow / 1000));
+        if (writeNanosPerRow >= 0)
+            sb.append(", write(us/row)=").append(String.format("%.2f", writeNanosPerRow / 1000));
+        if (bytesPerRow >= 0)
+            sb.append(", bytes/row=").append((long) bytesPerRow);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded handoff between reading and writing threads. The bound is the
+ * number of queued rows (bufferedRows), not the number of batches. put()
+ * blocks while the channel is full, take() blocks while it is empty and
+ * returns null once every registered producer called producerDone() and the
+ * channel is drained. Row, byte and batch counters are kept on put/take, so
+ * reading them never walks the queue.
+ */
+public class BatchChannel<T> {
+
+    private static final class Entry<T> {
+        final T batch;
+        final int rows;
+        final long bytes;
+
+        Entry(T batch, int rows, long bytes) {
+            this.batch = batch;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<Entry<T>> entries = new ArrayDeque<>();
+    private volatile long maxRows;
+    private volatile long rows = 0, bytes = 0;
+    private int producers = 0, producersDone = 0;
+    private volatile boolean aborted = false;
+    private Throwable abortCause;
+
+    public BatchChannel(long maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    public void registerProducer() {
+        lock.lock();
+        try {
+            producers++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void producerDone() {
+        lock.lock();
+        try {
+            producersDone++;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the pipeline: blocked producers return false, consumers get an
+     * IllegalStateException with the given cause.
+     */
+    public void abort(Throwable cause) {
+        lock.lock();
+        try {
+            if (!aborted) {
+                aborted = true;
+                abortCause = cause;
+            }
+            notFull.signalAll();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return false if the channel was aborted, the batch was not queued then
+     */
+    public boolean put(T batch, int batchRows, long batchBytes) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            // an empty channel accepts every batch, even if larger than maxRows
+            while (!aborted && rows > 0 && rows + batchRows > maxRows)
+                notFull.await();
+            if (aborted)
+                return false;
+            entries.addLast(new Entry<>(batch, batchRows, batchBytes));
+            rows += batchRows;
+            bytes += batchBytes;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return next batch or null if all producers are done and the channel is
+     *         empty
+     */
+    public T take() throws InterruptedException {
+        return poll(-1);
+    }
+
+    /**
+     * @param timeoutMs <0 waits until a batch or end of stream arrives
+     * @return next batch or null on timeout or end of stream, see isEndOfStream()
+     */
+    public T poll(long timeoutMs) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (aborted)
+                    throw new IllegalStateException("pipeline aborted", abortCause);
+                Entry<T> e = entries.pollFirst();
+                if (e != null) {
+                    rows -= e.rows;
+                    bytes -= e.bytes;
+                    notFull.signalAll();
+                    return e.batch;
+                }
+                if (isEndOfStreamLocked())
+                    return null;
+                if (timeoutMs < 0)
+                    notEmpty.await();
+                else if (nanos <= 0)
+                    return null;
+                else
+                    nanos = notEmpty.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isEndOfStreamLocked() {
+        return producers > 0 && producersDone >= producers && entries.isEmpty();
+    }
+
+    public boolean isEndOfStream() {
+        lock.lock();
+        try {
+            return isEndOfStreamLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    public long getMaxRows() {
+        return maxRows;
+    }
+
+    /**
+     * Changes the bound at runtime, see AdaptiveBatchSize.
+     */
+    public void setMaxRows(long maxRows) {
+        lock.lock();
+        try {
+            this.maxRows = maxRows;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int getBatches() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
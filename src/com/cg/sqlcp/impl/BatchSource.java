@@ -0,0 +1,19 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+/**
+ * Producer side as seen by the writing threads: the queue to take batches
+ * from and the columns the batches contain.
+ */
+public interface BatchSource {
+
+    public BatchChannel<ColumnBatch> getQueue();
+
+    public String[] getColumnNames();
+
+    public int[] getColumnTypes();
+}
@@ -0,0 +1,190 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Typed binary dump written by db2file (destFormat=binary) and read back by
+ * file2db. All numbers are big endian.
+ *
+ * <pre>
+ * header : "SQLCPBIN" int version, int flags, int columnCount,
+ *          per column: int java.sql.Types, int nameLength, name (UTF-8)
+ * block  : int BLOCK, int rowCount, int payloadLength, int crc32 (0 if no FLAG_CRC),
+ *          payload = ColumnBatch.writeTo()
+ * end    : int END, long rowCount, int 0
+ * </pre>
+ *
+ * Blocks and the end record share the same 16 byte record header. The payload
+ * length allows to hop from block to block without reading payloads, so a
+ * reader finds all blocks with small positional reads and can decode them in
+ * parallel. A file without end record is incomplete.
+ */
+public class BinaryDump implements BlockFormatter {
+
+    public static final byte[] MAGIC = "SQLCPBIN".getBytes(StandardCharsets.US_ASCII);
+    public static final int VERSION = 1;
+    public static final int FLAG_CRC = 1;
+    public static final int BLOCK = 0x424c4b31; // BLK1
+    public static final int END = 0x454e4431; // END1
+    public static final int RECORD_HEADER_SIZE = 16;
+
+    private final ByteBufferPool pool;
+    private final boolean checksums;
+    private final AtomicLong tFormatTime = new AtomicLong(), blocksFormatted = new AtomicLong();
+
+    public BinaryDump(ByteBufferPool pool, boolean checksums) {
+        this.pool = pool;
+        this.checksums = checksums;
+    }
+
+    @Override
+    public ByteBlock formatHeader(String[] columnNames, int[] columnTypes) {
+        ByteBlock b = new ByteBlock(pool);
+        b.put(MAGIC);
+        b.putInt(VERSION);
+        b.putInt(checksums ? FLAG_CRC : 0);
+        b.putInt(columnNames.length);
+        for (int i = 0; i < columnNames.length; i++) {
+            byte[] name = columnNames[i].getBytes(StandardCharsets.UTF_8);
+            b.putInt(columnTypes[i]);
+            b.putInt(name.length);
+            b.put(name);
+        }
+        return b;
+    }
+
+    @Override
+    public ByteBlock format(ColumnBatch rows, long firstRowNumber, boolean newlineBefore) {
+        long t0 = System.currentTimeMillis();
+        ByteBlock b = new ByteBlock(pool);
+        // record header is patched once the payload length is known
+        b.put(new byte[RECORD_HEADER_SIZE]);
+        rows.writeTo(b);
+        long payload = b.size() - RECORD_HEADER_SIZE;
+        if (payload > Integer.MAX_VALUE)
+            throw new IllegalStateException("block too large, reduce batchSize");
+        int crc = 0;
+        if (checksums) {
+            CRC32 c = new CRC32();
+            ByteBuffer[] bufs = b.getReadBuffers();
+            bufs[0].position(RECORD_HEADER_SIZE);
+            for (ByteBuffer bb : bufs)
+                c.update(bb);
+            crc = (int) c.getValue();
+        }
+        b.putIntAt(0, BLOCK);
+        b.putIntAt(4, rows.getRowCount());
+        b.putIntAt(8, (int) payload);
+        b.putIntAt(12, crc);
+        b.setRowCount(rows.getRowCount());
+        blocksFormatted.incrementAndGet();
+        tFormatTime.addAndGet(System.currentTimeMillis() - t0);
+        return b;
+    }
+
+    @Override
+    public ByteBlock formatTrailer(long rowCount) {
+        ByteBlock b = new ByteBlock(pool);
+        b.putInt(END);
+        b.putLong(rowCount);
+        b.putInt(0);
+        return b;
+    }
+
+    @Override
+    public String getName() {
+        return checksums ? "binary(crc32)" : "binary";
+    }
+
+    @Override
+    public long getFormatTime() {
+        return tFormatTime.get();
+    }
+
+    @Override
+    public long getBlocksFormatted() {
+        return blocksFormatted.get();
+    }
+
+    public static boolean isBinaryDump(FileChannel ch) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(MAGIC.length);
+        while (bb.hasRemaining())
+            if (ch.read(bb, bb.position()) < 0)
+                return false;
+        return Arrays.equals(MAGIC, bb.array());
+    }
+
+    /**
+     * Header of a dump file, read by file2db.
+     */
+    public static class Header {
+        public int flags;
+        public String[] columnNames;
+        public int[] columnTypes;
+        // file offset of the first block
+        public long dataStart;
+
+        public boolean hasChecksums() {
+            return (flags & FLAG_CRC) != 0;
+        }
+    }
+
+    public static Header readHeader(FileChannel ch) throws IOException {
+        ByteBuffer bb = readFully(ch, 0, MAGIC.length + 12);
+        bb.position(MAGIC.length);
+        int version = bb.getInt();
+        if (version != VERSION)
+            throw new IOException("unsupported binary dump version " + version);
+        Header h = new Header();
+        h.flags = bb.getInt();
+        int cols = bb.getInt();
+        h.columnNames = new String[cols];
+        h.columnTypes = new int[cols];
+        long pos = MAGIC.length + 12;
+        for (int i = 0; i < cols; i++) {
+            bb = readFully(ch, pos, 8);
+            h.columnTypes[i] = bb.getInt();
+            int len = bb.getInt();
+            h.columnNames[i] = new String(readFully(ch, pos + 8, len).array(), StandardCharsets.UTF_8);
+            pos += 8 + len;
+        }
+        h.dataStart = pos;
+        return h;
+    }
+
+    public static ByteBuffer readFully(FileChannel ch, long pos, int len) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(len);
+        while (bb.hasRemaining())
+            if (ch.read(bb, pos + bb.position()) < 0)
+                throw new EOFException("binary dump ends at offset " + (pos + bb.position()) + ", file incomplete");
+        bb.flip();
+        return bb;
+    }
+
+    /**
+     * Decodes one block payload, with verify the crc32 of the payload must
+     * match expectedCrc.
+     */
+    public static ColumnBatch decode(ByteBuffer payload, int[] columnTypes, int rowCount, boolean verify,
+            int expectedCrc, long fileOffset) throws IOException {
+        if (verify) {
+            CRC32 c = new CRC32();
+            c.update(payload.duplicate());
+            if ((int) c.getValue() != expectedCrc)
+                throw new IOException("checksum error in block at offset " + fileOffset);
+        }
+        return ColumnBatch.readFrom(payload, columnTypes, rowCount);
+    }
+}
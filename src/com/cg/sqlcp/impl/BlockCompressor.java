@@ -0,0 +1,326 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses formatted blocks independently of each other, so all formatting
+ * threads can compress in parallel (like pigz). The concatenated output is
+ * still a standard stream:
+ * <ul>
+ * <li>gzip: every block is a complete gzip member, gunzip reads concatenated
+ * members as one file</li>
+ * <li>deflate: one zlib stream (RFC 1950), every block is raw deflate data
+ * ended by a sync flush, the adler32 of the whole stream is combined from the
+ * block checksums in output order</li>
+ * <li>lz4: every block is a complete LZ4 frame, needs lz4-java
+ * (net.jpountz.lz4) on the classpath</li>
+ * </ul>
+ * compress() is called by the formatting threads, startStream(), written()
+ * and streamTrailer() by the thread writing the file, in file order. The state
+ * of a stream is a long kept by the caller, so one compressor serves several
+ * files at once.
+ */
+public abstract class BlockCompressor {
+
+    public static final String NONE = "none";
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final String LZ4 = "lz4";
+    public static final String[] METHODS = { NONE, GZIP, DEFLATE, LZ4 };
+
+    private static final byte[] EMPTY = new byte[0];
+
+    protected final ByteBufferPool pool;
+    private final AtomicLong rawBytes = new AtomicLong(), compressedBytes = new AtomicLong(),
+            tCompressTime = new AtomicLong();
+
+    protected BlockCompressor(ByteBufferPool pool) {
+        this.pool = pool;
+    }
+
+    public static BlockCompressor create(String method, ByteBufferPool pool) {
+        switch (method.toLowerCase()) {
+        case NONE:
+            return new None(pool);
+        case GZIP:
+            return new Gzip(pool);
+        case DEFLATE:
+            return new Zlib(pool);
+        case LZ4:
+            return new Lz4(pool);
+        default:
+            throw new IllegalArgumentException("unknown compression: " + method);
+        }
+    }
+
+    /**
+     * Compresses and releases raw.
+     */
+    public ByteBlock compress(ByteBlock raw) {
+        long t0 = System.currentTimeMillis();
+        long rawSize = raw.size();
+        ByteBlock out = compressBlock(raw);
+        out.setRowCount(raw.getRowCount());
+        if (out != raw)
+            raw.release();
+        rawBytes.addAndGet(rawSize);
+        compressedBytes.addAndGet(out.size());
+        tCompressTime.addAndGet(System.currentTimeMillis() - t0);
+        return out;
+    }
+
+    protected abstract ByteBlock compressBlock(ByteBlock raw);
+
+    public abstract String getName();
+
+    public byte[] streamHeader() {
+        return EMPTY;
+    }
+
+    /**
+     * @return initial state of a new stream
+     */
+    public long startStream() {
+        return 0;
+    }
+
+    /**
+     * @return state of the stream after block was written
+     */
+    public long written(long state, ByteBlock block) {
+        return state;
+    }
+
+    public byte[] streamTrailer(long state) {
+        return EMPTY;
+    }
+
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    public long getCompressTime() {
+        return tCompressTime.get();
+    }
+
+    // Deflater takes ByteBuffers only since Java 11, the direct pool buffers are
+    // copied through two arrays per thread
+    private static final int SCRATCH_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[][]> scratch = ThreadLocal
+            .withInitial(() -> new byte[][] { new byte[SCRATCH_SIZE], new byte[SCRATCH_SIZE] });
+
+    // feeds all of raw into the deflater and drains it with the given flush mode
+    // (Deflater.SYNC_FLUSH, or NO_FLUSH to finish the stream)
+    static void deflate(Deflater def, ByteBlock raw, ByteBlock out, int flush) {
+        byte[] inArr = scratch.get()[0], outArr = scratch.get()[1];
+        for (ByteBuffer in : raw.getReadBuffers()) {
+            while (in.hasRemaining()) {
+                int n = Math.min(in.remaining(), inArr.length);
+                in.get(inArr, 0, n);
+                def.setInput(inArr, 0, n);
+                while (!def.needsInput())
+                    out.put(outArr, 0, def.deflate(outArr, 0, outArr.length, Deflater.NO_FLUSH));
+            }
+        }
+        if (flush == Deflater.NO_FLUSH) {
+            def.finish();
+            while (!def.finished())
+                out.put(outArr, 0, def.deflate(outArr, 0, outArr.length, Deflater.NO_FLUSH));
+        } else {
+            // a full array means the flush may not be complete yet
+            int n;
+            do {
+                n = def.deflate(outArr, 0, outArr.length, flush);
+                out.put(outArr, 0, n);
+            } while (n == outArr.length);
+        }
+    }
+
+    private static final class None extends BlockCompressor {
+        None(ByteBufferPool pool) {
+            super(pool);
+        }
+
+        @Override
+        protected ByteBlock compressBlock(ByteBlock raw) {
+            return raw;
+        }
+
+        @Override
+        public String getName() {
+            return NONE;
+        }
+    }
+
+    private static final class Gzip extends BlockCompressor {
+        private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+        private final ThreadLocal<Deflater> deflater = ThreadLocal
+                .withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+        Gzip(ByteBufferPool pool) {
+            super(pool);
+        }
+
+        @Override
+        protected ByteBlock compressBlock(ByteBlock raw) {
+            CRC32 crc = new CRC32();
+            for (ByteBuffer in : raw.getReadBuffers())
+                crc.update(in);
+            Deflater def = deflater.get();
+            def.reset();
+            ByteBlock out = new ByteBlock(pool);
+            out.put(HEADER);
+            deflate(def, raw, out, Deflater.NO_FLUSH);
+            putIntLE(out, (int) crc.getValue());
+            putIntLE(out, (int) raw.size());
+            return out;
+        }
+
+        private static void putIntLE(ByteBlock b, int v) {
+            b.put((byte) v);
+            b.put((byte) (v >>> 8));
+            b.put((byte) (v >>> 16));
+            b.put((byte) (v >>> 24));
+        }
+
+        @Override
+        public String getName() {
+            return GZIP;
+        }
+    }
+
+    private static final class Zlib extends BlockCompressor {
+        private static final int ADLER_BASE = 65521;
+        // 0x78 0x9c: deflate, 32K window, default level
+        private static final byte[] HEADER = { 0x78, (byte) 0x9c };
+        private final ThreadLocal<Deflater> deflater = ThreadLocal
+                .withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+        Zlib(ByteBufferPool pool) {
+            super(pool);
+        }
+
+        @Override
+        protected ByteBlock compressBlock(ByteBlock raw) {
+            Adler32 a = new Adler32();
+            for (ByteBuffer in : raw.getReadBuffers())
+                a.update(in);
+            Deflater def = deflater.get();
+            def.reset();
+            ByteBlock out = new ByteBlock(pool);
+            deflate(def, raw, out, Deflater.SYNC_FLUSH);
+            out.setRawInfo(raw.size(), a.getValue());
+            return out;
+        }
+
+        @Override
+        public byte[] streamHeader() {
+            return HEADER;
+        }
+
+        // state is the adler32 of the stream so far
+        @Override
+        public long startStream() {
+            return 1;
+        }
+
+        @Override
+        public long written(long adler, ByteBlock block) {
+            return combine(adler, block.getChecksum(), block.getRawSize());
+        }
+
+        @Override
+        public byte[] streamTrailer(long adler) {
+            // empty final fixed-huffman block, then adler32 big endian
+            return new byte[] { 0x03, 0x00, (byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8),
+                    (byte) adler };
+        }
+
+        // adler32 of the concatenation, see adler32_combine() of zlib
+        private static long combine(long adler1, long adler2, long len2) {
+            long rem = len2 % ADLER_BASE;
+            long sum1 = adler1 & 0xffff;
+            long sum2 = (rem * sum1) % ADLER_BASE;
+            sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+            sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) + ADLER_BASE - rem;
+            if (sum1 >= ADLER_BASE)
+                sum1 -= ADLER_BASE;
+            if (sum1 >= ADLER_BASE)
+                sum1 -= ADLER_BASE;
+            if (sum2 >= (ADLER_BASE << 1))
+                sum2 -= (ADLER_BASE << 1);
+            if (sum2 >= ADLER_BASE)
+                sum2 -= ADLER_BASE;
+            return sum1 | (sum2 << 16);
+        }
+
+        @Override
+        public String getName() {
+            return DEFLATE;
+        }
+    }
+
+    private static final class Lz4 extends BlockCompressor {
+        private final Constructor<?> frameStream;
+
+        Lz4(ByteBufferPool pool) {
+            super(pool);
+            try {
+                frameStream = Class.forName("net.jpountz.lz4.LZ4FrameOutputStream").getConstructor(OutputStream.class);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("compression lz4 needs lz4-java (net.jpountz.lz4) in classpath", e);
+            }
+        }
+
+        @Override
+        protected ByteBlock compressBlock(ByteBlock raw) {
+            ByteBlock out = new ByteBlock(pool);
+            OutputStream sink = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    out.put((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    out.put(b, off, len);
+                }
+            };
+            byte[] chunk = new byte[64 * 1024];
+            try (OutputStream lz4 = (OutputStream) frameStream.newInstance(sink)) {
+                for (ByteBuffer in : raw.getReadBuffers()) {
+                    while (in.hasRemaining()) {
+                        int n = Math.min(chunk.length, in.remaining());
+                        in.get(chunk, 0, n);
+                        lz4.write(chunk, 0, n);
+                    }
+                }
+            } catch (IOException | ReflectiveOperationException e) {
+                out.release();
+                throw new IllegalStateException("lz4 compression failed", e);
+            }
+            return out;
+        }
+
+        @Override
+        public String getName() {
+            return LZ4;
+        }
+    }
+}
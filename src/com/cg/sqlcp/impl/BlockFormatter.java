@@ -0,0 +1,32 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+/**
+ * Output format of db2file. Implementations are shared by all formatting
+ * threads, format() must be thread safe.
+ */
+public interface BlockFormatter {
+
+    public ByteBlock formatHeader(String[] columnNames, int[] columnTypes);
+
+    /**
+     * @param firstRowNumber number of the first row of the batch, 1-based
+     * @param newlineBefore  true if something was written before this block
+     */
+    public ByteBlock format(ColumnBatch rows, long firstRowNumber, boolean newlineBefore);
+
+    /**
+     * @return end of the output, null if the format has none
+     */
+    public ByteBlock formatTrailer(long rowCount);
+
+    public String getName();
+
+    public long getFormatTime();
+
+    public long getBlocksFormatted();
+}
@@ -0,0 +1,30 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * Receives the blocks of db2file in file order. Blocks between startPart()
+ * and endPart() go into one output file.
+ */
+public interface BlockSink {
+
+    public void startPart() throws IOException, InterruptedException;
+
+    /**
+     * Formats, compresses and writes a block, may do so asynchronously.
+     */
+    public void submit(Supplier<ByteBlock> block) throws IOException, InterruptedException;
+
+    public void endPart() throws IOException, InterruptedException;
+
+    /**
+     * @return bytes written to the current part, may lag behind submit()
+     */
+    public long getPartBytes();
+}
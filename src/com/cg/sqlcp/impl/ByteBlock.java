@@ -0,0 +1,165 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+
+/**
+ * Encoded output of one batch as a chain of pooled direct buffers. Filled by
+ * one formatting thread, then handed to the output thread, which writes and
+ * releases it.
+ */
+public class ByteBlock {
+
+    private final ByteBufferPool pool;
+    private final ArrayList<ByteBuffer> buffers = new ArrayList<>(4);
+    private ByteBuffer current;
+    private long size = 0;
+    // uncompressed size and its checksum, set by BlockCompressor
+    private long rawSize = -1, checksum = 0;
+    private int rowCount = 0;
+
+    public ByteBlock(ByteBufferPool pool) {
+        this.pool = pool;
+        next();
+    }
+
+    /**
+     * @return buffer with at least n bytes remaining, n must not exceed the
+     *         buffer size of the pool
+     */
+    public ByteBuffer ensure(int n) {
+        if (current.remaining() < n)
+            next();
+        return current;
+    }
+
+    /**
+     * Appends a new empty buffer, used when a CharsetEncoder reports overflow.
+     */
+    public ByteBuffer next() {
+        if (current != null)
+            size += current.position();
+        current = pool.acquire();
+        buffers.add(current);
+        return current;
+    }
+
+    public ByteBuffer current() {
+        return current;
+    }
+
+    public void put(byte b) {
+        if (!current.hasRemaining())
+            next();
+        current.put(b);
+    }
+
+    public void put(byte[] b) {
+        put(b, 0, b.length);
+    }
+
+    public void put(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (!current.hasRemaining())
+                next();
+            int n = Math.min(len, current.remaining());
+            current.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    // big endian, like DataOutput
+    public void putInt(int v) {
+        ensure(4).putInt(v);
+    }
+
+    public void putLong(long v) {
+        ensure(8).putLong(v);
+    }
+
+    /**
+     * Overwrites 4 bytes of the first buffer, used to patch a header after the
+     * content is known.
+     */
+    public void putIntAt(int index, int v) {
+        buffers.get(0).putInt(index, v);
+    }
+
+    public long size() {
+        return size + current.position();
+    }
+
+    /**
+     * @return flipped views of the filled buffers, this block is not changed
+     */
+    public ByteBuffer[] getReadBuffers() {
+        ByteBuffer[] bufs = new ByteBuffer[buffers.size()];
+        for (int i = 0; i < bufs.length; i++) {
+            // flip() returns Buffer on Java 8
+            bufs[i] = buffers.get(i).duplicate();
+            bufs[i].flip();
+        }
+        return bufs;
+    }
+
+    public void setRawInfo(long rawSize, long checksum) {
+        this.rawSize = rawSize;
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return size before compression, -1 if the block was not compressed
+     */
+    public long getRawSize() {
+        return rawSize;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public void setRowCount(int rowCount) {
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * @return rows contained in this block, 0 for headers and trailers
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public void writeTo(WritableByteChannel ch) throws IOException {
+        ByteBuffer[] bufs = buffers.toArray(new ByteBuffer[0]);
+        long total = 0;
+        for (ByteBuffer b : bufs) {
+            b.flip();
+            total += b.remaining();
+        }
+        if (ch instanceof GatheringByteChannel) {
+            GatheringByteChannel g = (GatheringByteChannel) ch;
+            while (total > 0)
+                total -= g.write(bufs);
+        } else {
+            for (ByteBuffer b : bufs)
+                while (b.hasRemaining())
+                    ch.write(b);
+        }
+    }
+
+    public void release() {
+        for (ByteBuffer b : buffers)
+            pool.release(b);
+        buffers.clear();
+        current = null;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recycles direct ByteBuffers of one fixed size. Direct buffers are expensive
+ * to allocate and are written to a channel without an extra copy, so they are
+ * reused instead of left to the garbage collector.
+ */
+public class ByteBufferPool {
+
+    private final int bufferSize, maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger(), allocated = new AtomicInteger();
+
+    public ByteBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer b = free.poll();
+        if (b != null) {
+            pooled.decrementAndGet();
+            return b;
+        }
+        allocated.incrementAndGet();
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public void release(ByteBuffer b) {
+        b.clear();
+        if (pooled.incrementAndGet() <= maxPooled)
+            free.offer(b);
+        else
+            pooled.decrementAndGet();
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return number of buffers allocated so far, stays low if recycling works
+     */
+    public int getAllocated() {
+        return allocated.get();
+    }
+}
@@ -13,6 +13,24 @@ public interface CLIParams {
     public static final String SRC_PASSWORD = "srcPassword";
     public static final String SRC_DATA = "srcData";
     public static final String SRC_BUFFERED_ROWS = "bufferedRows";
+    public static final String SRC_PARALLELISM = "srcParallelism";
+    public static final String SRC_SPLIT_COLUMN = "srcSplitColumn";
+    public static final String SRC_SPLIT_METHOD = "srcSplitMethod";
+    public static final String SRC_CHECKPOINT_COLUMN = "srcCheckpointColumn";
+    public static final String SRC_INCREMENTAL_COLUMN = "srcIncrementalColumn";
+    public static final String SRC_INCREMENTAL_STATE = "srcIncrementalStateFile";
+
+    // Source file parameter, needed for file2db
+    public static final String SRC_FILE_NAME = "srcFile";
+    public static final String SRC_FILE_ENCODING = "srcFileEncoding";
+    public static final String SRC_FILE_INCLHEADER = "srcInclHeader";
+    public static final String SRC_FILE_FIELDSEPARATOR = "srcSeparatorChar";
+    public static final String SRC_FILE_QUOTE = "srcQuoteChar";
+    public static final String SRC_FILE_ESCAPE = "srcEscapeChar";
+    public static final String SRC_FILE_NULL = "srcNull";
+    public static final String SRC_FILE_ROWSTART = "srcRowStart";
+    public static final String SRC_FILE_ROWEND = "srcRowEnd";
+    public static final String SRC_FILE_COUNTROWS = "srcFirstColIsCounter";
 
     // Target database parameter needed for db2db, file2db
     public static final String DEST_DB_JDBC = "destJDBC";
@@ -22,6 +40,15 @@ public interface CLIParams {
     public static final String DEST_DB_BINDTYPES = "destBindTypes";
     public static final String DEST_DB_SQL_BEF_IMPORT = "destSQLBeforeImport";
     public static final String DEST_DB_NUM_THREADS = "destNumThreads";
+    public static final String DEST_DB_MIN_THREADS = "destMinThreads";
+    public static final String DEST_DB_MAX_THREADS = "destMaxThreads";
+    public static final String DEST_DB_LOAD_METHOD = "destLoadMethod";
+    public static final String DEST_DB_COMMIT_EVERY = "destCommitEvery";
+    public static final String DEST_DB_ASYNC_COMMIT = "destAsyncCommit";
+    public static final String DEST_DB_PIPELINE = "destPipeline";
+    public static final String DEST_DB_MODE = "destMode";
+    public static final String DEST_DB_KEY_COLUMNS = "destKeyColumns";
+    public static final String DEST_DB_STAGING_TABLE = "destStagingTable";
 
     // general parameter
     public static final String BATCHSIZE = "batchSize";
@@ -29,13 +56,29 @@ public interface CLIParams {
     public static final String PRINTRUNTIMEINFO = "printRuntimeInfo";
     public static final String PRINTSUMMARY = "printSummary";
     public static final String GCINTERVALSEC = "GCIntervalSec";
+    public static final String METRICS_PORT = "metricsPort";
+    public static final String LATENCY_JSON = "latencyJsonFile";
+    public static final String ADAPTIVE_BATCH_MS = "adaptiveBatchMs";
+    public static final String ADAPTIVE_BUFFER_MB = "adaptiveBufferMB";
+    public static final String CHECKPOINT_FILE = "checkpointFile";
+    public static final String RESUME = "resume";
+    public static final String THREAD_MODE = "threadMode";
 
     // output file used for db2file
     public static final String DEST_FILE_NAME = "destFile";
+    public static final String DEST_FILE_ENCODING = "destFileEncoding";
     public static final String DEST_FILE_INCLHEADER = "destInclHeader";
     public static final String DEST_FILE_FIELDSEPARATOR = "destSeparatorChar";
     public static final String DEST_FILE_DESTMODE = "destFileMode";
     public static final String DEST_FILE_COUNTROWS = "destFirstColIsCounter"; // YES
+    public static final String DEST_FILE_FORMAT_THREADS = "destFormatThreads";
+    public static final String DEST_FILE_COMPRESSION = "destCompression";
+    public static final String DEST_FILE_FORMAT = "destFormat";
+    public static final String DEST_FILE_CHECKSUM = "destBlockChecksum";
+    public static final String DEST_FILE_MAX_BYTES = "destFileMaxBytes";
+    public static final String DEST_FILE_MAX_ROWS = "destFileMaxRows";
+    public static final String DEST_FILE_WRITERS = "destFileWriters";
+    public static final String DEST_FILE_VALUES = "destFileValues";
     public static final String DEST_FILE_FMT_NULL = "fmt.null";
     public static final String DEST_FILE_FMT_BOOLTRUE = "fmt:bool.true";
     public static final String DEST_FILE_FMT_BOOLFALSE = "fmt:bool.false";
@@ -47,15 +90,37 @@ public interface CLIParams {
     public static final String DEST_FILE_FMT_CURRENCY = "fmt:currency";
     public static final String DEST_FILE_FMT_FLOAT = "fmt:float";
 
-    public static final String[] HELPORDER_DB2DB = { SRC_JDBC, SRC_USER, SRC_PASSWORD, SRC_DATA, SRC_BUFFERED_ROWS, "",
-            DEST_DB_JDBC, DEST_DB_USER, DEST_DB_PASSWORD, DEST_DB_TARGET, DEST_DB_BINDTYPES, DEST_DB_SQL_BEF_IMPORT,
-            DEST_DB_NUM_THREADS, "", BATCHSIZE, PRINTPARAMSONLY, PRINTRUNTIMEINFO, PRINTSUMMARY, GCINTERVALSEC };
+    // job file with many db2db copies
+    public static final String JOB_FILE = "jobFile";
+    public static final String JOB_MAX_READERS = "jobMaxReaders";
+    public static final String JOB_MAX_WRITERS = "jobMaxWriters";
+
+    public static final String[] HELPORDER_DB2DB = { SRC_JDBC, SRC_USER, SRC_PASSWORD, SRC_DATA, SRC_BUFFERED_ROWS,
+            SRC_PARALLELISM, SRC_SPLIT_COLUMN, SRC_SPLIT_METHOD, SRC_CHECKPOINT_COLUMN, SRC_INCREMENTAL_COLUMN,
+            SRC_INCREMENTAL_STATE, "", DEST_DB_JDBC, DEST_DB_USER, DEST_DB_PASSWORD, DEST_DB_TARGET, DEST_DB_MODE,
+            DEST_DB_KEY_COLUMNS, DEST_DB_STAGING_TABLE, DEST_DB_BINDTYPES, DEST_DB_SQL_BEF_IMPORT,
+            DEST_DB_NUM_THREADS, DEST_DB_MIN_THREADS, DEST_DB_MAX_THREADS, DEST_DB_LOAD_METHOD,
+            DEST_DB_COMMIT_EVERY, DEST_DB_ASYNC_COMMIT, DEST_DB_PIPELINE, "", BATCHSIZE, ADAPTIVE_BATCH_MS,
+            ADAPTIVE_BUFFER_MB, CHECKPOINT_FILE, RESUME, PRINTPARAMSONLY, PRINTRUNTIMEINFO, PRINTSUMMARY,
+            LATENCY_JSON, METRICS_PORT, GCINTERVALSEC, THREAD_MODE };
 
     public static final String[] HELPORDER_DB2FILE = { SRC_JDBC, SRC_USER, SRC_PASSWORD, SRC_DATA, SRC_BUFFERED_ROWS,
-            "", PRINTPARAMSONLY, PRINTRUNTIMEINFO, PRINTSUMMARY, GCINTERVALSEC, "", DEST_FILE_NAME,
-            DEST_FILE_INCLHEADER, DEST_FILE_FIELDSEPARATOR, DEST_FILE_DESTMODE, DEST_FILE_COUNTROWS, DEST_FILE_FMT_NULL,
-            DEST_FILE_FMT_FLOAT, DEST_FILE_FMT_BOOLTRUE, DEST_FILE_FMT_BOOLFALSE, DEST_FILE_FMT_DATE,
-            DEST_FILE_FMT_TIME, DEST_FILE_FMT_DATETIME, DEST_FILE_FMT_TIMESTAMP, DEST_FILE_FMT_TIMESTAMPTZ,
-            DEST_FILE_FMT_CURRENCY };
+            SRC_PARALLELISM, SRC_SPLIT_COLUMN, SRC_SPLIT_METHOD, "", PRINTPARAMSONLY, PRINTRUNTIMEINFO, PRINTSUMMARY,
+            LATENCY_JSON, GCINTERVALSEC, "", DEST_FILE_NAME, DEST_FILE_ENCODING, DEST_FILE_INCLHEADER, DEST_FILE_FIELDSEPARATOR,
+            DEST_FILE_DESTMODE, DEST_FILE_COUNTROWS, DEST_FILE_FORMAT, DEST_FILE_CHECKSUM, DEST_FILE_FORMAT_THREADS,
+            DEST_FILE_COMPRESSION, DEST_FILE_MAX_ROWS, DEST_FILE_MAX_BYTES, DEST_FILE_WRITERS, DEST_FILE_VALUES,
+            DEST_FILE_FMT_NULL, DEST_FILE_FMT_FLOAT, DEST_FILE_FMT_BOOLTRUE, DEST_FILE_FMT_BOOLFALSE,
+            DEST_FILE_FMT_DATE, DEST_FILE_FMT_TIME, DEST_FILE_FMT_DATETIME, DEST_FILE_FMT_TIMESTAMP,
+            DEST_FILE_FMT_TIMESTAMPTZ, DEST_FILE_FMT_CURRENCY };
+
+    public static final String[] HELPORDER_FILE2DB = { SRC_FILE_NAME, SRC_FILE_ENCODING, SRC_FILE_INCLHEADER,
+            SRC_FILE_FIELDSEPARATOR, SRC_FILE_QUOTE, SRC_FILE_ESCAPE, SRC_FILE_NULL, SRC_FILE_ROWSTART, SRC_FILE_ROWEND,
+            SRC_FILE_COUNTROWS, SRC_PARALLELISM, SRC_BUFFERED_ROWS, "", DEST_DB_JDBC, DEST_DB_USER, DEST_DB_PASSWORD,
+            DEST_DB_TARGET, DEST_DB_BINDTYPES, DEST_DB_SQL_BEF_IMPORT, DEST_DB_NUM_THREADS, DEST_DB_LOAD_METHOD,
+            DEST_DB_COMMIT_EVERY, DEST_DB_ASYNC_COMMIT, DEST_DB_PIPELINE, "", BATCHSIZE, PRINTPARAMSONLY,
+            PRINTRUNTIMEINFO, PRINTSUMMARY, LATENCY_JSON };
+
+    public static final String[] HELPORDER_JOB = { JOB_FILE, JOB_MAX_READERS, JOB_MAX_WRITERS, PRINTRUNTIMEINFO,
+            PRINTSUMMARY };
 
 }
@@ -0,0 +1,332 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Properties;
+
+/**
+ * Committed progress of a db2db copy, kept per key range in checkpointFile.
+ * A range is DONE once its reader delivered the last batch and every batch of
+ * it is committed. With srcCheckpointColumn every range is read ordered by
+ * that column and the file also holds a watermark: all rows with a smaller
+ * key are committed. Batches are numbered by the reader, writers commit them
+ * in any order, the watermark only moves over the committed prefix.
+ *
+ * On resume DONE ranges are skipped. Rows of an unfinished range are deleted
+ * in the target, from the watermark on or the whole range without watermark,
+ * and read again; destMode=UPSERT deletes nothing and updates them again. So the target must have the split and checkpoint column
+ * with the same names as the source. With srcIncrementalColumn the DELETE is
+ * also restricted to the rows of the incremental run, rows of earlier runs
+ * in the same key range stay.
+ *
+ * The file is rewritten (write and rename) at most once per second and when
+ * a range gets DONE; an older file only means more rows are copied again.
+ */
+public class Checkpoint {
+
+    public static final String DONE = "DONE";
+    public static final String OPEN = "OPEN";
+
+    private static final long SAVE_INTERVAL_MS = 1000;
+
+    private static class Range {
+        // null: srcData is not split
+        String predicate;
+        boolean done, started;
+        // SQL literal, rows with a smaller key are committed
+        String watermark;
+        long rows;
+        // runtime state, not saved
+        long nextSequence = 0, nextToCommit = 0;
+        boolean readDone = false;
+        final HashMap<Long, String> lastKeys = new HashMap<>();
+        final HashMap<Long, Integer> committedAhead = new HashMap<>();
+    }
+
+    private final String fileName, srcData, target, keyColumn;
+    // predicate of the incremental run, null without srcIncrementalColumn
+    private String incremental = null;
+    private final ArrayList<Range> ranges = new ArrayList<>();
+    private long lastSave = 0;
+    private boolean dirty = false;
+
+    private Checkpoint(String fileName, String srcData, String target, String keyColumn) {
+        this.fileName = fileName;
+        this.srcData = srcData;
+        this.target = target;
+        this.keyColumn = Util.isNull(keyColumn) ? null : keyColumn;
+    }
+
+    /**
+     * Starts a new copy, an existing file is replaced.
+     *
+     * @param incremental predicate of the rows of an incremental run, null
+     *                    for a full copy
+     */
+    public static Checkpoint create(String fileName, String srcData, String target, String keyColumn,
+            String[] predicates, String incremental) throws IOException {
+        Checkpoint cp = new Checkpoint(fileName, srcData, target, keyColumn);
+        cp.incremental = incremental;
+        for (String p : predicates) {
+            Range r = new Range();
+            r.predicate = p;
+            cp.ranges.add(r);
+        }
+        cp.save();
+        return cp;
+    }
+
+    /**
+     * Reads the checkpoint of a failed copy, srcData, target and key column
+     * must be the same as before.
+     */
+    public static Checkpoint load(String fileName, String srcData, String target, String keyColumn)
+            throws IOException {
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(fileName)) {
+            p.load(in);
+        }
+        Checkpoint cp = new Checkpoint(fileName, srcData, target, keyColumn);
+        check(fileName, "srcData", srcData, p.getProperty("srcData"));
+        check(fileName, "destTarget", target, p.getProperty("destTarget"));
+        check(fileName, CLIParams.SRC_CHECKPOINT_COLUMN, cp.keyColumn == null ? "" : cp.keyColumn,
+                p.getProperty("keyColumn", ""));
+        cp.incremental = p.getProperty("incremental");
+        int n = Integer.parseInt(p.getProperty("ranges"));
+        for (int i = 0; i < n; i++) {
+            String prefix = "range." + (i + 1) + ".";
+            Range r = new Range();
+            r.predicate = p.getProperty(prefix + "predicate");
+            r.done = DONE.equals(p.getProperty(prefix + "status"));
+            r.started = Boolean.parseBoolean(p.getProperty(prefix + "started"));
+            r.watermark = p.getProperty(prefix + "watermark");
+            r.rows = Long.parseLong(p.getProperty(prefix + "rows", "0"));
+            cp.ranges.add(r);
+        }
+        return cp;
+    }
+
+    private static void check(String fileName, String name, String expected, String found) {
+        if (!expected.equals(found))
+            throw new IllegalArgumentException("checkpoint " + fileName + " belongs to another copy, " + name + "="
+                    + found + " instead of " + expected);
+    }
+
+    public int getRangeCount() {
+        return ranges.size();
+    }
+
+    /**
+     * @return indexes of all ranges that are not DONE
+     */
+    public synchronized int[] getOpenRanges() {
+        ArrayList<Integer> l = new ArrayList<>();
+        for (int i = 0; i < ranges.size(); i++)
+            if (!ranges.get(i).done)
+                l.add(i);
+        int[] a = new int[l.size()];
+        for (int i = 0; i < a.length; i++)
+            a[i] = l.get(i);
+        return a;
+    }
+
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    // rows of the range not committed yet, null if the whole range is open
+    private String getRemainder(Range r) {
+        String p = r.predicate;
+        if (r.watermark != null) {
+            // NULL keys sort first or last depending on the database, they are always read again
+            String rest = keyColumn + ">=" + r.watermark + " OR " + keyColumn + " IS NULL";
+            p = p == null ? rest : "(" + p + ") AND (" + rest + ")";
+        }
+        return p;
+    }
+
+    /**
+     * @return SELECT for the not committed rows of range idx
+     */
+    public synchronized String createSelectStmt(String queryData, int idx) {
+        String p = getRemainder(ranges.get(idx));
+        if (keyColumn == null)
+            return KeyRangeSplitter.createSelectStmt(queryData, p);
+        return KeyRangeSplitter.createSelectStmt(queryData, p == null ? "1=1" : p) + " ORDER BY " + keyColumn;
+    }
+
+    /**
+     * @return DELETE of the rows a previous run wrote for range idx after its
+     *         watermark, null if nothing of the range was committed
+     */
+    public synchronized String createCleanupStmt(int idx) {
+        Range r = ranges.get(idx);
+        if (!r.started)
+            return null;
+        String p = getRemainder(r);
+        if (incremental != null)
+            p = p == null ? incremental : "(" + incremental + ") AND (" + p + ")";
+        if (p == null)
+            throw new IllegalStateException("cannot resume, " + target + " contains rows of an unfinished copy "
+                    + "that cannot be told apart from other rows. Use " + CLIParams.SRC_SPLIT_COLUMN + " or "
+                    + CLIParams.SRC_CHECKPOINT_COLUMN + ", or start again without " + CLIParams.RESUME);
+        return "DELETE FROM " + target + " WHERE " + p;
+    }
+
+    /**
+     * Called by the reading thread for each batch in read order.
+     *
+     * @param lastKey SQL literal of the key in the last row, may be null
+     * @return sequence number of the batch within its range
+     */
+    public synchronized long batchRead(int idx, String lastKey) {
+        Range r = ranges.get(idx);
+        long seq = r.nextSequence++;
+        if (keyColumn != null)
+            r.lastKeys.put(seq, lastKey);
+        return seq;
+    }
+
+    /**
+     * Called by the reading thread after the last batch of the range.
+     */
+    public synchronized void rangeRead(int idx) throws IOException {
+        ranges.get(idx).readDone = true;
+        checkDone(ranges.get(idx));
+    }
+
+    /**
+     * Called by a writing thread after the batch is committed, with range and
+     * sequence of the batch. Writers commit several batches at once and do
+     * not keep them.
+     */
+    public synchronized void committed(int range, long sequence, int rowCount) throws IOException {
+        Range r = ranges.get(range);
+        r.started = true;
+        r.committedAhead.put(sequence, rowCount);
+        Integer rows;
+        while ((rows = r.committedAhead.remove(r.nextToCommit)) != null) {
+            r.rows += rows;
+            String key = r.lastKeys.remove(r.nextToCommit);
+            // a NULL key does not move the watermark, rows after it are read again
+            if (key != null)
+                r.watermark = key;
+            r.nextToCommit++;
+            dirty = true;
+        }
+        if (!checkDone(r) && dirty && System.currentTimeMillis() - lastSave >= SAVE_INTERVAL_MS)
+            save();
+    }
+
+    private boolean checkDone(Range r) throws IOException {
+        if (r.done || !r.readDone || r.nextToCommit < r.nextSequence)
+            return false;
+        r.done = true;
+        save();
+        return true;
+    }
+
+    public synchronized void save() throws IOException {
+        Properties p = new Properties();
+        p.setProperty("srcData", srcData);
+        p.setProperty("destTarget", target);
+        p.setProperty("keyColumn", keyColumn == null ? "" : keyColumn);
+        if (incremental != null)
+            p.setProperty("incremental", incremental);
+        p.setProperty("ranges", Integer.toString(ranges.size()));
+        for (int i = 0; i < ranges.size(); i++) {
+            Range r = ranges.get(i);
+            String prefix = "range." + (i + 1) + ".";
+            if (r.predicate != null)
+                p.setProperty(prefix + "predicate", r.predicate);
+            p.setProperty(prefix + "status", r.done ? DONE : OPEN);
+            p.setProperty(prefix + "started", Boolean.toString(r.started));
+            if (r.watermark != null)
+                p.setProperty(prefix + "watermark", r.watermark);
+            p.setProperty(prefix + "rows", Long.toString(r.rows));
+        }
+        Path dest = Paths.get(fileName);
+        Path tmp = Paths.get(fileName + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp.toFile())) {
+            p.store(out, "sqlcp db2db checkpoint, rows are approximate after a resume");
+        }
+        Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastSave = System.currentTimeMillis();
+        dirty = false;
+    }
+
+    public synchronized long getRowsCommitted() {
+        long sum = 0;
+        for (Range r : ranges)
+            sum += r.rows;
+        return sum;
+    }
+
+    /**
+     * @return SQL literal of a key value, null for SQL NULL
+     */
+    public static String toLiteral(ColumnBatch b, int c, int r) {
+        if (b.isNull(c, r))
+            return null;
+        switch (b.getKind(c)) {
+        case ColumnBatch.KIND_LONG:
+            return Long.toString(b.getLong(c, r));
+        case ColumnBatch.KIND_DECIMAL:
+        case ColumnBatch.KIND_DOUBLE:
+            return b.getBigDecimal(c, r).toPlainString();
+        case ColumnBatch.KIND_DATE:
+            return "{d '" + b.getDate(c, r).toString() + "'}";
+        case ColumnBatch.KIND_TIMESTAMP:
+            SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            String nanos = String.format("%09d", b.getTimestamp(c, r).getNanos());
+            return "{ts '" + df.format(b.getTimestamp(c, r)) + "." + nanos + "'}";
+        case ColumnBatch.KIND_STRING:
+            return "'" + b.getString(c, r).replace("'", "''") + "'";
+        default:
+            throw new IllegalArgumentException(CLIParams.SRC_CHECKPOINT_COLUMN
+                    + " must be a numeric, date, timestamp or character column, found java.sql.Types="
+                    + b.getSqlType(c));
+        }
+    }
+
+    /**
+     * @return index of the key column in columnNames, checks that it can be
+     *         used as checkpoint key
+     */
+    public int findKeyColumn(String[] columnNames, int[] columnTypes) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (!columnNames[i].equalsIgnoreCase(keyColumn))
+                continue;
+            switch (ColumnBatch.kindOf(columnTypes[i])) {
+            case ColumnBatch.KIND_LONG:
+            case ColumnBatch.KIND_DECIMAL:
+            case ColumnBatch.KIND_DOUBLE:
+            case ColumnBatch.KIND_DATE:
+            case ColumnBatch.KIND_TIMESTAMP:
+            case ColumnBatch.KIND_STRING:
+                return i;
+            default:
+                throw new IllegalArgumentException(CLIParams.SRC_CHECKPOINT_COLUMN + "=" + keyColumn
+                        + " must be a numeric, date, timestamp or character column, found java.sql.Types="
+                        + columnTypes[i]);
+            }
+        }
+        throw new IllegalArgumentException(CLIParams.SRC_CHECKPOINT_COLUMN + "=" + keyColumn
+                + " is not a column of srcData");
+    }
+}
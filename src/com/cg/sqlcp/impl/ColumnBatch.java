@@ -0,0 +1,933 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * A chunk of rows stored column by column in primitive arrays, this is what
+ * travels from the reading to the writing threads. Numbers, dates and
+ * booleans live in long[]/double[]/int[], strings and binaries as UTF-8
+ * bytes in one growing byte[] per column with an offset array, NULLs in a
+ * bitmap. Only types without a primitive representation (e.g. TIMESTAMP WITH
+ * TIMEZONE, ARRAY, XML) are kept as objects. Column indexes start with 0.
+ *
+ * With driverText BOOLEAN, DOUBLE, TIMESTAMP and binary columns are read with
+ * ResultSet.getString() and kept as STRING, so db2file writes the text of the
+ * source driver (e.g. t/f, hex) like it did before the batches.
+ */
+public class ColumnBatch {
+
+    public static final int KIND_LONG = 1;
+    public static final int KIND_DOUBLE = 2;
+    public static final int KIND_DECIMAL = 3;
+    public static final int KIND_BOOLEAN = 4;
+    public static final int KIND_DATE = 5;
+    public static final int KIND_TIME = 6;
+    public static final int KIND_TIMESTAMP = 7;
+    public static final int KIND_STRING = 8;
+    public static final int KIND_BYTES = 9;
+    public static final int KIND_OBJECT = 10;
+
+    private final int[] sqlTypes;
+    private final int[] kinds;
+    private final int capacity;
+    private int rows = 0;
+    // key range and sequence number within it, set by the reading thread for Checkpoint
+    private int range = -1;
+    private long sequence = -1;
+
+    // per column, only the arrays needed by the column's kind are allocated
+    private final long[][] nulls;
+    // LONG, BOOLEAN (0/1), DECIMAL (unscaled), DATE/TIME/TIMESTAMP (epoch ms)
+    private final long[][] longs;
+    // DECIMAL (scale), TIMESTAMP (nanos)
+    private final int[][] ints;
+    private final double[][] doubles;
+    // STRING, BYTES: value of row r is data[offsets[r]] .. data[offsets[r+1]-1]
+    private final int[][] offsets;
+    private final byte[][] data;
+    // OBJECT, DECIMAL that does not fit into a long
+    private final Object[][] objects;
+
+    public ColumnBatch(int[] sqlTypes, int capacity) {
+        this(sqlTypes, capacity, false);
+    }
+
+    public ColumnBatch(int[] sqlTypes, int capacity, boolean driverText) {
+        int cols = sqlTypes.length;
+        this.sqlTypes = sqlTypes;
+        this.capacity = capacity;
+        kinds = new int[cols];
+        nulls = new long[cols][];
+        longs = new long[cols][];
+        ints = new int[cols][];
+        doubles = new double[cols][];
+        offsets = new int[cols][];
+        data = new byte[cols][];
+        objects = new Object[cols][];
+        for (int c = 0; c < cols; c++) {
+            kinds[c] = driverText ? textKindOf(sqlTypes[c]) : kindOf(sqlTypes[c]);
+            nulls[c] = new long[(capacity + 63) >>> 6];
+            switch (kinds[c]) {
+            case KIND_LONG:
+            case KIND_BOOLEAN:
+            case KIND_DATE:
+            case KIND_TIME:
+                longs[c] = new long[capacity];
+                break;
+            case KIND_TIMESTAMP:
+                longs[c] = new long[capacity];
+                ints[c] = new int[capacity];
+                break;
+            case KIND_DECIMAL:
+                longs[c] = new long[capacity];
+                ints[c] = new int[capacity];
+                objects[c] = new Object[capacity];
+                break;
+            case KIND_DOUBLE:
+                doubles[c] = new double[capacity];
+                break;
+            case KIND_STRING:
+            case KIND_BYTES:
+                offsets[c] = new int[capacity + 1];
+                data[c] = new byte[Math.max(64, capacity * 16)];
+                break;
+            default:
+                objects[c] = new Object[capacity];
+            }
+        }
+    }
+
+    public static int kindOf(int sqlType) {
+        switch (sqlType) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+            return KIND_LONG;
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+            return KIND_DOUBLE;
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+            return KIND_DECIMAL;
+        case Types.BIT:
+        case Types.BOOLEAN:
+            return KIND_BOOLEAN;
+        case Types.DATE:
+            return KIND_DATE;
+        case Types.TIME:
+            return KIND_TIME;
+        case Types.TIMESTAMP:
+            return KIND_TIMESTAMP;
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+        case Types.NCHAR:
+        case Types.NVARCHAR:
+        case Types.LONGNVARCHAR:
+        case Types.CLOB:
+        case Types.NCLOB:
+            return KIND_STRING;
+        case Types.BINARY:
+        case Types.VARBINARY:
+        case Types.LONGVARBINARY:
+        case Types.BLOB:
+            return KIND_BYTES;
+        default:
+            return KIND_OBJECT;
+        }
+    }
+
+    // kinds whose getString() text is not the one of the driver
+    private static int textKindOf(int sqlType) {
+        int kind = kindOf(sqlType);
+        switch (kind) {
+        case KIND_BOOLEAN:
+        case KIND_DOUBLE:
+        case KIND_TIMESTAMP:
+        case KIND_BYTES:
+            return KIND_STRING;
+        default:
+            return kind;
+        }
+    }
+
+    /**
+     * Reads rows from rs until the batch is full or rs has no more rows.
+     *
+     * @return number of rows read by this call
+     */
+    public int fill(ResultSet rs) throws SQLException {
+        int start = rows;
+        while (rows < capacity && rs.next())
+            readRow(rs);
+        return rows - start;
+    }
+
+    private void readRow(ResultSet rs) throws SQLException {
+        int r = rows;
+        for (int c = 0; c < kinds.length; c++) {
+            int idx = c + 1;
+            switch (kinds[c]) {
+            case KIND_LONG: {
+                long v = rs.getLong(idx);
+                if (rs.wasNull())
+                    setNull(c, r);
+                else
+                    longs[c][r] = v;
+                break;
+            }
+            case KIND_BOOLEAN: {
+                boolean v = rs.getBoolean(idx);
+                if (rs.wasNull())
+                    setNull(c, r);
+                else
+                    longs[c][r] = v ? 1 : 0;
+                break;
+            }
+            case KIND_DOUBLE: {
+                double v = rs.getDouble(idx);
+                if (rs.wasNull())
+                    setNull(c, r);
+                else
+                    doubles[c][r] = v;
+                break;
+            }
+            case KIND_DECIMAL:
+                setDecimal(c, r, rs.getBigDecimal(idx));
+                break;
+            case KIND_DATE: {
+                Date v = rs.getDate(idx);
+                if (v == null)
+                    setNull(c, r);
+                else
+                    longs[c][r] = v.getTime();
+                break;
+            }
+            case KIND_TIME: {
+                Time v = rs.getTime(idx);
+                if (v == null)
+                    setNull(c, r);
+                else
+                    longs[c][r] = v.getTime();
+                break;
+            }
+            case KIND_TIMESTAMP: {
+                Timestamp v = rs.getTimestamp(idx);
+                if (v == null)
+                    setNull(c, r);
+                else {
+                    longs[c][r] = v.getTime();
+                    ints[c][r] = v.getNanos();
+                }
+                break;
+            }
+            case KIND_STRING:
+                setString(c, r, rs.getString(idx));
+                break;
+            case KIND_BYTES: {
+                byte[] v = rs.getBytes(idx);
+                setBytes(c, r, v, 0, v == null ? 0 : v.length);
+                break;
+            }
+            default: {
+                Object v = rs.getObject(idx);
+                if (v == null)
+                    setNull(c, r);
+                else
+                    objects[c][r] = v;
+            }
+            }
+        }
+        rows++;
+    }
+
+    /**
+     * Sets column c of the current row (getRowCount()) from text, as written
+     * by getString(). endRow() completes the row.
+     */
+    public void putText(int c, byte[] b, int off, int len, Charset cs) {
+        int r = rows;
+        switch (kinds[c]) {
+        case KIND_STRING:
+            if (StandardCharsets.UTF_8.equals(cs))
+                setBytes(c, r, b, off, len);
+            else
+                setString(c, r, new String(b, off, len, cs));
+            return;
+        case KIND_LONG:
+            longs[c][r] = parseLong(b, off, len);
+            return;
+        case KIND_BYTES:
+            byte[] v = Base64.getDecoder().decode(new String(b, off, len, StandardCharsets.ISO_8859_1).trim());
+            setBytes(c, r, v, 0, v.length);
+            return;
+        default:
+        }
+        String s = new String(b, off, len, cs).trim();
+        switch (kinds[c]) {
+        case KIND_DOUBLE:
+            doubles[c][r] = Double.parseDouble(s);
+            break;
+        case KIND_DECIMAL:
+            setDecimal(c, r, new BigDecimal(s));
+            break;
+        case KIND_BOOLEAN:
+            longs[c][r] = toBoolean(s) ? 1 : 0;
+            break;
+        case KIND_DATE:
+            longs[c][r] = Date.valueOf(s).getTime();
+            break;
+        case KIND_TIME:
+            longs[c][r] = Time.valueOf(s).getTime();
+            break;
+        case KIND_TIMESTAMP: {
+            Timestamp ts = Timestamp.valueOf(s);
+            longs[c][r] = ts.getTime();
+            ints[c][r] = ts.getNanos();
+            break;
+        }
+        default:
+            objects[c][r] = s;
+        }
+    }
+
+    /**
+     * Sets a LONG or BOOLEAN (0/1) column, or the milliseconds of a DATE or
+     * TIME column, of the current row.
+     */
+    public void putLong(int c, long v) {
+        longs[c][rows] = v;
+    }
+
+    public void putDouble(int c, double v) {
+        doubles[c][rows] = v;
+    }
+
+    public void putDecimal(int c, long unscaled, int scale) {
+        longs[c][rows] = unscaled;
+        ints[c][rows] = scale;
+    }
+
+    public void putTimestamp(int c, long millis, int nanos) {
+        longs[c][rows] = millis;
+        ints[c][rows] = nanos;
+    }
+
+    /**
+     * Sets a STRING (UTF-8) or BYTES column of the current row.
+     */
+    public void putBytes(int c, byte[] b, int off, int len) {
+        setBytes(c, rows, b, off, len);
+    }
+
+    public void putNull(int c) {
+        setNull(c, rows);
+    }
+
+    public void endRow() {
+        rows++;
+    }
+
+    public boolean isFull() {
+        return rows >= capacity;
+    }
+
+    // digits only, no temporary String; everything else goes to Long.parseLong
+    private static long parseLong(byte[] b, int off, int len) {
+        int i = off, end = off + len;
+        while (i < end && b[i] == ' ')
+            i++;
+        while (end > i && b[end - 1] == ' ')
+            end--;
+        boolean neg = i < end && b[i] == '-';
+        if (neg || (i < end && b[i] == '+'))
+            i++;
+        if (i == end || end - i > 18)
+            return Long.parseLong(new String(b, off, len, StandardCharsets.ISO_8859_1).trim());
+        long v = 0;
+        for (; i < end; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9)
+                return Long.parseLong(new String(b, off, len, StandardCharsets.ISO_8859_1).trim());
+            v = v * 10 + d;
+        }
+        return neg ? -v : v;
+    }
+
+    private void setNull(int c, int r) {
+        nulls[c][r >>> 6] |= 1L << r;
+        if (offsets[c] != null)
+            offsets[c][r + 1] = offsets[c][r];
+    }
+
+    private void setDecimal(int c, int r, BigDecimal v) {
+        if (v == null) {
+            setNull(c, r);
+            return;
+        }
+        BigInteger unscaled = v.unscaledValue();
+        if (unscaled.bitLength() < 64) {
+            longs[c][r] = unscaled.longValue();
+            ints[c][r] = v.scale();
+        } else
+            objects[c][r] = v;
+    }
+
+    private void setBytes(int c, int r, byte[] v, int vOff, int len) {
+        if (v == null) {
+            setNull(c, r);
+            return;
+        }
+        int off = offsets[c][r];
+        ensureData(c, off + len);
+        System.arraycopy(v, vOff, data[c], off, len);
+        offsets[c][r + 1] = off + len;
+    }
+
+    // UTF-8 encoding straight into the column buffer, no temporary byte[]
+    private void setString(int c, int r, String s) {
+        if (s == null) {
+            setNull(c, r);
+            return;
+        }
+        int len = s.length();
+        int pos = offsets[c][r];
+        ensureData(c, pos + len * 3);
+        byte[] d = data[c];
+        for (int i = 0; i < len; i++) {
+            char ch = s.charAt(i);
+            if (ch < 0x80) {
+                d[pos++] = (byte) ch;
+            } else if (ch < 0x800) {
+                d[pos++] = (byte) (0xC0 | (ch >> 6));
+                d[pos++] = (byte) (0x80 | (ch & 0x3F));
+            } else if (Character.isHighSurrogate(ch) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(ch, s.charAt(++i));
+                d[pos++] = (byte) (0xF0 | (cp >> 18));
+                d[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                d[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                d[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(ch)) {
+                d[pos++] = (byte) '?';
+            } else {
+                d[pos++] = (byte) (0xE0 | (ch >> 12));
+                d[pos++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+                d[pos++] = (byte) (0x80 | (ch & 0x3F));
+            }
+        }
+        offsets[c][r + 1] = pos;
+    }
+
+    private void ensureData(int c, int size) {
+        if (size > data[c].length)
+            data[c] = Arrays.copyOf(data[c], Math.max(size, data[c].length * 2));
+    }
+
+    /**
+     * Appends the rows in the layout of a binary dump block (see BinaryDump):
+     * per column the null bitmap, then the primitive arrays of its kind.
+     */
+    void writeTo(ByteBlock out) {
+        int n = rows, words = (n + 63) >>> 6;
+        for (int c = 0; c < kinds.length; c++) {
+            for (int i = 0; i < words; i++)
+                out.putLong(nulls[c][i]);
+            switch (kinds[c]) {
+            case KIND_LONG:
+            case KIND_BOOLEAN:
+            case KIND_DATE:
+            case KIND_TIME:
+                for (int r = 0; r < n; r++)
+                    out.putLong(longs[c][r]);
+                break;
+            case KIND_TIMESTAMP:
+                for (int r = 0; r < n; r++)
+                    out.putLong(longs[c][r]);
+                for (int r = 0; r < n; r++)
+                    out.putInt(ints[c][r]);
+                break;
+            case KIND_DECIMAL: {
+                int big = 0;
+                for (int r = 0; r < n; r++) {
+                    out.putLong(longs[c][r]);
+                    out.putInt(ints[c][r]);
+                    if (objects[c][r] != null)
+                        big++;
+                }
+                out.putInt(big);
+                for (int r = 0; r < n && big > 0; r++) {
+                    if (objects[c][r] == null)
+                        continue;
+                    BigDecimal v = (BigDecimal) objects[c][r];
+                    byte[] b = v.unscaledValue().toByteArray();
+                    out.putInt(r);
+                    out.putInt(v.scale());
+                    out.putInt(b.length);
+                    out.put(b);
+                }
+                break;
+            }
+            case KIND_DOUBLE:
+                for (int r = 0; r < n; r++)
+                    out.putLong(Double.doubleToRawLongBits(doubles[c][r]));
+                break;
+            case KIND_STRING:
+            case KIND_BYTES:
+                for (int r = 1; r <= n; r++)
+                    out.putInt(offsets[c][r]);
+                out.put(data[c], 0, offsets[c][n]);
+                break;
+            default:
+                // no primitive representation, kept as text
+                for (int r = 0; r < n; r++) {
+                    if (isNull(c, r))
+                        continue;
+                    byte[] b = objects[c][r].toString().getBytes(StandardCharsets.UTF_8);
+                    out.putInt(b.length);
+                    out.put(b);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reverse of writeTo(), OBJECT columns come back as String.
+     */
+    static ColumnBatch readFrom(ByteBuffer in, int[] sqlTypes, int rowCount) {
+        ColumnBatch b = new ColumnBatch(sqlTypes, Math.max(1, rowCount));
+        int n = rowCount, words = (n + 63) >>> 6;
+        for (int c = 0; c < sqlTypes.length; c++) {
+            for (int i = 0; i < words; i++)
+                b.nulls[c][i] = in.getLong();
+            switch (b.kinds[c]) {
+            case KIND_LONG:
+            case KIND_BOOLEAN:
+            case KIND_DATE:
+            case KIND_TIME:
+                in.asLongBuffer().get(b.longs[c], 0, n);
+                in.position(in.position() + n * 8);
+                break;
+            case KIND_TIMESTAMP:
+                in.asLongBuffer().get(b.longs[c], 0, n);
+                in.position(in.position() + n * 8);
+                in.asIntBuffer().get(b.ints[c], 0, n);
+                in.position(in.position() + n * 4);
+                break;
+            case KIND_DECIMAL: {
+                for (int r = 0; r < n; r++) {
+                    b.longs[c][r] = in.getLong();
+                    b.ints[c][r] = in.getInt();
+                }
+                int big = in.getInt();
+                for (int i = 0; i < big; i++) {
+                    int r = in.getInt(), scale = in.getInt();
+                    byte[] v = new byte[in.getInt()];
+                    in.get(v);
+                    b.objects[c][r] = new BigDecimal(new BigInteger(v), scale);
+                }
+                break;
+            }
+            case KIND_DOUBLE:
+                in.asDoubleBuffer().get(b.doubles[c], 0, n);
+                in.position(in.position() + n * 8);
+                break;
+            case KIND_STRING:
+            case KIND_BYTES: {
+                in.asIntBuffer().get(b.offsets[c], 1, n);
+                in.position(in.position() + n * 4);
+                int len = b.offsets[c][n];
+                b.data[c] = new byte[Math.max(64, len)];
+                in.get(b.data[c], 0, len);
+                break;
+            }
+            default:
+                for (int r = 0; r < n; r++) {
+                    if (b.isNull(c, r))
+                        continue;
+                    byte[] v = new byte[in.getInt()];
+                    in.get(v);
+                    b.objects[c][r] = new String(v, StandardCharsets.UTF_8);
+                }
+            }
+        }
+        b.rows = n;
+        return b;
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    public void setOrigin(int range, long sequence) {
+        this.range = range;
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return index of the key range this batch was read from, -1 if unknown
+     */
+    public int getRange() {
+        return range;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getColumnCount() {
+        return kinds.length;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSqlType(int c) {
+        return sqlTypes[c];
+    }
+
+    public int getKind(int c) {
+        return kinds[c];
+    }
+
+    /**
+     * @return approximate heap usage of the values, used for queue accounting
+     */
+    public long getByteSize() {
+        long size = 0;
+        for (int c = 0; c < kinds.length; c++) {
+            if (offsets[c] != null)
+                size += offsets[c][rows] + 4L * rows;
+            else if (objects[c] != null && kinds[c] == KIND_OBJECT)
+                size += 32L * rows;
+            else
+                size += 8L * rows;
+        }
+        return size;
+    }
+
+    /**
+     * Raw UTF-8 (STRING) or binary (BYTES) buffer of column c, the value of row
+     * r starts at getDataOffset(c, r) and has getDataLength(c, r) bytes.
+     */
+    public byte[] getData(int c) {
+        return data[c];
+    }
+
+    public int getDataOffset(int c, int r) {
+        return offsets[c][r];
+    }
+
+    public int getDataLength(int c, int r) {
+        return offsets[c][r + 1] - offsets[c][r];
+    }
+
+    /**
+     * DECIMAL values fitting into a long are kept as unscaled long and scale,
+     * see getUnscaled() and getScale().
+     *
+     * @return false if the value is kept as BigDecimal or column is no DECIMAL
+     */
+    public boolean isCompactDecimal(int c, int r) {
+        return kinds[c] == KIND_DECIMAL && objects[c][r] == null;
+    }
+
+    public long getUnscaled(int c, int r) {
+        return longs[c][r];
+    }
+
+    public int getScale(int c, int r) {
+        return ints[c][r];
+    }
+
+    /**
+     * Raw values of column c without conversion, for binders that know the
+     * kind of the column. Meaning of the values see the field comments.
+     */
+    public long[] getLongs(int c) {
+        return longs[c];
+    }
+
+    public int[] getInts(int c) {
+        return ints[c];
+    }
+
+    public double[] getDoubles(int c) {
+        return doubles[c];
+    }
+
+    public boolean isNull(int c, int r) {
+        return (nulls[c][r >>> 6] & (1L << r)) != 0;
+    }
+
+    public long getLong(int c, int r) {
+        switch (kinds[c]) {
+        case KIND_LONG:
+        case KIND_BOOLEAN:
+        case KIND_DATE:
+        case KIND_TIME:
+        case KIND_TIMESTAMP:
+            return longs[c][r];
+        case KIND_DOUBLE:
+            return (long) doubles[c][r];
+        case KIND_DECIMAL:
+            return getBigDecimal(c, r).longValue();
+        case KIND_OBJECT:
+            if (objects[c][r] instanceof Number)
+                return ((Number) objects[c][r]).longValue();
+            return Long.parseLong(getString(c, r).trim());
+        default:
+            return Long.parseLong(getString(c, r).trim());
+        }
+    }
+
+    public double getDouble(int c, int r) {
+        switch (kinds[c]) {
+        case KIND_DOUBLE:
+            return doubles[c][r];
+        case KIND_DECIMAL:
+            return objects[c][r] != null ? ((BigDecimal) objects[c][r]).doubleValue()
+                    : longs[c][r] / Math.pow(10, ints[c][r]);
+        case KIND_LONG:
+        case KIND_BOOLEAN:
+            return longs[c][r];
+        case KIND_OBJECT:
+            if (objects[c][r] instanceof Number)
+                return ((Number) objects[c][r]).doubleValue();
+            return Double.parseDouble(getString(c, r).trim());
+        default:
+            return Double.parseDouble(getString(c, r).trim());
+        }
+    }
+
+    public BigDecimal getBigDecimal(int c, int r) {
+        switch (kinds[c]) {
+        case KIND_DECIMAL:
+            if (objects[c][r] != null)
+                return (BigDecimal) objects[c][r];
+            return BigDecimal.valueOf(longs[c][r], ints[c][r]);
+        case KIND_LONG:
+        case KIND_BOOLEAN:
+            return BigDecimal.valueOf(longs[c][r]);
+        case KIND_DOUBLE:
+            return BigDecimal.valueOf(doubles[c][r]);
+        case KIND_OBJECT:
+            if (objects[c][r] instanceof BigDecimal)
+                return (BigDecimal) objects[c][r];
+            return new BigDecimal(getString(c, r).trim());
+        default:
+            return new BigDecimal(getString(c, r).trim());
+        }
+    }
+
+    public boolean getBoolean(int c, int r) {
+        switch (kinds[c]) {
+        case KIND_BOOLEAN:
+        case KIND_LONG:
+            return longs[c][r] != 0;
+        case KIND_DOUBLE:
+            return doubles[c][r] != 0;
+        case KIND_OBJECT:
+            if (objects[c][r] instanceof Boolean)
+                return (Boolean) objects[c][r];
+            return toBoolean(getString(c, r));
+        default:
+            return toBoolean(getString(c, r));
+        }
+    }
+
+    private static boolean toBoolean(String s) {
+        s = s.trim().toLowerCase();
+        return "true".equals(s) || "t".equals(s) || "y".equals(s) || "yes".equals(s) || "1".equals(s);
+    }
+
+    public Timestamp getTimestamp(int c, int r) {
+        switch (kinds[c]) {
+        case KIND_TIMESTAMP: {
+            Timestamp ts = new Timestamp(longs[c][r]);
+            ts.setNanos(ints[c][r]);
+            return ts;
+        }
+        case KIND_DATE:
+        case KIND_TIME:
+        case KIND_LONG:
+            return new Timestamp(longs[c][r]);
+        case KIND_OBJECT:
+            if (objects[c][r] instanceof Timestamp)
+                return (Timestamp) objects[c][r];
+            return Timestamp.valueOf(getString(c, r).trim());
+        default:
+            return Timestamp.valueOf(getString(c, r).trim());
+        }
+    }
+
+    public Date getDate(int c, int r) {
+        switch (kinds[c]) {
+        case KIND_DATE:
+        case KIND_TIMESTAMP:
+        case KIND_LONG:
+            return new Date(longs[c][r]);
+        default:
+            return Date.valueOf(getString(c, r).trim());
+        }
+    }
+
+    public Time getTime(int c, int r) {
+        switch (kinds[c]) {
+        case KIND_TIME:
+        case KIND_TIMESTAMP:
+        case KIND_LONG:
+            return new Time(longs[c][r]);
+        default:
+            return Time.valueOf(getString(c, r).trim());
+        }
+    }
+
+    public byte[] getBytes(int c, int r) {
+        if (offsets[c] != null)
+            return Arrays.copyOfRange(data[c], offsets[c][r], offsets[c][r + 1]);
+        if (kinds[c] == KIND_OBJECT && objects[c][r] instanceof byte[])
+            return (byte[]) objects[c][r];
+        return getString(c, r).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return text representation of the value, null for SQL NULL
+     */
+    public String getString(int c, int r) {
+        if (isNull(c, r))
+            return null;
+        switch (kinds[c]) {
+        case KIND_STRING:
+            return new String(data[c], offsets[c][r], offsets[c][r + 1] - offsets[c][r], StandardCharsets.UTF_8);
+        case KIND_BYTES:
+            return Base64.getEncoder().encodeToString(getBytes(c, r));
+        case KIND_LONG:
+            return Long.toString(longs[c][r]);
+        case KIND_BOOLEAN:
+            return longs[c][r] != 0 ? "true" : "false";
+        case KIND_DOUBLE:
+            // plain notation like most drivers' getString(), 12345678 instead of 1.2345678E7
+            double d = doubles[c][r];
+            if (Double.isNaN(d) || Double.isInfinite(d))
+                return Double.toString(d);
+            return BigDecimal.valueOf(d).toPlainString();
+        case KIND_DECIMAL:
+            return getBigDecimal(c, r).toPlainString();
+        case KIND_DATE:
+            return new Date(longs[c][r]).toString();
+        case KIND_TIME:
+            return new Time(longs[c][r]).toString();
+        case KIND_TIMESTAMP:
+            return getTimestamp(c, r).toString();
+        default:
+            return objects[c][r].toString();
+        }
+    }
+
+    public Object getObject(int c, int r) {
+        if (isNull(c, r))
+            return null;
+        switch (kinds[c]) {
+        case KIND_STRING:
+            return getString(c, r);
+        case KIND_BYTES:
+            return getBytes(c, r);
+        case KIND_LONG:
+            return longs[c][r];
+        case KIND_BOOLEAN:
+            return longs[c][r] != 0;
+        case KIND_DOUBLE:
+            return doubles[c][r];
+        case KIND_DECIMAL:
+            return getBigDecimal(c, r);
+        case KIND_DATE:
+            return getDate(c, r);
+        case KIND_TIME:
+            return getTime(c, r);
+        case KIND_TIMESTAMP:
+            return getTimestamp(c, r);
+        default:
+            return objects[c][r];
+        }
+    }
+
+    /**
+     * Binds value (c, r) as parameter idx, converted to bindType (see
+     * java.sql.Types).
+     */
+    public void bind(PreparedStatement ps, int idx, int c, int r, int bindType) throws SQLException {
+        if (isNull(c, r)) {
+            ps.setNull(idx, bindType);
+            return;
+        }
+        switch (bindType) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+            ps.setLong(idx, getLong(c, r));
+            break;
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+            ps.setDouble(idx, getDouble(c, r));
+            break;
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+            ps.setBigDecimal(idx, getBigDecimal(c, r));
+            break;
+        case Types.BIT:
+        case Types.BOOLEAN:
+            ps.setBoolean(idx, getBoolean(c, r));
+            break;
+        case Types.DATE:
+            ps.setDate(idx, getDate(c, r));
+            break;
+        case Types.TIME:
+            ps.setTime(idx, getTime(c, r));
+            break;
+        case Types.TIMESTAMP:
+            ps.setTimestamp(idx, getTimestamp(c, r));
+            break;
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+        case Types.NCHAR:
+        case Types.NVARCHAR:
+        case Types.LONGNVARCHAR:
+        case Types.CLOB:
+        case Types.NCLOB:
+            ps.setString(idx, getString(c, r));
+            break;
+        case Types.BINARY:
+        case Types.VARBINARY:
+        case Types.LONGVARBINARY:
+        case Types.BLOB:
+            ps.setBytes(idx, getBytes(c, r));
+            break;
+        default:
+            ps.setObject(idx, getObject(c, r));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+/**
+ * When a writing thread commits: after n batches ("n"), after n rows
+ * ("nrows"), after n seconds ("ns") or once at the end ("end"). Fewer commits
+ * save log flushes on the target, a failed writer rolls back all rows since
+ * its last commit.
+ */
+public class CommitPolicy {
+
+    public static final String END = "end";
+
+    private final String param;
+    // 0=not used
+    private final long batches, rows, ms;
+
+    private CommitPolicy(String param, long batches, long rows, long ms) {
+        this.param = param;
+        this.batches = batches;
+        this.rows = rows;
+        this.ms = ms;
+    }
+
+    public static CommitPolicy parse(String param) {
+        String v = param.trim().toLowerCase();
+        if (END.equals(v))
+            return new CommitPolicy(param, 0, 0, 0);
+        try {
+            long n;
+            if (v.endsWith("rows")) {
+                n = Long.parseLong(v.substring(0, v.length() - 4).trim());
+                if (n > 0)
+                    return new CommitPolicy(param, 0, n, 0);
+            } else if (v.endsWith("s")) {
+                n = Long.parseLong(v.substring(0, v.length() - 1).trim());
+                if (n > 0)
+                    return new CommitPolicy(param, 0, 0, n * 1000);
+            } else {
+                n = Long.parseLong(v);
+                if (n > 0)
+                    return new CommitPolicy(param, n, 0, 0);
+            }
+        } catch (NumberFormatException e) {
+            // same message as for n<=0
+        }
+        throw new IllegalArgumentException(CLIParams.DEST_DB_COMMIT_EVERY + "=" + param
+                + " is invalid, use n (batches), nrows, ns (seconds) or " + END);
+    }
+
+    /**
+     * @return true if the rows written since the last commit should be
+     *         committed now
+     */
+    public boolean isDue(long batchesSinceCommit, long rowsSinceCommit, long msSinceCommit) {
+        if (batchesSinceCommit == 0)
+            return false;
+        if (batches > 0)
+            return batchesSinceCommit >= batches;
+        if (rows > 0)
+            return rowsSinceCommit >= rows;
+        if (ms > 0)
+            return msSinceCommit >= ms;
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return param;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Publishes the counters of a running copy as MBean
+ * com.cg.sqlcp:type=Copy,name=(command) and, if a port is given, as
+ * Prometheus text format on http://localhost:port/metrics. Values are read
+ * from the lock-free counters of the threads on every request, nothing is
+ * collected in between. Writers are looked up on every request as well,
+ * their number changes with autoscaling.
+ */
+public class CopyMetrics implements CopyMetricsMBean {
+
+    private final String command;
+    private final BatchChannel<?> queue;
+    private final Supplier<ThreadReadingFromDB[]> readers;
+    private final Supplier<ThreadWritingToDB[]> writers;
+    private ObjectName objectName = null;
+    private HttpServer http = null;
+    private ExecutorService httpExecutor = null;
+
+    public CopyMetrics(String command, BatchChannel<?> queue, Supplier<ThreadReadingFromDB[]> readers,
+            Supplier<ThreadWritingToDB[]> writers) {
+        this.command = command;
+        this.queue = queue;
+        this.readers = readers;
+        this.writers = writers;
+    }
+
+    public void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        objectName = new ObjectName("com.cg.sqlcp:type=Copy,name=" + command);
+        if (server.isRegistered(objectName))
+            server.unregisterMBean(objectName);
+        server.registerMBean(this, objectName);
+    }
+
+    /**
+     * Listens on the loopback interface only.
+     */
+    public void startHttp(int port) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        // one daemon thread is enough for a scraper every few seconds
+        httpExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "CopyMetrics-http");
+            t.setDaemon(true);
+            return t;
+        });
+        http.setExecutor(httpExecutor);
+        http.start();
+    }
+
+    public void close() {
+        if (http != null)
+            http.stop(0);
+        if (httpExecutor != null)
+            httpExecutor.shutdown();
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                // ends with the JVM anyway
+            }
+        }
+    }
+
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        ThreadReadingFromDB[] in = readers.get();
+        ThreadWritingToDB[] out = writers.get();
+        perThread(sb, "sqlcp_rows_fetched_total", "counter", "rows read from the source", "reader", in,
+                ThreadReadingFromDB::getTotalRowsReceived, 1);
+        perThread(sb, "sqlcp_fetches_total", "counter", "batches read from the source", "reader", in,
+                ThreadReadingFromDB::getFetchesExecuted, 1);
+        perThread(sb, "sqlcp_reader_db_seconds_total", "counter", "time spent fetching", "reader", in,
+                ThreadReadingFromDB::getDBTime, 1000);
+        perThread(sb, "sqlcp_reader_wait_seconds_total", "counter", "time waiting for a full queue", "reader", in,
+                ThreadReadingFromDB::getWaitForQueueConsumer, 1000);
+        perThread(sb, "sqlcp_rows_inserted_total", "counter", "rows written to the target", "writer", out,
+                ThreadWritingToDB::getTotalRowsInserted, 1);
+        perThread(sb, "sqlcp_batches_inserted_total", "counter", "batches written to the target", "writer", out,
+                ThreadWritingToDB::getTotalBatchedInserts, 1);
+        perThread(sb, "sqlcp_writer_db_seconds_total", "counter", "time spent loading", "writer", out,
+                ThreadWritingToDB::getDBTime, 1000);
+        perThread(sb, "sqlcp_commit_seconds_total", "counter", "time spent committing", "writer", out,
+                ThreadWritingToDB::getCommitTime, 1000);
+        perThread(sb, "sqlcp_writer_wait_seconds_total", "counter", "time waiting for an empty queue", "writer", out,
+                ThreadWritingToDB::getWaitForQueueProducer, 1000);
+        gauge(sb, "sqlcp_writer_threads", "running writing threads", getWriterThreads());
+        gauge(sb, "sqlcp_queue_rows", "rows queued between readers and writers", getQueueRows());
+        gauge(sb, "sqlcp_queue_bytes", "bytes queued between readers and writers", getQueueBytes());
+        gauge(sb, "sqlcp_queue_max_rows", "bufferedRows", getQueueMaxRows());
+        gauge(sb, "sqlcp_heap_used_bytes", "used java heap", getHeapUsed());
+        return sb.toString();
+    }
+
+    private <T> void perThread(StringBuilder sb, String name, String type, String help, String label, T[] threads,
+            ToLongFunction<T> value, int divisor) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (int i = 0; i < threads.length; i++) {
+            long v = value.applyAsLong(threads[i]);
+            sb.append(name).append("{command=\"").append(command).append("\",").append(label).append("=\"")
+                    .append(i + 1).append("\"} ");
+            if (divisor == 1)
+                sb.append(v);
+            else
+                sb.append((double) v / divisor);
+            sb.append('\n');
+        }
+    }
+
+    private void gauge(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append("{command=\"").append(command).append("\"} ").append(value).append('\n');
+    }
+
+    @Override
+    public long getRowsFetched() {
+        long sum = 0;
+        for (ThreadReadingFromDB r : readers.get())
+            sum += r.getTotalRowsReceived();
+        return sum;
+    }
+
+    @Override
+    public long getFetches() {
+        long sum = 0;
+        for (ThreadReadingFromDB r : readers.get())
+            sum += r.getFetchesExecuted();
+        return sum;
+    }
+
+    @Override
+    public long getReaderDBTime() {
+        long sum = 0;
+        for (ThreadReadingFromDB r : readers.get())
+            sum += r.getDBTime();
+        return sum;
+    }
+
+    @Override
+    public long getReaderWaitTime() {
+        long sum = 0;
+        for (ThreadReadingFromDB r : readers.get())
+            sum += r.getWaitForQueueConsumer();
+        return sum;
+    }
+
+    @Override
+    public long getRowsInserted() {
+        long sum = 0;
+        for (ThreadWritingToDB w : writers.get())
+            sum += w.getTotalRowsInserted();
+        return sum;
+    }
+
+    @Override
+    public long getBatchesInserted() {
+        long sum = 0;
+        for (ThreadWritingToDB w : writers.get())
+            sum += w.getTotalBatchedInserts();
+        return sum;
+    }
+
+    @Override
+    public long getWriterDBTime() {
+        long sum = 0;
+        for (ThreadWritingToDB w : writers.get())
+            sum += w.getDBTime();
+        return sum;
+    }
+
+    @Override
+    public long getWriterCommitTime() {
+        long sum = 0;
+        for (ThreadWritingToDB w : writers.get())
+            sum += w.getCommitTime();
+        return sum;
+    }
+
+    @Override
+    public long getWriterWaitTime() {
+        long sum = 0;
+        for (ThreadWritingToDB w : writers.get())
+            sum += w.getWaitForQueueProducer();
+        return sum;
+    }
+
+    @Override
+    public int getReaderThreads() {
+        return readers.get().length;
+    }
+
+    @Override
+    public int getWriterThreads() {
+        int n = 0;
+        for (ThreadWritingToDB w : writers.get())
+            if (w.getState() != Thread.State.TERMINATED)
+                n++;
+        return n;
+    }
+
+    @Override
+    public long getQueueRows() {
+        return queue.getRows();
+    }
+
+    @Override
+    public long getQueueBytes() {
+        return queue.getBytes();
+    }
+
+    @Override
+    public long getQueueMaxRows() {
+        return queue.getMaxRows();
+    }
+
+    @Override
+    public long getHeapUsed() {
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+}
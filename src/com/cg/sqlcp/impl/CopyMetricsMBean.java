@@ -0,0 +1,42 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+/**
+ * JMX view of a running copy, times in ms, sums over all threads.
+ */
+public interface CopyMetricsMBean {
+
+    public long getRowsFetched();
+
+    public long getFetches();
+
+    public long getReaderDBTime();
+
+    public long getReaderWaitTime();
+
+    public long getRowsInserted();
+
+    public long getBatchesInserted();
+
+    public long getWriterDBTime();
+
+    public long getWriterCommitTime();
+
+    public long getWriterWaitTime();
+
+    public int getReaderThreads();
+
+    public int getWriterThreads();
+
+    public long getQueueRows();
+
+    public long getQueueBytes();
+
+    public long getQueueMaxRows();
+
+    public long getHeapUsed();
+}
@@ -0,0 +1,276 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.math.BigDecimal;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encodes a ColumnBatch into the bytes of its db2file lines, written straight
+ * into pooled direct buffers. Strings are escaped (" to \") in the same scan
+ * that copies or encodes them. UTF-8 strings are copied as bytes when the
+ * target charset is UTF-8, integers and compact decimals are written as ASCII
+ * digits when the charset is ASCII compatible. Everything else goes through
+ * getString() and a per thread CharsetEncoder. One instance is shared by all
+ * formatting threads; everything that depends on the position within the file
+ * (row counter, leading line break) is passed in by the caller.
+ */
+public class CsvBlockFormatter implements BlockFormatter {
+
+    private static final byte[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] separator, lineSeparator, quote, escape, trueBytes, falseBytes, minLong;
+    private final boolean firstColIsRowCounter, utf8, asciiCompatible;
+    private final Charset charset;
+    private final ByteBufferPool pool;
+    private final ThreadLocal<Scratch> scratch;
+    private final AtomicLong tFormatTime = new AtomicLong(), blocksFormatted = new AtomicLong();
+
+    private final class Scratch {
+        final CharsetEncoder enc = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final byte[] digits = new byte[20];
+        char[] chars = new char[256];
+    }
+
+    public CsvBlockFormatter(String separator, boolean firstColIsRowCounter, Charset charset, ByteBufferPool pool) {
+        this.firstColIsRowCounter = firstColIsRowCounter;
+        this.charset = charset;
+        this.pool = pool;
+        this.separator = separator.getBytes(charset);
+        this.lineSeparator = System.lineSeparator().getBytes(charset);
+        this.quote = "\"".getBytes(charset);
+        this.escape = "\\".getBytes(charset);
+        this.trueBytes = "true".getBytes(charset);
+        this.falseBytes = "false".getBytes(charset);
+        this.minLong = Long.toString(Long.MIN_VALUE).getBytes(charset);
+        this.utf8 = StandardCharsets.UTF_8.equals(charset);
+        String ascii = "0123456789-.+/=ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz\"\\";
+        this.asciiCompatible = Arrays.equals(ascii.getBytes(StandardCharsets.US_ASCII), ascii.getBytes(charset));
+        this.scratch = ThreadLocal.withInitial(Scratch::new);
+    }
+
+    @Override
+    public ByteBlock formatHeader(String[] columnNames, int[] columnTypes) {
+        ByteBlock b = new ByteBlock(pool);
+        Scratch s = scratch.get();
+        for (int i = 0; i < columnNames.length; i++) {
+            if (i >= 1)
+                b.put(separator);
+            b.put(quote);
+            putEscaped(b, columnNames[i] == null ? "null" : columnNames[i], s);
+            b.put(quote);
+        }
+        return b;
+    }
+
+    @Override
+    public ByteBlock format(ColumnBatch rows, long firstRowNumber, boolean newlineBefore) {
+        long t0 = System.currentTimeMillis();
+        Scratch s = scratch.get();
+        ByteBlock b = new ByteBlock(pool);
+        int colCount = rows.getColumnCount();
+        for (int r = 0; r < rows.getRowCount(); r++) {
+            if (newlineBefore || r > 0)
+                b.put(lineSeparator);
+            boolean needsSeparator = false;
+            if (firstColIsRowCounter) {
+                putLong(b, firstRowNumber + r, s);
+                needsSeparator = true;
+            }
+            for (int c = 0; c < colCount; c++) {
+                if (needsSeparator)
+                    b.put(separator);
+                if (!rows.isNull(c, r)) {
+                    b.put(quote);
+                    putValue(b, rows, c, r, s);
+                    b.put(quote);
+                }
+                needsSeparator = true;
+            }
+        }
+        b.setRowCount(rows.getRowCount());
+        blocksFormatted.incrementAndGet();
+        tFormatTime.addAndGet(System.currentTimeMillis() - t0);
+        return b;
+    }
+
+    // same text as ColumnBatch.getString()
+    private void putValue(ByteBlock b, ColumnBatch rows, int c, int r, Scratch s) {
+        switch (rows.getKind(c)) {
+        case ColumnBatch.KIND_STRING:
+            if (utf8) {
+                putEscapedUtf8(b, rows.getData(c), rows.getDataOffset(c, r), rows.getDataLength(c, r));
+                return;
+            }
+            break;
+        case ColumnBatch.KIND_LONG:
+            putLong(b, rows.getLong(c, r), s);
+            return;
+        case ColumnBatch.KIND_BOOLEAN:
+            b.put(rows.getBoolean(c, r) ? trueBytes : falseBytes);
+            return;
+        case ColumnBatch.KIND_DECIMAL:
+            if (asciiCompatible && rows.isCompactDecimal(c, r)) {
+                putPlainDecimal(b, rows.getUnscaled(c, r), rows.getScale(c, r), s);
+                return;
+            }
+            break;
+        case ColumnBatch.KIND_BYTES:
+            if (asciiCompatible) {
+                putBase64(b, rows.getData(c), rows.getDataOffset(c, r), rows.getDataLength(c, r));
+                return;
+            }
+            break;
+        default:
+        }
+        putEscaped(b, rows.getString(c, r), s);
+    }
+
+    // '"' never occurs inside a multibyte sequence, so bytes can be scanned
+    private void putEscapedUtf8(ByteBlock b, byte[] data, int off, int len) {
+        int start = off, end = off + len;
+        for (int i = off; i < end; i++) {
+            if (data[i] == '"') {
+                b.put(data, start, i - start);
+                b.put(escape);
+                start = i;
+            }
+        }
+        b.put(data, start, end - start);
+    }
+
+    private void putEscaped(ByteBlock b, String v, Scratch s) {
+        int len = v.length();
+        if (s.chars.length < len * 2)
+            s.chars = new char[Math.max(len * 2, s.chars.length * 2)];
+        char[] ch = s.chars;
+        int n = 0;
+        for (int i = 0; i < len; i++) {
+            char x = v.charAt(i);
+            if (x == '"')
+                ch[n++] = '\\';
+            ch[n++] = x;
+        }
+        CharsetEncoder enc = s.enc;
+        enc.reset();
+        CharBuffer in = CharBuffer.wrap(ch, 0, n);
+        while (true) {
+            CoderResult cr = enc.encode(in, b.current(), true);
+            if (cr.isOverflow())
+                b.next();
+            else
+                break;
+        }
+        while (enc.flush(b.current()).isOverflow())
+            b.next();
+    }
+
+    private void putLong(ByteBlock b, long v, Scratch s) {
+        if (!asciiCompatible) {
+            putEscaped(b, Long.toString(v), s);
+            return;
+        }
+        if (v == Long.MIN_VALUE) {
+            b.put(minLong);
+            return;
+        }
+        if (v < 0) {
+            b.put((byte) '-');
+            v = -v;
+        }
+        putDigits(b, v, 0, s);
+    }
+
+    // digits of v, at least minDigits long with leading zeros
+    private static void putDigits(ByteBlock b, long v, int minDigits, Scratch s) {
+        byte[] d = s.digits;
+        int p = d.length;
+        do {
+            d[--p] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = d.length - p; i < minDigits; i++)
+            b.put((byte) '0');
+        b.put(d, p, d.length - p);
+    }
+
+    // same as BigDecimal.toPlainString()
+    private void putPlainDecimal(ByteBlock b, long unscaled, int scale, Scratch s) {
+        if (unscaled == Long.MIN_VALUE || scale > 18) {
+            putEscaped(b, BigDecimal.valueOf(unscaled, scale).toPlainString(), s);
+            return;
+        }
+        if (unscaled == 0 && scale <= 0) {
+            b.put((byte) '0');
+            return;
+        }
+        if (unscaled < 0) {
+            b.put((byte) '-');
+            unscaled = -unscaled;
+        }
+        if (scale <= 0) {
+            putDigits(b, unscaled, 0, s);
+            for (int i = 0; i < -scale; i++)
+                b.put((byte) '0');
+            return;
+        }
+        long pow = 1;
+        for (int i = 0; i < scale; i++)
+            pow *= 10;
+        putDigits(b, unscaled / pow, 0, s);
+        b.put((byte) '.');
+        putDigits(b, unscaled % pow, scale, s);
+    }
+
+    private static void putBase64(ByteBlock b, byte[] data, int off, int len) {
+        int end = off + len, i = off;
+        for (; i + 3 <= end; i += 3) {
+            int v = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+            b.ensure(4);
+            b.put(BASE64[v >>> 18 & 0x3f]);
+            b.put(BASE64[v >>> 12 & 0x3f]);
+            b.put(BASE64[v >>> 6 & 0x3f]);
+            b.put(BASE64[v & 0x3f]);
+        }
+        int rest = end - i;
+        if (rest > 0) {
+            int v = (data[i] & 0xff) << 16 | (rest == 2 ? (data[i + 1] & 0xff) << 8 : 0);
+            b.put(BASE64[v >>> 18 & 0x3f]);
+            b.put(BASE64[v >>> 12 & 0x3f]);
+            b.put(rest == 2 ? BASE64[v >>> 6 & 0x3f] : (byte) '=');
+            b.put((byte) '=');
+        }
+    }
+
+    @Override
+    public ByteBlock formatTrailer(long rowCount) {
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return "csv(" + charset.name() + ")";
+    }
+
+    @Override
+    public long getFormatTime() {
+        return tFormatTime.get();
+    }
+
+    @Override
+    public long getBlocksFormatted() {
+        return blocksFormatted.get();
+    }
+}
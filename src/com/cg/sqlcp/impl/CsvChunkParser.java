@@ -0,0 +1,257 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.util.ArrayList;
+
+/**
+ * Parses a byte range of a CSV file that starts and ends on record
+ * boundaries into column batches. A quote opens a quoted value only at the
+ * start of a value; inside, escape+quote and a doubled quote stand for the
+ * quote itself, everything else is taken literally. An unquoted value equal
+ * to the NULL representation is NULL. One parser per thread, it is not
+ * thread safe.
+ */
+public class CsvChunkParser {
+
+    private final CsvFormat fmt;
+    private final int[] columnTypes;
+    private final int[] fileColToBatchCol;
+    private final int batchSize;
+    private byte[] value = new byte[1024];
+    private int valueLen;
+    private boolean valueQuoted;
+
+    /**
+     * @param fileColToBatchCol batch column per file column, -1 skips the file
+     *                          column (e.g. row counter)
+     */
+    public CsvChunkParser(CsvFormat fmt, int[] columnTypes, int[] fileColToBatchCol, int batchSize) {
+        this.fmt = fmt;
+        this.columnTypes = columnTypes;
+        this.fileColToBatchCol = fileColToBatchCol;
+        this.batchSize = batchSize;
+    }
+
+    public interface BatchConsumer {
+        public void accept(ColumnBatch batch) throws InterruptedException;
+    }
+
+    /**
+     * Parses all records in buf[start..end) and hands over every full batch and
+     * the last partial one.
+     *
+     * @return number of records
+     */
+    public long parse(byte[] buf, int start, int end, long fileOffset, BatchConsumer consumer)
+            throws InterruptedException {
+        ColumnBatch batch = new ColumnBatch(columnTypes, batchSize);
+        long records = 0;
+        int p = start;
+        while (p < end) {
+            int recordStart = p;
+            p = skipLineBreak(buf, p, end);
+            if (p != recordStart)
+                continue; // empty line
+            p = skipRowStart(buf, p, end, fileOffset);
+            int fileCol = 0;
+            while (true) {
+                p = readValue(buf, p, end);
+                if (fileCol >= fileColToBatchCol.length)
+                    throw new IllegalArgumentException("more values than expected (" + fileColToBatchCol.length
+                            + ") in record at file offset " + (fileOffset + recordStart - start));
+                int c = fileColToBatchCol[fileCol++];
+                if (c >= 0)
+                    setValue(batch, c, fileOffset + recordStart - start);
+                if (startsWith(buf, p, end, fmt.separator)) {
+                    p += fmt.separator.length;
+                    continue;
+                }
+                p = skipRowEnd(buf, p, end);
+                break;
+            }
+            if (fileCol != fileColToBatchCol.length)
+                throw new IllegalArgumentException("expected " + fileColToBatchCol.length + " values, found "
+                        + fileCol + " in record at file offset " + (fileOffset + recordStart - start));
+            batch.endRow();
+            records++;
+            if (batch.isFull()) {
+                consumer.accept(batch);
+                batch = new ColumnBatch(columnTypes, batchSize);
+            }
+            p = skipLineBreak(buf, p, end);
+        }
+        if (batch.getRowCount() > 0)
+            consumer.accept(batch);
+        return records;
+    }
+
+    /**
+     * @return values of the first record as strings, e.g. the header line
+     */
+    public String[] parseStrings(byte[] buf, int start, int end) {
+        ArrayList<String> l = new ArrayList<>();
+        int p = skipRowStart(buf, start, end, 0);
+        while (true) {
+            p = readValue(buf, p, end);
+            l.add(new String(value, 0, valueLen, fmt.charset));
+            if (!startsWith(buf, p, end, fmt.separator))
+                break;
+            p += fmt.separator.length;
+        }
+        return l.toArray(new String[0]);
+    }
+
+    private void setValue(ColumnBatch batch, int c, long recordOffset) {
+        if (!valueQuoted && valueLen == fmt.nullValue.length && startsWith(value, 0, valueLen, fmt.nullValue)) {
+            batch.putNull(c);
+            return;
+        }
+        try {
+            batch.putText(c, value, 0, valueLen, fmt.charset);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("cannot convert value=[[" + new String(value, 0, valueLen, fmt.charset)
+                    + "]] of column " + (c + 1) + " in record at file offset " + recordOffset, e);
+        }
+    }
+
+    // reads one value into value[0..valueLen), returns position after the value
+    private int readValue(byte[] buf, int p, int end) {
+        valueLen = 0;
+        valueQuoted = p < end && buf[p] == fmt.quote;
+        if (valueQuoted) {
+            p++;
+            while (p < end) {
+                byte b = buf[p];
+                if (b == fmt.quote) {
+                    if (p + 1 < end && buf[p + 1] == fmt.quote) {
+                        append(b);
+                        p += 2;
+                        continue;
+                    }
+                    return p + 1;
+                }
+                if (b == fmt.escape && p + 1 < end && buf[p + 1] == fmt.quote) {
+                    append(fmt.quote);
+                    p += 2;
+                    continue;
+                }
+                append(b);
+                p++;
+            }
+            return p;
+        }
+        while (p < end && buf[p] != '\n' && !startsWith(buf, p, end, fmt.separator) && !isRowEnd(buf, p, end)) {
+            append(buf[p]);
+            p++;
+        }
+        // \r\n
+        if (valueLen > 0 && value[valueLen - 1] == '\r' && p < end && buf[p] == '\n')
+            valueLen--;
+        return p;
+    }
+
+    private void append(byte b) {
+        if (valueLen == value.length) {
+            byte[] n = new byte[value.length * 2];
+            System.arraycopy(value, 0, n, 0, valueLen);
+            value = n;
+        }
+        value[valueLen++] = b;
+    }
+
+    private int skipRowStart(byte[] buf, int p, int end, long fileOffset) {
+        if (fmt.rowStart.length == 0)
+            return p;
+        if (!startsWith(buf, p, end, fmt.rowStart))
+            throw new IllegalArgumentException("record does not start with " + new String(fmt.rowStart, fmt.charset)
+                    + " at file offset " + (fileOffset + p));
+        return p + fmt.rowStart.length;
+    }
+
+    private int skipRowEnd(byte[] buf, int p, int end) {
+        if (fmt.rowEnd.length > 0 && startsWith(buf, p, end, fmt.rowEnd))
+            return p + fmt.rowEnd.length;
+        return p;
+    }
+
+    // row end marker only counts directly before a line break or the end
+    private boolean isRowEnd(byte[] buf, int p, int end) {
+        if (fmt.rowEnd.length == 0 || !startsWith(buf, p, end, fmt.rowEnd))
+            return false;
+        int n = p + fmt.rowEnd.length;
+        return n == end || buf[n] == '\n' || (buf[n] == '\r' && n + 1 < end && buf[n + 1] == '\n');
+    }
+
+    private static int skipLineBreak(byte[] buf, int p, int end) {
+        if (p < end && buf[p] == '\r' && p + 1 < end && buf[p + 1] == '\n')
+            return p + 2;
+        if (p < end && buf[p] == '\n')
+            return p + 1;
+        return p;
+    }
+
+    static boolean startsWith(byte[] buf, int p, int end, byte[] prefix) {
+        if (p + prefix.length > end)
+            return false;
+        for (int i = 0; i < prefix.length; i++)
+            if (buf[p + i] != prefix[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Finds the end of the last complete record in buf[start..end), start must
+     * be the start of a record. Same quoting rules as the parser, but nothing
+     * is copied.
+     *
+     * @return position after the line break of the last complete record, or
+     *         start if there is none
+     */
+    public static int findLastRecordEnd(CsvFormat fmt, byte[] buf, int start, int end) {
+        int last = start;
+        int p = start;
+        boolean recordStart = true, valueStart = true;
+        while (p < end) {
+            if (recordStart && fmt.rowStart.length > 0 && startsWith(buf, p, end, fmt.rowStart))
+                p += fmt.rowStart.length;
+            recordStart = false;
+            if (valueStart && p < end && buf[p] == fmt.quote) {
+                // skip quoted value
+                p++;
+                while (p < end) {
+                    byte b = buf[p];
+                    if ((b == fmt.quote && p + 1 < end && buf[p + 1] == fmt.quote)
+                            || (b == fmt.escape && p + 1 < end && buf[p + 1] == fmt.quote)) {
+                        p += 2;
+                        continue;
+                    }
+                    p++;
+                    if (b == fmt.quote)
+                        break;
+                }
+                // quoted value open at the end of the buffer
+                if (p >= end)
+                    return last;
+                valueStart = false;
+                continue;
+            }
+            if (buf[p] == '\n') {
+                p++;
+                last = p;
+                recordStart = true;
+                valueStart = true;
+            } else if (startsWith(buf, p, end, fmt.separator)) {
+                p += fmt.separator.length;
+                valueStart = true;
+            } else {
+                p++;
+                valueStart = false;
+            }
+        }
+        return last;
+    }
+}
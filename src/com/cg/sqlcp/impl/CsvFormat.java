@@ -0,0 +1,49 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.nio.charset.Charset;
+
+/**
+ * Layout of a text file as written by db2file: separator, quote and escape
+ * character, NULL representation, optional row markers (e.g. [[ and ]]),
+ * header line and row counter column.
+ */
+public class CsvFormat {
+
+    final Charset charset;
+    final byte[] separator;
+    final byte quote;
+    final byte escape;
+    final byte[] nullValue;
+    final byte[] rowStart;
+    final byte[] rowEnd;
+    final boolean header;
+    final boolean firstColIsCounter;
+
+    public CsvFormat(Charset charset, String separator, char quote, char escape, String nullValue, String rowStart,
+            String rowEnd, boolean header, boolean firstColIsCounter) {
+        this.charset = charset;
+        this.separator = separator.getBytes(charset);
+        this.quote = (byte) quote;
+        this.escape = (byte) escape;
+        this.nullValue = nullValue == null ? new byte[0] : nullValue.getBytes(charset);
+        this.rowStart = rowStart == null ? new byte[0] : rowStart.getBytes(charset);
+        this.rowEnd = rowEnd == null ? new byte[0] : rowEnd.getBytes(charset);
+        this.header = header;
+        this.firstColIsCounter = firstColIsCounter;
+        if (this.separator.length == 0)
+            throw new IllegalArgumentException("separator must not be empty");
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public boolean hasHeader() {
+        return header;
+    }
+}
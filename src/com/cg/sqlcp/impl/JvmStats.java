@@ -0,0 +1,99 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Throughput, allocation rate and GC time of a run, compared to the values at
+ * construction. Allocated bytes are the heap growth plus what the collectors
+ * freed, taken from the GC notifications, so all threads are included. One
+ * listener per collector is registered for the whole JVM, so a job with many
+ * copies does not add listeners.
+ */
+public class JvmStats {
+
+    // bytes freed by all collections since the listeners were registered
+    private static final AtomicLong freed = new AtomicLong();
+    private static boolean listening = false;
+
+    private final long t0 = System.currentTimeMillis();
+    private final long gcCount0, gcTime0, heapUsed0, freed0;
+
+    public JvmStats() {
+        listen();
+        gcCount0 = getGCCount();
+        gcTime0 = getGCTime();
+        heapUsed0 = getHeapUsed();
+        freed0 = freed.get();
+    }
+
+    private static synchronized void listen() {
+        if (listening)
+            return;
+        listening = true;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(gc instanceof NotificationEmitter))
+                continue;
+            ((NotificationEmitter) gc).addNotificationListener((n, handback) -> {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(n.getType()))
+                    return;
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                        .from((CompositeData) n.getUserData());
+                Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+                long sum = 0;
+                for (Map.Entry<String, MemoryUsage> e : info.getGcInfo().getMemoryUsageBeforeGc().entrySet())
+                    sum += e.getValue().getUsed() - after.get(e.getKey()).getUsed();
+                freed.addAndGet(sum);
+            }, null, null);
+        }
+    }
+
+    private static long getGCCount() {
+        long sum = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            sum += Math.max(0, gc.getCollectionCount());
+        return sum;
+    }
+
+    private static long getGCTime() {
+        long sum = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            sum += Math.max(0, gc.getCollectionTime());
+        return sum;
+    }
+
+    private static long getHeapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @param bytes size of the copied data, e.g. raw bytes of the batches
+     * @return rows/sec=..., MB/sec=..., allocMB/sec=..., gcCount=..., gcTime=...ms
+     */
+    public String getSummary(long rows, long bytes) {
+        long ms = Math.max(1, System.currentTimeMillis() - t0);
+        double mb = 1024.0 * 1024;
+        double allocated = Math.max(0, getHeapUsed() - heapUsed0 + freed.get() - freed0) / mb;
+        StringBuilder sb = new StringBuilder(100);
+        sb.append("rows/sec=").append(rows * 1000 / ms);
+        sb.append(", MB/sec=").append(String.format(Locale.ROOT, "%.1f", bytes / mb * 1000 / ms));
+        sb.append(", allocMB/sec=").append(String.format(Locale.ROOT, "%.1f", allocated * 1000 / ms));
+        sb.append(", gcCount=").append(getGCCount() - gcCount0);
+        sb.append(", gcTime=").append(getGCTime() - gcTime0).append("ms");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+
+import com.cg.sqlutil.SQLUtilFactory;
+import com.cg.sqlutil.SQLUtilInterface;
+
+/**
+ * Cuts srcData into disjoint SELECT statements, one per reading thread.
+ * RANGE: min/max of a numeric or date column, split into equally sized
+ * intervals. MOD: ABS(MOD(col, n))=i, col may also be an expression like
+ * ORA_HASH(ROWID). MOD of a negative key is negative on most databases, ABS
+ * keeps those rows in the ranges 0..n-1.
+ */
+public class KeyRangeSplitter {
+
+    public static final String METHOD_RANGE = "RANGE";
+    public static final String METHOD_MOD = "MOD";
+
+    private static final String ALIAS = "sqlcp_split";
+
+    public static String[] createSelectStmts(String jdbc, String user, String password, String queryData,
+            String splitColumn, String method, int parallelism) throws SQLException {
+        String[] predicates = createPredicates(jdbc, user, password, queryData, splitColumn, method, parallelism);
+        String[] stmts = new String[predicates.length];
+        for (int i = 0; i < predicates.length; i++)
+            stmts[i] = createSelectStmt(queryData, predicates[i]);
+        return stmts;
+    }
+
+    /**
+     * @return one predicate per key range, { null } if srcData is not split.
+     *         A synthetic source gets parallelism times null, every reader
+     *         generates its own rows.
+     */
+    public static String[] createPredicates(String jdbc, String user, String password, String queryData,
+            String splitColumn, String method, int parallelism) throws SQLException {
+        if (SyntheticSource.isSynthetic(jdbc))
+            return new String[Math.max(1, parallelism)];
+        if (parallelism <= 1 || Util.isNull(splitColumn))
+            return new String[] { null };
+        if (METHOD_MOD.equalsIgnoreCase(method))
+            return createModPredicates(splitColumn, parallelism);
+        return createRangePredicates(jdbc, user, password, queryData, splitColumn, parallelism);
+    }
+
+    public static String createSelectStmt(String queryData, String predicate) {
+        if (predicate == null)
+            return Util.createSelectStmt(queryData);
+        if (Util.isSelectStmt(queryData))
+            return "SELECT * FROM (" + queryData + ") " + ALIAS + " WHERE (" + predicate + ")";
+        return "SELECT * FROM " + queryData + " WHERE (" + predicate + ")";
+    }
+
+    private static String[] createModPredicates(String col, int n) {
+        String[] p = new String[n];
+        for (int i = 0; i < n; i++)
+            p[i] = "ABS(MOD(" + col + "," + n + "))=" + i + (i == 0 ? " OR " + col + " IS NULL" : "");
+        return p;
+    }
+
+    private static String[] createRangePredicates(String jdbc, String user, String password, String queryData,
+            String col, int n) throws SQLException {
+        SQLUtilInterface sql = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        try {
+            try {
+                sql = SQLUtilFactory.createSQLUtil(jdbc, user, password);
+            } catch (SQLException sqle) {
+                System.err.println("Cannot establish connection to source. jdbc=" + jdbc + " user=" + user
+                        + " len(password)=" + (password == null ? 0 : password.length()));
+                throw sqle;
+            }
+            sql.getConnection().setReadOnly(true);
+            stmt = sql.getConnection().createStatement();
+            rs = stmt.executeQuery("SELECT MIN(" + col + "), MAX(" + col + ") FROM ("
+                    + Util.createSelectStmt(queryData) + ") " + ALIAS);
+            rs.next();
+            int type = rs.getMetaData().getColumnType(1);
+            switch (type) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                long lmin = rs.getLong(1);
+                if (rs.wasNull())
+                    return new String[] { null };
+                return createRangePredicates(col, toLongBounds(lmin, rs.getLong(2), n));
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+            case Types.FLOAT:
+            case Types.REAL:
+            case Types.DOUBLE:
+                BigDecimal dmin = rs.getBigDecimal(1);
+                if (dmin == null)
+                    return new String[] { null };
+                return createRangePredicates(col, toDecimalBounds(dmin, rs.getBigDecimal(2), n));
+            case Types.DATE:
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                Timestamp tmin = rs.getTimestamp(1);
+                if (tmin == null)
+                    return new String[] { null };
+                return createRangePredicates(col, toTimestampBounds(tmin, rs.getTimestamp(2), n));
+            default:
+                throw new IllegalArgumentException("cannot split by range, column " + col + " has java.sql.Types="
+                        + type + ". Use a numeric or date column or " + CLIParams.SRC_SPLIT_METHOD + "="
+                        + METHOD_MOD);
+            }
+        } finally {
+            if (rs != null)
+                rs.close();
+            if (stmt != null)
+                stmt.close();
+            if (sql != null)
+                sql.closeConnection();
+        }
+    }
+
+    // bounds[0]=min, bounds[length-1]=max; first range also gets the NULLs
+    private static String[] createRangePredicates(String col, String[] bounds) {
+        int n = bounds.length - 1;
+        if (n <= 1)
+            return new String[] { null };
+        String[] p = new String[n];
+        for (int i = 0; i < n; i++) {
+            if (i == 0)
+                p[i] = col + " IS NULL OR " + col + "<" + bounds[1];
+            else if (i == n - 1)
+                p[i] = col + ">=" + bounds[i];
+            else
+                p[i] = col + ">=" + bounds[i] + " AND " + col + "<" + bounds[i + 1];
+        }
+        return p;
+    }
+
+    private static String[] toLongBounds(long min, long max, int n) {
+        BigDecimal width = BigDecimal.valueOf(max).subtract(BigDecimal.valueOf(min)).add(BigDecimal.ONE);
+        if (width.compareTo(BigDecimal.valueOf(n)) < 0)
+            n = width.intValue();
+        ArrayList<String> l = new ArrayList<>();
+        for (int i = 0; i <= n; i++) {
+            BigDecimal b = BigDecimal.valueOf(min)
+                    .add(width.multiply(BigDecimal.valueOf(i)).divide(BigDecimal.valueOf(n), 0, RoundingMode.FLOOR));
+            l.add(b.toPlainString());
+        }
+        return l.toArray(new String[0]);
+    }
+
+    private static String[] toDecimalBounds(BigDecimal min, BigDecimal max, int n) {
+        if (min.compareTo(max) == 0)
+            return new String[] { min.toPlainString() };
+        BigDecimal width = max.subtract(min);
+        String[] b = new String[n + 1];
+        for (int i = 0; i <= n; i++)
+            b[i] = min.add(width.multiply(BigDecimal.valueOf(i)).divide(BigDecimal.valueOf(n), 10, RoundingMode.FLOOR))
+                    .stripTrailingZeros().toPlainString();
+        return b;
+    }
+
+    private static String[] toTimestampBounds(Timestamp min, Timestamp max, int n) {
+        long t0 = min.getTime(), t1 = max.getTime();
+        if (t0 == t1)
+            return new String[] { toTimestampLiteral(t0) };
+        String[] b = new String[n + 1];
+        for (int i = 0; i <= n; i++)
+            b[i] = toTimestampLiteral(t0 + (long) ((double) (t1 - t0) * i / n));
+        return b;
+    }
+
+    private static String toTimestampLiteral(long ms) {
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        return "{ts '" + df.format(new Timestamp(ms)) + "'}";
+    }
+}
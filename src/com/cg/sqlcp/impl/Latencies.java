@@ -0,0 +1,69 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The latency histograms of all pipeline stages of one run. Each copy has
+ * its own instance, shared by its readers and writers; a job adds the
+ * copies up for its summary.
+ */
+public class Latencies {
+
+    // source fetch of one batch
+    public final LatencyHistogram fetch = new LatencyHistogram("fetch");
+    // reader waiting for room in the queue
+    public final LatencyHistogram queuePutWait = new LatencyHistogram("queue wait, reader");
+    // writer waiting for a batch
+    public final LatencyHistogram queueTakeWait = new LatencyHistogram("queue wait, writer");
+    // loader.load() of one batch, without commit
+    public final LatencyHistogram insert = new LatencyHistogram("insert");
+    public final LatencyHistogram commit = new LatencyHistogram("commit");
+    // write of one (compressed) block to the output file
+    public final LatencyHistogram fileWrite = new LatencyHistogram("file write");
+
+    private final LatencyHistogram[] all = { fetch, queuePutWait, queueTakeWait, insert, commit, fileWrite };
+
+    /**
+     * Adds the records of another run, e.g. a finished copy to the job.
+     */
+    public void add(Latencies other) {
+        for (int i = 0; i < all.length; i++)
+            all[i].add(other.all[i]);
+    }
+
+    /**
+     * Logs every stage that recorded something.
+     */
+    public void log() {
+        for (LatencyHistogram h : all)
+            if (h.getCount() > 0)
+                Util.log("latency " + h);
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{\"unit\":\"ns\",\"stages\":[");
+        boolean first = true;
+        for (LatencyHistogram h : all) {
+            if (h.getCount() == 0)
+                continue;
+            if (!first)
+                sb.append(',');
+            sb.append(h.toJson());
+            first = false;
+        }
+        return sb.append("]}").toString();
+    }
+
+    public void writeJson(String fileName) throws IOException {
+        try (PrintWriter w = new PrintWriter(fileName, StandardCharsets.UTF_8.name())) {
+            w.println(toJson());
+        }
+    }
+}
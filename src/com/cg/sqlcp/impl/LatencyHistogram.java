@@ -0,0 +1,133 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency distribution in nanoseconds, shared by all threads of a stage.
+ * Buckets are log-linear: values below 32ns are exact, above that every
+ * power of two is split into 32 buckets, so percentiles are within about 3%.
+ * record() only increments counters, it allocates nothing and takes no lock.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder(), sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(index(nanos));
+        count.increment();
+        sum.add(nanos);
+        long m;
+        while (nanos > (m = max.get()))
+            if (max.compareAndSet(m, nanos))
+                break;
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = other.counts.get(i);
+            if (n > 0)
+                counts.addAndGet(i, n);
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        long m, o = other.max.get();
+        while (o > (m = max.get()))
+            if (max.compareAndSet(m, o))
+                break;
+    }
+
+    static int index(long v) {
+        if (v < SUB_BUCKETS)
+            return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // middle of the bucket
+    static long value(int idx) {
+        if (idx < SUB_BUCKETS)
+            return idx;
+        int exp = idx / SUB_BUCKETS + SUB_BITS - 1;
+        long lower = (long) (SUB_BUCKETS + idx % SUB_BUCKETS) << (exp - SUB_BITS);
+        return lower + (1L << (exp - SUB_BITS)) / 2;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    /**
+     * @param p 0..100
+     * @return latency in ns that p percent of the records do not exceed
+     */
+    public long getPercentile(double p) {
+        long n = count.sum();
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(n * p / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(value(i), max.get());
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return name + ": n=" + getCount() + ", p50=" + format(getPercentile(50)) + ", p90="
+                + format(getPercentile(90)) + ", p99=" + format(getPercentile(99)) + ", max=" + format(getMax())
+                + ", avg=" + format(getMean());
+    }
+
+    public String toJson() {
+        return "{\"name\":\"" + name + "\",\"count\":" + getCount() + ",\"p50\":" + getPercentile(50) + ",\"p90\":"
+                + getPercentile(90) + ",\"p99\":" + getPercentile(99) + ",\"max\":" + getMax() + ",\"mean\":"
+                + getMean() + "}";
+    }
+
+    public static String format(long nanos) {
+        if (nanos < 10000)
+            return nanos + "ns";
+        if (nanos < 10000000)
+            return (nanos / 1000) + "us";
+        if (nanos < 10000000000L)
+            return (nanos / 1000000) + "ms";
+        return (nanos / 1000000000) + "s";
+    }
+}
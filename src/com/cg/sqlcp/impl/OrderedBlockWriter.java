@@ -0,0 +1,154 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Formats blocks on a pool of threads and appends them to the output in the
+ * order they were submitted. The pending futures are kept in a bounded FIFO,
+ * the writing thread waits for the head of the FIFO, so a slow block delays
+ * the output but never reorders it. submit() blocks while the FIFO is full.
+ * Blocks are compressed by the formatting threads as well. Part changes travel
+ * through the FIFO as markers, so they happen exactly between the blocks they
+ * were submitted between.
+ */
+public class OrderedBlockWriter extends Thread implements BlockSink {
+
+    private static final Future<ByteBlock> END = CompletableFuture.completedFuture(null);
+    private static final Future<ByteBlock> START_PART = CompletableFuture.completedFuture(null);
+    private static final Future<ByteBlock> END_PART = CompletableFuture.completedFuture(null);
+
+    private final PartFiles parts;
+    private final BlockCompressor compressor;
+    private final ExecutorService formatters;
+    private final ArrayBlockingQueue<Future<ByteBlock>> pending;
+    private final int formatThreads;
+    private PartFiles.Part part;
+    private volatile long partBytes = 0, tWriteTime = 0, tWaitForFormatter = 0;
+    private volatile Throwable exceptionDuringRun;
+
+    public OrderedBlockWriter(PartFiles parts, BlockCompressor compressor, int formatThreads) {
+        super("OrderedBlockWriter");
+        this.parts = parts;
+        this.compressor = compressor;
+        this.formatThreads = Math.max(1, formatThreads);
+        this.formatters = Executors.newFixedThreadPool(this.formatThreads);
+        // enough work in flight to keep all formatters busy while the head is written
+        this.pending = new ArrayBlockingQueue<>(this.formatThreads * 2);
+    }
+
+    @Override
+    public void startPart() throws IOException, InterruptedException {
+        enqueue(START_PART);
+    }
+
+    @Override
+    public void endPart() throws IOException, InterruptedException {
+        enqueue(END_PART);
+    }
+
+    /**
+     * Queues a block that is formatted by the pool, blocks while too many blocks
+     * are pending.
+     */
+    @Override
+    public void submit(Supplier<ByteBlock> block) throws IOException, InterruptedException {
+        enqueue(formatters.submit(() -> compressor.compress(block.get())));
+    }
+
+    private void enqueue(Future<ByteBlock> f) throws IOException, InterruptedException {
+        while (!pending.offer(f, 100, TimeUnit.MILLISECONDS))
+            checkException();
+        checkException();
+    }
+
+    private void checkException() throws IOException {
+        if (exceptionDuringRun != null)
+            throw new IOException("writing output failed", exceptionDuringRun);
+    }
+
+    /**
+     * Waits until all submitted blocks are written.
+     */
+    public void finish() throws IOException, InterruptedException {
+        enqueue(END);
+        join();
+        formatters.shutdown();
+        checkException();
+    }
+
+    public void terminate() {
+        formatters.shutdownNow();
+        interrupt();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                long t0 = System.currentTimeMillis();
+                Future<ByteBlock> f = pending.take();
+                if (f == END)
+                    break;
+                if (f == START_PART) {
+                    part = parts.open(compressor);
+                    partBytes = part.getBytes();
+                    continue;
+                }
+                if (f == END_PART) {
+                    parts.close(part, compressor);
+                    part = null;
+                    continue;
+                }
+                ByteBlock block = f.get();
+                tWaitForFormatter += System.currentTimeMillis() - t0;
+                t0 = System.currentTimeMillis();
+                parts.write(part, compressor, block);
+                partBytes = part.getBytes();
+                tWriteTime += System.currentTimeMillis() - t0;
+            }
+        } catch (ExecutionException ee) {
+            exceptionDuringRun = ee.getCause();
+        } catch (Throwable t) {
+            exceptionDuringRun = t;
+        } finally {
+            if (exceptionDuringRun != null) {
+                formatters.shutdownNow();
+                parts.abort(part);
+            }
+        }
+    }
+
+    @Override
+    public long getPartBytes() {
+        return partBytes;
+    }
+
+    public Throwable getException() {
+        return exceptionDuringRun;
+    }
+
+    public int getFormatThreads() {
+        return formatThreads;
+    }
+
+    public long getWriteTime() {
+        return tWriteTime;
+    }
+
+    public long getWaitForFormatter() {
+        return tWaitForFormatter;
+    }
+}
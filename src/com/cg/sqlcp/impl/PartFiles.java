@@ -0,0 +1,251 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Output files of db2file. Without rotation there is one part, the destFile
+ * itself (or the console). With rotation or several writers the parts are
+ * numbered, export.csv.gz becomes export.00001.csv.gz, export.00002.csv.gz,
+ * ... and a manifest (destFile + ".manifest") lists every part with its rows
+ * and bytes. Each part is a complete file: compression stream and format
+ * header/trailer are repeated per part. Parts are opened and closed by the
+ * writing threads, a part is written by one thread only.
+ */
+public class PartFiles {
+
+    public static final String MANIFEST_SUFFIX = ".manifest";
+    // destFile=null: formats and compresses everything, then discards the bytes
+    public static final String NULL_FILE = "null:";
+
+    public static class Part {
+        private final int number;
+        private final String fileName;
+        private final WritableByteChannel channel;
+        private long rows = 0, bytes = 0, streamState;
+
+        Part(int number, String fileName, WritableByteChannel channel) {
+            this.number = number;
+            this.fileName = fileName;
+            this.channel = channel;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    private final String destFile;
+    private final boolean append, overwrite, numbered;
+    private final AtomicInteger partCounter = new AtomicInteger();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final ArrayList<Part> closed = new ArrayList<>();
+    private Latencies latencies = new Latencies();
+
+    /**
+     * @param destFile null writes to the console
+     * @param numbered true for rotation or several writers
+     */
+    public PartFiles(String destFile, boolean overwrite, boolean append, boolean numbered) {
+        if (destFile == null && numbered)
+            throw new IllegalArgumentException("rotation and parallel writers need a destFile");
+        if (append && numbered)
+            throw new IllegalArgumentException("destFileMode=APPEND cannot be used with rotation or parallel writers");
+        this.destFile = destFile;
+        this.overwrite = overwrite;
+        this.append = append;
+        this.numbered = numbered;
+    }
+
+    /**
+     * Histograms of the run the parts belong to.
+     */
+    public void setLatencies(Latencies latencies) {
+        this.latencies = latencies;
+    }
+
+    public static String partName(String destFile, int number) {
+        File f = new File(destFile);
+        String name = f.getName();
+        int dot = name.indexOf('.', 1);
+        String part = String.format("%05d", number);
+        name = dot < 0 ? name + "." + part : name.substring(0, dot) + "." + part + name.substring(dot);
+        return f.getParent() == null ? name : new File(f.getParent(), name).getPath();
+    }
+
+    /**
+     * Opens the next part and writes the stream header of the compressor.
+     */
+    public Part open(BlockCompressor compressor) throws IOException {
+        int number = partCounter.incrementAndGet();
+        Part p;
+        if (destFile == null) {
+            // log lines go to System.out as well, keep them before the data
+            System.out.flush();
+            p = new Part(number, null, Channels.newChannel(new FileOutputStream(FileDescriptor.out)));
+        } else {
+            String name = numbered && !isDiscarding() ? partName(destFile, number) : destFile;
+            p = new Part(number, name, openFile(name));
+        }
+        p.streamState = compressor.startStream();
+        write(p, compressor.streamHeader());
+        return p;
+    }
+
+    private WritableByteChannel openFile(String name) throws IOException {
+        if (isDiscarding())
+            return new WritableByteChannel() {
+                private boolean open = true;
+
+                @Override
+                public int write(ByteBuffer src) {
+                    int n = src.remaining();
+                    src.position(src.limit());
+                    return n;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return open;
+                }
+
+                @Override
+                public void close() {
+                    open = false;
+                }
+            };
+        File f = new File(name);
+        if (f.exists()) {
+            if (f.isDirectory())
+                throw new FileAlreadyExistsException("destination file is a directory:" + f.getAbsoluteFile());
+            else if (!overwrite)
+                throw new FileAlreadyExistsException("destination file already exists:" + f.getAbsoluteFile());
+        }
+        if (append)
+            return FileChannel.open(Paths.get(name), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        return FileChannel.open(Paths.get(name), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Writes and releases a (compressed) block.
+     */
+    public void write(Part p, BlockCompressor compressor, ByteBlock block) throws IOException {
+        long size = block.size();
+        p.streamState = compressor.written(p.streamState, block);
+        long n0 = System.nanoTime();
+        try {
+            block.writeTo(p.channel);
+        } finally {
+            block.release();
+        }
+        latencies.fileWrite.record(System.nanoTime() - n0);
+        p.rows += block.getRowCount();
+        p.bytes += size;
+        bytesWritten.addAndGet(size);
+    }
+
+    private void write(Part p, byte[] b) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(b);
+        while (bb.hasRemaining())
+            p.channel.write(bb);
+        p.bytes += b.length;
+        bytesWritten.addAndGet(b.length);
+    }
+
+    /**
+     * Writes the stream trailer of the compressor and closes the file.
+     */
+    public void close(Part p, BlockCompressor compressor) throws IOException {
+        write(p, compressor.streamTrailer(p.streamState));
+        if (destFile != null)
+            p.channel.close();
+        synchronized (closed) {
+            closed.add(p);
+        }
+    }
+
+    /**
+     * Closes the file without trailer, used after errors.
+     */
+    public void abort(Part p) {
+        try {
+            if (p != null && destFile != null)
+                p.channel.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    public boolean isNumbered() {
+        return numbered;
+    }
+
+    public boolean isDiscarding() {
+        return NULL_FILE.equals(destFile);
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public List<Part> getParts() {
+        synchronized (closed) {
+            ArrayList<Part> l = new ArrayList<>(closed);
+            l.sort(Comparator.comparingInt(Part::getNumber));
+            return l;
+        }
+    }
+
+    /**
+     * part;file;rows;bytes, one line per part
+     *
+     * @return name of the manifest, null if destFile=null:
+     */
+    public String writeManifest() throws IOException {
+        if (isDiscarding())
+            return null;
+        String name = destFile + MANIFEST_SUFFIX;
+        try (PrintWriter w = new PrintWriter(name, StandardCharsets.UTF_8.name())) {
+            w.println("part;file;rows;bytes");
+            for (Part p : getParts())
+                w.println(p.getNumber() + ";" + new File(p.getFileName()).getName() + ";" + p.getRows() + ";"
+                        + p.getBytes());
+        }
+        return name;
+    }
+}
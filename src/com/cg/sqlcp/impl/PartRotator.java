@@ -0,0 +1,93 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.io.IOException;
+
+/**
+ * Puts batches into parts of at most maxRows/maxBytes (0 = no limit) and adds
+ * header and trailer to every part. Limits are checked between batches, a part
+ * is closed after the batch that reached a limit, so batchSize is the
+ * granularity. With an asynchronous sink the byte count lags behind by the
+ * blocks in flight.
+ */
+public class PartRotator {
+
+    private final BlockSink sink;
+    private final BlockFormatter formatter;
+    private final boolean header;
+    private final long maxRows, maxBytes;
+    private final String[] columnNames;
+    private final int[] columnTypes;
+    private boolean partOpen = false, headerDone = false;
+    private long partRows = 0;
+
+    /**
+     * @param header write formatHeader() when a part gets its first batch
+     */
+    public PartRotator(BlockSink sink, BlockFormatter formatter, boolean header, long maxRows, long maxBytes,
+            String[] columnNames, int[] columnTypes) {
+        this.sink = sink;
+        this.formatter = formatter;
+        this.header = header;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.columnNames = columnNames;
+        this.columnTypes = columnTypes;
+    }
+
+    /**
+     * Opens the first part. Formats that always have a header (binary) get it
+     * here, so an export without rows is still a valid file.
+     */
+    public void open(boolean eagerHeader) throws IOException, InterruptedException {
+        startPart();
+        if (eagerHeader)
+            writeHeader();
+    }
+
+    private void startPart() throws IOException, InterruptedException {
+        sink.startPart();
+        partOpen = true;
+        headerDone = false;
+        partRows = 0;
+    }
+
+    private void writeHeader() throws IOException, InterruptedException {
+        sink.submit(() -> formatter.formatHeader(columnNames, columnTypes));
+        headerDone = true;
+    }
+
+    /**
+     * @param firstRowNumber number of the first row of the batch in the whole
+     *                       export, 1-based
+     */
+    public void write(ColumnBatch rows, long firstRowNumber) throws IOException, InterruptedException {
+        if (!partOpen)
+            startPart();
+        if (header && !headerDone)
+            writeHeader();
+        // row numbers and line breaks are fixed here, formatting may run in parallel
+        final boolean newlineBefore = headerDone || partRows > 0;
+        sink.submit(() -> formatter.format(rows, firstRowNumber, newlineBefore));
+        partRows += rows.getRowCount();
+        if ((maxRows > 0 && partRows >= maxRows) || (maxBytes > 0 && sink.getPartBytes() >= maxBytes))
+            endPart();
+    }
+
+    private void endPart() throws IOException, InterruptedException {
+        ByteBlock trailer = formatter.formatTrailer(partRows);
+        if (trailer != null)
+            sink.submit(() -> trailer);
+        sink.endPart();
+        partOpen = false;
+    }
+
+    public void close() throws IOException, InterruptedException {
+        if (partOpen)
+            endPart();
+    }
+}
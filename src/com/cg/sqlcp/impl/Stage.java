@@ -0,0 +1,94 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+/**
+ * A reading or writing part of the pipeline. Runs on a thread of its
+ * StageExecutor (platform or virtual), keeps the Thread methods the commands
+ * use for monitoring: start, getState, isAlive, join.
+ */
+public abstract class Stage implements Runnable {
+
+    private static final StageExecutor DEFAULT = new StageExecutor(StageExecutor.PLATFORM, false);
+
+    private String name = getClass().getSimpleName();
+    private StageExecutor executor = DEFAULT;
+    private volatile Thread runner = null;
+    private volatile boolean started = false, finished = false, cancelled = false;
+
+    public void setExecutor(StageExecutor executor) {
+        this.executor = executor;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized void start() {
+        if (started)
+            throw new IllegalStateException(name + " already started");
+        started = true;
+        executor.start(this);
+    }
+
+    void running(Thread t) {
+        runner = t;
+    }
+
+    synchronized void finished() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Called by the executor after another stage failed. The stage stops at
+     * its next wait, a running JDBC call is not cancelled.
+     */
+    void cancel() {
+        cancelled = true;
+        Thread t = runner;
+        if (t != null && !finished)
+            t.interrupt();
+    }
+
+    /**
+     * @return true if the stage was stopped because another one failed, its
+     *         own exception is a follow-up error then
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public Thread.State getState() {
+        if (!started)
+            return Thread.State.NEW;
+        if (finished)
+            return Thread.State.TERMINATED;
+        Thread t = runner;
+        return t == null ? Thread.State.RUNNABLE : t.getState();
+    }
+
+    public boolean isAlive() {
+        return started && !finished;
+    }
+
+    public synchronized void join(long ms) throws InterruptedException {
+        long end = System.currentTimeMillis() + ms;
+        long wait;
+        while (started && !finished && (wait = end - System.currentTimeMillis()) > 0)
+            wait(wait);
+    }
+
+    public void interrupt() {
+        Thread t = runner;
+        if (t != null)
+            t.interrupt();
+    }
+}
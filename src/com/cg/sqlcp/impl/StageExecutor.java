@@ -0,0 +1,185 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.util.ArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Runs the stages of a copy, one thread per stage. PLATFORM uses normal
+ * threads, VIRTUAL uses virtual threads (Java 21), so dozens of writers cost
+ * no more than their connections. With failFast the stages form one scope:
+ * the first exception cancels all other stages at once and await() returns,
+ * like a StructuredTaskScope.ShutdownOnFailure. Without failFast an exception
+ * ends only its own stage, as with plain threads.
+ */
+public class StageExecutor {
+
+    public static final String PLATFORM = "PLATFORM";
+    public static final String VIRTUAL = "VIRTUAL";
+
+    private final String mode;
+    private final boolean failFast;
+    private final ThreadFactory factory;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ArrayList<Stage> stages = new ArrayList<>();
+    private final ArrayList<Consumer<Throwable>> failureHandlers = new ArrayList<>();
+    private int running = 0;
+    private Throwable failure = null;
+
+    public StageExecutor(String mode, boolean failFast) {
+        this.mode = mode;
+        this.failFast = failFast;
+        if (VIRTUAL.equalsIgnoreCase(mode))
+            factory = virtualThreadFactory();
+        else if (PLATFORM.equalsIgnoreCase(mode))
+            factory = Thread::new;
+        else
+            throw new IllegalArgumentException("unknown thread mode " + mode + ", use " + PLATFORM + " or " + VIRTUAL);
+    }
+
+    // Thread.ofVirtual().factory(), called by reflection to run on Java 17 as well
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException(VIRTUAL + " threads need Java 21 or newer, found "
+                    + System.getProperty("java.version"), e);
+        }
+    }
+
+    /**
+     * Called once with the first failure, before the other stages are
+     * cancelled. Used to abort the queue, so no stage waits for it.
+     */
+    public void onFailure(Consumer<Throwable> handler) {
+        lock.lock();
+        try {
+            failureHandlers.add(handler);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void start(Stage stage) {
+        lock.lock();
+        try {
+            if (failure != null)
+                throw new IllegalStateException("copy failed, no new stages", failure);
+            stages.add(stage);
+            running++;
+        } finally {
+            lock.unlock();
+        }
+        Thread t = factory.newThread(() -> run(stage));
+        t.setName(stage.getName());
+        stage.running(t);
+        t.start();
+    }
+
+    private void run(Stage stage) {
+        try {
+            stage.run();
+        } catch (Throwable t) {
+            if (!failFast)
+                throw t;
+            // errors of cancelled stages are caused by the first failure
+            if (!stage.isCancelled())
+                failed(stage, t);
+        } finally {
+            stage.finished();
+            lock.lock();
+            try {
+                running--;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void failed(Stage failedStage, Throwable t) {
+        ArrayList<Stage> others;
+        ArrayList<Consumer<Throwable>> handlers;
+        lock.lock();
+        try {
+            if (failure != null)
+                return;
+            failure = t;
+            others = new ArrayList<>(stages);
+            handlers = new ArrayList<>(failureHandlers);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Consumer<Throwable> h : handlers)
+            h.accept(t);
+        for (Stage s : others)
+            if (s != failedStage && s.isAlive())
+                s.cancel();
+    }
+
+    /**
+     * @return true if all stages are done or one of them failed, false after
+     *         timeoutMs
+     */
+    public boolean await(long timeoutMs) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        lock.lock();
+        try {
+            while (running > 0 && failure == null) {
+                if (nanos <= 0)
+                    return false;
+                nanos = changed.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all stages ended, also after a failure.
+     *
+     * @return false after timeoutMs
+     */
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        lock.lock();
+        try {
+            while (running > 0) {
+                if (nanos <= 0)
+                    return false;
+                nanos = changed.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return first exception of a stage, null if none failed
+     */
+    public Throwable getFailure() {
+        lock.lock();
+        try {
+            return failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getMode() {
+        return mode.toUpperCase();
+    }
+}
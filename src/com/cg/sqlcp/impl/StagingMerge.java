@@ -0,0 +1,209 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.cg.sqlcp.loader.NullLoader;
+import com.cg.sqlcp.loader.UpsertSql;
+import com.cg.sqlutil.SQLUtilFactory;
+import com.cg.sqlutil.SQLUtilInterface;
+
+/**
+ * destMode=MERGE: the writers load into a staging table with the copied
+ * columns of destTarget, with any load method and without touching it. After all
+ * writers are done one set-based MERGE (or INSERT ... ON CONFLICT) moves the
+ * rows by destKeyColumns, destTarget is only locked for that statement. The
+ * key must be unique within the copied rows.
+ *
+ * The staging table has the columns read from the source, the merge takes
+ * them from there. A failed copy with checkpointFile keeps the staging table
+ * for the resume, also when the merge failed; otherwise it is dropped.
+ */
+public class StagingMerge {
+
+    public static final String STAGING_SUFFIX = "_sqlcp_stage";
+
+    private final String jdbc, user, password, target, staging;
+    private final String[] keys;
+    private long msCreate = 0, msMerge = 0, msDrop = 0;
+    private int rowsMerged = -1;
+
+    public StagingMerge(String jdbc, String user, String password, String target, String staging,
+            String[] keys) {
+        this.jdbc = jdbc;
+        this.user = user;
+        this.password = password;
+        this.target = target;
+        this.staging = Util.isNull(staging) ? target + STAGING_SUFFIX : staging;
+        this.keys = keys;
+    }
+
+    public String getStagingTable() {
+        return staging;
+    }
+
+    /**
+     * Replaces a staging table left by an earlier run.
+     *
+     * @param columns columns written by the writers, must exist in destTarget
+     */
+    public void createStagingTable(String[] columns) throws SQLException {
+        long t0 = System.currentTimeMillis();
+        dropStagingTable(true);
+        execute(columns, true);
+        msCreate = System.currentTimeMillis() - t0;
+    }
+
+    /**
+     * Merges the staging table into destTarget and commits, then drops the
+     * staging table.
+     */
+    public void merge() throws SQLException {
+        long t0 = System.currentTimeMillis();
+        execute(null, false);
+        msMerge = System.currentTimeMillis() - t0;
+        t0 = System.currentTimeMillis();
+        dropStagingTable(false);
+        msDrop = System.currentTimeMillis() - t0;
+    }
+
+    /**
+     * Resume with all ranges done: merges the staging table if the previous
+     * run failed in the merge, after a successful merge it is gone. Other
+     * errors than a missing table are thrown, the rows must not be skipped.
+     */
+    public void mergeIfExists() throws SQLException {
+        if (NullLoader.isNullTarget(jdbc))
+            return;
+        SQLUtilInterface sql = null;
+        try {
+            sql = SQLUtilFactory.createSQLUtil(jdbc, user, password);
+            if (!exists(sql.getConnection())) {
+                Util.log("staging table " + staging + " does not exist, nothing to merge");
+                return;
+            }
+        } finally {
+            if (sql != null)
+                sql.closeConnection();
+        }
+        Util.log("merging " + staging + " into " + target);
+        merge();
+    }
+
+    /**
+     * @param ignoreErrors true: the table may not exist
+     */
+    public void dropStagingTable(boolean ignoreErrors) throws SQLException {
+        if (NullLoader.isNullTarget(jdbc))
+            return;
+        SQLUtilInterface sql = null;
+        String ddl = "DROP TABLE " + staging;
+        try {
+            sql = SQLUtilFactory.createSQLUtil(jdbc, user, password);
+            try (Statement stmt = sql.getConnection().createStatement()) {
+                stmt.execute(ddl);
+            }
+            sql.commit();
+        } catch (SQLException sqle) {
+            if (!ignoreErrors) {
+                System.err.println("Cannot execute SQL on target. SQL=" + ddl);
+                throw sqle;
+            }
+        } finally {
+            if (sql != null)
+                sql.closeConnection();
+        }
+    }
+
+    // create: creates the staging table, otherwise merges it into target
+    private void execute(String[] columns, boolean create) throws SQLException {
+        if (NullLoader.isNullTarget(jdbc))
+            return;
+        SQLUtilInterface sql = null;
+        String stmtSql = null;
+        try {
+            sql = SQLUtilFactory.createSQLUtil(jdbc, user, password);
+            sql.getConnection().setReadOnly(false);
+            sql.getConnection().setAutoCommit(false);
+            String product = sql.getConnection().getMetaData().getDatabaseProductName();
+            if (create)
+                stmtSql = UpsertSql.createStagingTable(product, staging, target, columns);
+            else
+                stmtSql = UpsertSql.create(product, target, getColumnNames(sql), keys, staging);
+            try (Statement stmt = sql.getConnection().createStatement()) {
+                if (create)
+                    stmt.execute(stmtSql);
+                else
+                    rowsMerged = stmt.executeUpdate(stmtSql);
+            }
+            sql.commit();
+        } catch (SQLException sqle) {
+            // not committed, closing the connection rolls back
+            System.err.println("Cannot execute SQL on target. SQL=" + stmtSql);
+            throw sqle;
+        } finally {
+            if (sql != null)
+                sql.closeConnection();
+        }
+    }
+
+    // staging may be schema.table, unquoted names are stored in the case of the database
+    private boolean exists(Connection con) throws SQLException {
+        DatabaseMetaData md = con.getMetaData();
+        String schema = null, table = staging;
+        int dot = staging.lastIndexOf('.');
+        if (dot >= 0) {
+            schema = staging.substring(0, dot);
+            table = staging.substring(dot + 1);
+        }
+        if (md.storesUpperCaseIdentifiers()) {
+            schema = schema == null ? null : schema.toUpperCase();
+            table = table.toUpperCase();
+        } else if (md.storesLowerCaseIdentifiers()) {
+            schema = schema == null ? null : schema.toLowerCase();
+            table = table.toLowerCase();
+        }
+        // _ of the default name is a wildcard in the pattern
+        String esc = md.getSearchStringEscape();
+        if (esc != null && !esc.isEmpty())
+            table = table.replace(esc, esc + esc).replace("_", esc + "_").replace("%", esc + "%");
+        // MySQL: the qualifier is a catalog (database)
+        String catalog = null;
+        if (schema != null && !md.supportsSchemasInTableDefinitions()) {
+            catalog = schema;
+            schema = null;
+        }
+        try (ResultSet rs = md.getTables(catalog, schema, table, null)) {
+            return rs.next();
+        }
+    }
+
+    private String[] getColumnNames(SQLUtilInterface sql) throws SQLException {
+        try (Statement stmt = sql.getConnection().createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT * FROM " + staging + " WHERE 1=0")) {
+            ResultSetMetaData md = rs.getMetaData();
+            String[] columns = new String[md.getColumnCount()];
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = md.getColumnName(i + 1);
+            return columns;
+        }
+    }
+
+    /**
+     * @return staging table, create, merge and drop time, rows reported by the
+     *         merge statement
+     */
+    public String getSummary() {
+        return "staging=" + staging + ", create=" + msCreate + "ms, merge=" + msMerge + "ms, drop=" + msDrop
+                + "ms, " + (rowsMerged < 0 ? "?" : Integer.toString(rowsMerged)) + "rows merged";
+    }
+}
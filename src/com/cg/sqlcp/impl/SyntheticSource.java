@@ -0,0 +1,215 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.StringTokenizer;
+
+/**
+ * Generated rows instead of a database, to measure sqlcp without the source.
+ * Given as srcJDBC, settings are separated by ';':
+ *
+ * <pre>
+ * synthetic:rows=1000000;columns=BIGINT,DECIMAL,VARCHAR(32)*4,TIMESTAMP;cardinality=0;rowsPerSec=0;seed=4711
+ * </pre>
+ *
+ * rows: per reading thread, every thread of srcParallelism generates the same
+ * rows. columns: BIGINT, INTEGER, DOUBLE, DECIMAL (scale 2), BOOLEAN, DATE,
+ * TIMESTAMP, VARCHAR(width); *n repeats a column. cardinality: distinct
+ * values per column, 0=unique. rowsPerSec: 0=as fast as possible. Values are
+ * a hash of row number, column and seed, a run can be repeated exactly.
+ */
+public class SyntheticSource {
+
+    public static final String PREFIX = "synthetic:";
+
+    // 2020-01-01 00:00:00 UTC and 5 years
+    private static final long BASE_MILLIS = 1577836800000L;
+    private static final long RANGE_MILLIS = 5L * 365 * 86400000L;
+    private static final byte[] LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 -"
+            .getBytes();
+
+    private final String uri;
+    private long rows = 1000000, cardinality = 0, rowsPerSec = 0, seed = 4711;
+    private final String[] columnNames;
+    private final int[] columnTypes;
+    private final int[] widths;
+    private final byte[] text;
+    private long nextRow = 0, t0 = -1;
+
+    public SyntheticSource(String uri) {
+        this.uri = uri;
+        String columns = "BIGINT,DECIMAL,VARCHAR(32),TIMESTAMP";
+        StringTokenizer st = new StringTokenizer(uri.substring(PREFIX.length()), ";");
+        while (st.hasMoreTokens()) {
+            String setting = st.nextToken().trim();
+            int eq = setting.indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("synthetic source: name=value expected, found " + setting);
+            String name = setting.substring(0, eq).trim(), value = setting.substring(eq + 1).trim();
+            switch (name) {
+            case "rows":
+                rows = Long.parseLong(value);
+                break;
+            case "columns":
+                columns = value;
+                break;
+            case "cardinality":
+                cardinality = Long.parseLong(value);
+                break;
+            case "rowsPerSec":
+                rowsPerSec = Long.parseLong(value);
+                break;
+            case "seed":
+                seed = Long.parseLong(value);
+                break;
+            default:
+                throw new IllegalArgumentException("synthetic source: unknown setting " + name
+                        + ", use rows, columns, cardinality, rowsPerSec or seed");
+            }
+        }
+        ArrayList<int[]> l = new ArrayList<>();
+        st = new StringTokenizer(columns, ",");
+        while (st.hasMoreTokens()) {
+            String col = st.nextToken().trim().toUpperCase();
+            int repeat = 1;
+            int star = col.indexOf('*');
+            if (star > 0) {
+                repeat = Integer.parseInt(col.substring(star + 1).trim());
+                col = col.substring(0, star).trim();
+            }
+            int[] typeAndWidth = parseType(col);
+            for (int i = 0; i < repeat; i++)
+                l.add(typeAndWidth);
+        }
+        columnNames = new String[l.size()];
+        columnTypes = new int[l.size()];
+        widths = new int[l.size()];
+        int maxWidth = 0;
+        for (int c = 0; c < columnNames.length; c++) {
+            columnNames[c] = "C" + (c + 1);
+            columnTypes[c] = l.get(c)[0];
+            widths[c] = l.get(c)[1];
+            maxWidth = Math.max(maxWidth, widths[c]);
+        }
+        text = new byte[maxWidth];
+    }
+
+    public static boolean isSynthetic(String jdbc) {
+        return jdbc != null && jdbc.startsWith(PREFIX);
+    }
+
+    private static int[] parseType(String col) {
+        if (col.startsWith("VARCHAR")) {
+            int width = 32;
+            if (col.indexOf('(') > 0)
+                width = Integer.parseInt(col.substring(col.indexOf('(') + 1, col.indexOf(')')).trim());
+            return new int[] { Types.VARCHAR, width };
+        }
+        switch (col) {
+        case "BIGINT":
+            return new int[] { Types.BIGINT, 0 };
+        case "INTEGER":
+            return new int[] { Types.INTEGER, 0 };
+        case "DOUBLE":
+            return new int[] { Types.DOUBLE, 0 };
+        case "DECIMAL":
+            return new int[] { Types.DECIMAL, 0 };
+        case "BOOLEAN":
+            return new int[] { Types.BOOLEAN, 0 };
+        case "DATE":
+            return new int[] { Types.DATE, 0 };
+        case "TIMESTAMP":
+            return new int[] { Types.TIMESTAMP, 0 };
+        default:
+            throw new IllegalArgumentException("synthetic source: unsupported column type " + col);
+        }
+    }
+
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    public int[] getColumnTypes() {
+        return columnTypes;
+    }
+
+    /**
+     * Adds rows until the batch is full or all rows are generated, waits if
+     * rowsPerSec is reached.
+     *
+     * @return number of rows added by this call
+     */
+    public int fill(ColumnBatch batch) throws InterruptedException {
+        if (t0 < 0)
+            t0 = System.nanoTime();
+        int n = (int) Math.min(batch.getCapacity() - batch.getRowCount(), rows - nextRow);
+        for (int i = 0; i < n; i++) {
+            long key = cardinality > 0 ? nextRow % cardinality : nextRow;
+            for (int c = 0; c < columnTypes.length; c++)
+                put(batch, c, mix(key * 31 + c + seed));
+            batch.endRow();
+            nextRow++;
+        }
+        if (rowsPerSec > 0 && n > 0) {
+            long ahead = nextRow * 1000000000L / rowsPerSec - (System.nanoTime() - t0);
+            if (ahead > 0)
+                Thread.sleep(ahead / 1000000, (int) (ahead % 1000000));
+        }
+        return n;
+    }
+
+    private void put(ColumnBatch b, int c, long h) {
+        switch (columnTypes[c]) {
+        case Types.BIGINT:
+            b.putLong(c, h);
+            break;
+        case Types.INTEGER:
+            b.putLong(c, (int) h);
+            break;
+        case Types.DOUBLE:
+            b.putDouble(c, (h >>> 11) * 0x1.0p-53 * 1000000);
+            break;
+        case Types.DECIMAL:
+            b.putDecimal(c, h % 10000000000L, 2);
+            break;
+        case Types.BOOLEAN:
+            b.putLong(c, h & 1);
+            break;
+        case Types.DATE:
+            b.putLong(c, BASE_MILLIS + Math.floorMod(h, RANGE_MILLIS / 86400000L) * 86400000L);
+            break;
+        case Types.TIMESTAMP: {
+            long millis = BASE_MILLIS + Math.floorMod(h, RANGE_MILLIS);
+            b.putTimestamp(c, millis, (int) (millis % 1000) * 1000000);
+            break;
+        }
+        default: {
+            int w = widths[c];
+            // 6 bits per letter, a new hash every 10 letters
+            for (int i = 0; i < w; i++) {
+                if (i > 0 && i % 10 == 0)
+                    h = mix(h);
+                text[i] = LETTERS[(int) ((h >>> (6 * (i % 10))) & 63)];
+            }
+            b.putBytes(c, text, 0, w);
+        }
+        }
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public String toString() {
+        return uri;
+    }
+}
@@ -6,30 +6,57 @@
 package com.cg.sqlcp.impl;
 
 import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.concurrent.LinkedTransferQueue;
+import java.sql.Statement;
+import java.util.concurrent.atomic.LongAdder;
 
-import com.cg.sqlutil.Row;
 import com.cg.sqlutil.SQLUtilFactory;
 import com.cg.sqlutil.SQLUtilInterface;
 
-public class ThreadReadingFromDB extends Thread {
+public class ThreadReadingFromDB extends Stage implements BatchSource {
 
     private SQLUtilInterface sql = null;
-    private LinkedTransferQueue<Row[]> queue;
-    private int maxQueueSize;
+    private Statement stmt = null;
+    private ResultSet rs = null;
+    private BatchChannel<ColumnBatch> queue;
     private String selectStmt;
-    private int rowsTotalRead = 0;
-    private int fetchesExecuted = 0;
-    private long tDBTime = 0;
-    private long tWaitForQueueConsumer = 0;
-    private boolean isTerminated = false;
+    private int batchSize;
+    // lock-free, read by the monitoring loop and CopyMetrics while this thread runs
+    private final LongAdder rowsTotalRead = new LongAdder();
+    private final LongAdder bytesTotalRead = new LongAdder();
+    private final LongAdder fetchesExecuted = new LongAdder();
+    private final LongAdder tDBTime = new LongAdder();
+    private final LongAdder tWaitForQueueConsumer = new LongAdder();
+    private volatile boolean isTerminated = false;
     private long tInitTime = 0;
-
-    public ThreadReadingFromDB(String jdbc, String user, String password, String queryData, int maxQueueSize,
-            int batchSize, LinkedTransferQueue<Row[]> queue) throws SQLException, IOException {
+    // metadata is kept, the connection is closed as soon as the last row is queued
+    private int columnCount;
+    private String[] columnNames;
+    private int[] columnTypes;
+    // progress tracking of db2db, null if no checkpointFile is used
+    private Checkpoint checkpoint = null;
+    private int range = -1, keyColumn = -1;
+    private AdaptiveBatchSize adaptive = null;
+    // srcJDBC=synthetic:..., no connection then
+    private SyntheticSource synthetic = null;
+    private Latencies latencies = new Latencies();
+    private boolean driverText = false;
+
+    public ThreadReadingFromDB(String jdbc, String user, String password, String queryData, int batchSize,
+            BatchChannel<ColumnBatch> queue) throws SQLException, IOException {
         this.queue = queue;
-        this.maxQueueSize = maxQueueSize;
+        this.batchSize = batchSize;
+        if (SyntheticSource.isSynthetic(jdbc)) {
+            synthetic = new SyntheticSource(jdbc);
+            selectStmt = synthetic.toString();
+            columnNames = synthetic.getColumnNames();
+            columnTypes = synthetic.getColumnTypes();
+            columnCount = columnNames.length;
+            queue.registerProducer();
+            return;
+        }
         try {
             long t0 = System.currentTimeMillis();
             try {
@@ -40,112 +67,182 @@ public class ThreadReadingFromDB extends Thread {
                 throw sqle;
             }
             sql.getConnection().setReadOnly(true);
-            sql.setFetchSize(batchSize);
-            // if contains "select " then its a statement(select, with...)
-            String srcType = queryData.toLowerCase().replaceFirst(".*select\\s.*", "SQL");
-            if ("SQL".equals(srcType))
-                selectStmt = queryData;
-            else
-                selectStmt = "SELECT * FROM " + queryData;
-
-            // First chunk: get metadata
-            sql.getChunksPrepare(selectStmt, batchSize);
+            // some drivers (e.g. PostgreSQL) only honor the fetch size outside of autocommit
+            sql.getConnection().setAutoCommit(false);
+            selectStmt = Util.createSelectStmt(queryData);
+
+            // rows are read straight from the ResultSet into column batches
+            stmt = sql.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(batchSize);
+            rs = stmt.executeQuery(selectStmt);
+            ResultSetMetaData md = rs.getMetaData();
+            columnCount = md.getColumnCount();
+            columnNames = new String[columnCount];
+            columnTypes = new int[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                columnNames[i] = md.getColumnName(i + 1);
+                columnTypes[i] = md.getColumnType(i + 1);
+            }
             tInitTime = System.currentTimeMillis() - t0;
+            queue.registerProducer();
         } catch (SQLException e) {
             cleanUpAfterRun();
             throw e;
         }
     }
 
+    /**
+     * Batches are numbered for the checkpoint, range is the index of the key
+     * range this reader reads.
+     */
+    public void setCheckpoint(Checkpoint checkpoint, int range) {
+        this.checkpoint = checkpoint;
+        this.range = range;
+        if (checkpoint.getKeyColumn() != null)
+            keyColumn = checkpoint.findKeyColumn(columnNames, columnTypes);
+    }
+
+    public void setAdaptiveBatchSize(AdaptiveBatchSize adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Values are kept as text of the source driver where ColumnBatch would
+     * write its own, for db2file csv.
+     */
+    public void setDriverText(boolean driverText) {
+        this.driverText = driverText;
+    }
+
+    /**
+     * Histograms of the run this reader belongs to.
+     */
+    public void setLatencies(Latencies latencies) {
+        this.latencies = latencies;
+    }
+
     public long getInitTime() {
         return tInitTime;
     }
 
     public void cleanUpAfterRun() {
+        try {
+            if (rs != null)
+                rs.close();
+            if (stmt != null)
+                stmt.close();
+        } catch (SQLException e) {
+            // connection will be closed anyway
+        }
         if (sql != null)
             sql.closeConnection();
     }
 
-    public synchronized void terminate() {
+    public void terminate() {
         isTerminated = true;
+        // wakes up a put() blocked on a full queue
+        queue.abort(null);
     }
 
     @Override
     public void run() {
         long t0;
         try {
-            Row[] rows = null;
             while (true) {
+                if (adaptive != null && adaptive.getBatchSize() != batchSize) {
+                    batchSize = adaptive.getBatchSize();
+                    if (rs != null)
+                        rs.setFetchSize(batchSize);
+                }
                 t0 = System.currentTimeMillis();
-                rows = sql.getChunksGetNextRows();
-                tDBTime += System.currentTimeMillis() - t0;
-                if (rows == null)
+                long n0 = System.nanoTime();
+                ColumnBatch batch = new ColumnBatch(columnTypes, batchSize, driverText && synthetic == null);
+                int rowCount = synthetic != null ? synthetic.fill(batch) : batch.fill(rs);
+                tDBTime.add(System.currentTimeMillis() - t0);
+                long fetchNanos = System.nanoTime() - n0;
+                latencies.fetch.record(fetchNanos);
+                if (adaptive != null)
+                    adaptive.fetched(rowCount, fetchNanos, batch.getByteSize());
+                if (rowCount == 0)
                     break;
-                fetchesExecuted++;
-                rowsTotalRead += rows.length;
-                if (isTerminated)
-                    return;
-                queue.add(rows);
-                while (Util.getRowCountOfQueue(queue) >= maxQueueSize) {
-                    if (isTerminated)
-                        return;
-                    t0 = System.currentTimeMillis();
-                    Thread.sleep(50);
-                    tWaitForQueueConsumer += System.currentTimeMillis() - t0;
-                }
-            }
-            while (queue.size() > 0) {
+                fetchesExecuted.increment();
+                rowsTotalRead.add(rowCount);
+                bytesTotalRead.add(batch.getByteSize());
                 if (isTerminated)
                     return;
+                if (checkpoint != null)
+                    batch.setOrigin(range, checkpoint.batchRead(range,
+                            keyColumn < 0 ? null : Checkpoint.toLiteral(batch, keyColumn, rowCount - 1)));
                 t0 = System.currentTimeMillis();
-                Thread.sleep(50);
-                tWaitForQueueConsumer += System.currentTimeMillis() - t0;
+                n0 = System.nanoTime();
+                boolean queued = queue.put(batch, rowCount, batch.getByteSize());
+                latencies.queuePutWait.record(System.nanoTime() - n0);
+                tWaitForQueueConsumer.add(System.currentTimeMillis() - t0);
+                if (!queued)
+                    return;
             }
+            if (checkpoint != null)
+                checkpoint.rangeRead(range);
+            queue.producerDone();
         } catch (Throwable t) {
+            // writers must not treat a partial read as end of data
+            queue.abort(t);
             throw new RuntimeException(t);
         } finally {
-            try {
-                sql.getChunksClose();
-            } finally {
-                cleanUpAfterRun();
-            }
+            cleanUpAfterRun();
         }
     }
 
-    public Integer getMaxQueueSize() {
-        return maxQueueSize;
+    public long getMaxQueueSize() {
+        return queue.getMaxRows();
     }
 
-    public synchronized int getFetchesExecuted() {
-        return fetchesExecuted;
+    public long getFetchesExecuted() {
+        return fetchesExecuted.sum();
     }
 
+    @Override
     public int[] getColumnTypes() {
-        return sql.getPreviousRowSQLTypes();
+        return columnTypes;
     }
 
-    public synchronized int getTotalRowsReceived() {
-        return rowsTotalRead;
+    public long getTotalRowsReceived() {
+        return rowsTotalRead.sum();
     }
 
-    public synchronized int getColumnCount() throws SQLException {
-        return sql.getPreviousMetaData().getColumnCount();
+    public long getTotalBytesReceived() {
+        return bytesTotalRead.sum();
     }
 
-    public synchronized String getColumnName(int idx) throws SQLException {
-        return sql.getPreviousMetaData().getColumnName(idx);
+    public int getColumnCount() {
+        return columnCount;
     }
 
-    public LinkedTransferQueue<Row[]> getQueue() {
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    // idx starts with 1, like ResultSetMetaData
+    public String getColumnName(int idx) {
+        return columnNames[idx - 1];
+    }
+
+    public String getSelectStmt() {
+        return selectStmt;
+    }
+
+    @Override
+    public BatchChannel<ColumnBatch> getQueue() {
         return queue;
     }
 
-    public synchronized long getDBTime() {
-        return tDBTime;
+    public long getDBTime() {
+        return tDBTime.sum();
     }
 
-    public synchronized long getWaitForQueueConsumer() {
-        return tWaitForQueueConsumer;
+    public long getWaitForQueueConsumer() {
+        return tWaitForQueueConsumer.sum();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,338 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads a CSV file (as written by db2file) in large blocks through a
+ * FileChannel, cuts every block at its last record boundary and lets a pool
+ * of parsing threads turn the chunks into column batches. The batches go
+ * into the same queue the writing threads take from when copying db2db.
+ * Binary dumps (see BinaryDump) are detected by their magic bytes, their
+ * blocks are read one after another and decoded by the same pool.
+ */
+public class ThreadReadingFromFile extends Thread implements BatchSource {
+
+    private static final int BLOCK_SIZE = 8 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final CsvFormat fmt;
+    private final BatchChannel<ColumnBatch> queue;
+    private final int parseThreads, batchSize;
+    private String[] columnNames;
+    private int[] columnTypes;
+    private int[] fileColToBatchCol;
+    private long dataStart = 0;
+    private BinaryDump.Header binaryHeader;
+
+    private final AtomicLong rowsParsed = new AtomicLong(), chunksParsed = new AtomicLong();
+    private final AtomicLong tParseTime = new AtomicLong(), tWaitForQueueConsumer = new AtomicLong();
+    private volatile long bytesRead = 0, tIOTime = 0;
+    private long tInitTime = 0;
+    private volatile boolean isTerminated = false;
+    private final AtomicReference<Throwable> parseError = new AtomicReference<>();
+
+    /**
+     * @param targetNames columns of the target table
+     * @param targetTypes java.sql.Types of the target columns, values are
+     *                    converted to these types while parsing
+     */
+    public ThreadReadingFromFile(String fileName, CsvFormat fmt, String[] targetNames, int[] targetTypes,
+            int parseThreads, int batchSize, BatchChannel<ColumnBatch> queue) throws IOException {
+        long t0 = System.currentTimeMillis();
+        this.fmt = fmt;
+        this.queue = queue;
+        this.parseThreads = Math.max(1, parseThreads);
+        this.batchSize = batchSize;
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        try {
+            if (BinaryDump.isBinaryDump(channel))
+                mapBinaryColumns(targetNames);
+            else
+                mapColumns(targetNames, targetTypes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        tInitTime = System.currentTimeMillis() - t0;
+        queue.registerProducer();
+    }
+
+    // header names select the target columns, without header the file has all
+    // target columns in table order
+    private void mapColumns(String[] targetNames, int[] targetTypes) throws IOException {
+        int offset = fmt.firstColIsCounter ? 1 : 0;
+        if (!fmt.header) {
+            columnNames = targetNames;
+            columnTypes = targetTypes;
+            fileColToBatchCol = new int[targetNames.length + offset];
+            fileColToBatchCol[0] = -1;
+            for (int i = 0; i < targetNames.length; i++)
+                fileColToBatchCol[i + offset] = i;
+            return;
+        }
+        ByteBuffer bb = ByteBuffer.allocate(1024 * 1024);
+        channel.read(bb, 0);
+        int end = Math.min(bb.position(), firstLineBreak(bb.array(), bb.position()) + 1);
+        if (end <= 0)
+            throw new IOException("header line not found");
+        String[] header = new CsvChunkParser(fmt, new int[0], new int[0], 1).parseStrings(bb.array(), 0, end);
+        dataStart = end;
+        fileColToBatchCol = new int[header.length];
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<Integer> types = new ArrayList<>();
+        for (int i = 0; i < header.length; i++) {
+            fileColToBatchCol[i] = -1;
+            if (i < offset)
+                continue;
+            int t = indexOfIgnoreCase(targetNames, header[i].trim());
+            if (t < 0)
+                throw new IllegalArgumentException("column " + header[i] + " of header line not found in target");
+            fileColToBatchCol[i] = names.size();
+            names.add(targetNames[t]);
+            types.add(targetTypes[t]);
+        }
+        columnNames = names.toArray(new String[0]);
+        columnTypes = new int[types.size()];
+        for (int i = 0; i < columnTypes.length; i++)
+            columnTypes[i] = types.get(i);
+    }
+
+    // the dump carries its own column types, names must exist in the target
+    private void mapBinaryColumns(String[] targetNames) throws IOException {
+        binaryHeader = BinaryDump.readHeader(channel);
+        dataStart = binaryHeader.dataStart;
+        columnNames = new String[binaryHeader.columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            int t = indexOfIgnoreCase(targetNames, binaryHeader.columnNames[i]);
+            if (t < 0)
+                throw new IllegalArgumentException(
+                        "column " + binaryHeader.columnNames[i] + " of binary dump not found in target");
+            columnNames[i] = targetNames[t];
+        }
+        columnTypes = binaryHeader.columnTypes;
+    }
+
+    private static int firstLineBreak(byte[] b, int len) {
+        for (int i = 0; i < len; i++)
+            if (b[i] == '\n')
+                return i;
+        return len;
+    }
+
+    private static int indexOfIgnoreCase(String[] a, String s) {
+        for (int i = 0; i < a.length; i++)
+            if (a[i].equalsIgnoreCase(s))
+                return i;
+        return -1;
+    }
+
+    @Override
+    public void run() {
+        ExecutorService pool = Executors.newFixedThreadPool(parseThreads);
+        // limits the chunks held in memory while the parsers are busy
+        Semaphore inFlight = new Semaphore(parseThreads * 2);
+        try {
+            if (binaryHeader != null)
+                readBinary(pool, inFlight);
+            else
+                readCsv(pool, inFlight);
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            if (parseError.get() != null)
+                throw parseError.get();
+            if (!isTerminated)
+                queue.producerDone();
+        } catch (Throwable t) {
+            pool.shutdownNow();
+            // writers must not treat a partial read as end of data
+            queue.abort(t);
+            throw new RuntimeException(t);
+        } finally {
+            cleanUpAfterRun();
+        }
+    }
+
+    private void readCsv(ExecutorService pool, Semaphore inFlight) throws IOException, InterruptedException {
+        long pos = dataStart;
+        byte[] carry = new byte[0];
+        boolean eof = false;
+        while (!eof && !isTerminated && parseError.get() == null) {
+            long t0 = System.currentTimeMillis();
+            byte[] buf = new byte[carry.length + Math.max(BLOCK_SIZE, carry.length)];
+            System.arraycopy(carry, 0, buf, 0, carry.length);
+            ByteBuffer bb = ByteBuffer.wrap(buf, carry.length, buf.length - carry.length);
+            while (bb.hasRemaining()) {
+                int n = channel.read(bb, pos);
+                if (n < 0) {
+                    eof = true;
+                    break;
+                }
+                pos += n;
+            }
+            int len = bb.position();
+            bytesRead = pos - dataStart;
+            tIOTime += System.currentTimeMillis() - t0;
+
+            int end = eof ? len : CsvChunkParser.findLastRecordEnd(fmt, buf, 0, len);
+            // incomplete last record goes into the next block; no complete
+            // record at all: read on with a larger buffer
+            carry = new byte[len - end];
+            System.arraycopy(buf, end, carry, 0, carry.length);
+            if (end == 0)
+                continue;
+
+            t0 = System.currentTimeMillis();
+            inFlight.acquire();
+            tWaitForQueueConsumer.addAndGet(System.currentTimeMillis() - t0);
+            submitChunk(pool, inFlight, buf, end, pos - len);
+        }
+    }
+
+    private void readBinary(ExecutorService pool, Semaphore inFlight) throws IOException, InterruptedException {
+        long pos = dataStart;
+        while (!isTerminated && parseError.get() == null) {
+            long t0 = System.currentTimeMillis();
+            ByteBuffer head = BinaryDump.readFully(channel, pos, BinaryDump.RECORD_HEADER_SIZE);
+            int type = head.getInt();
+            if (type == BinaryDump.END) {
+                long expected = head.getLong();
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+                if (parseError.get() == null && rowsParsed.get() != expected)
+                    throw new IOException("binary dump contains " + rowsParsed.get() + " rows, expected " + expected);
+                return;
+            }
+            if (type != BinaryDump.BLOCK)
+                throw new IOException("binary dump corrupt, no block at offset " + pos);
+            int rows = head.getInt(), len = head.getInt(), crc = head.getInt();
+            final long blockOffset = pos;
+            ByteBuffer payload = BinaryDump.readFully(channel, pos + BinaryDump.RECORD_HEADER_SIZE, len);
+            pos += BinaryDump.RECORD_HEADER_SIZE + len;
+            bytesRead = pos - dataStart;
+            tIOTime += System.currentTimeMillis() - t0;
+
+            t0 = System.currentTimeMillis();
+            inFlight.acquire();
+            tWaitForQueueConsumer.addAndGet(System.currentTimeMillis() - t0);
+            pool.execute(() -> {
+                try {
+                    long t1 = System.currentTimeMillis();
+                    ColumnBatch batch = BinaryDump.decode(payload, columnTypes, rows, binaryHeader.hasChecksums(),
+                            crc, blockOffset);
+                    long tw = System.currentTimeMillis();
+                    tParseTime.addAndGet(tw - t1);
+                    if (!queue.put(batch, batch.getRowCount(), batch.getByteSize()))
+                        throw new InterruptedException("queue aborted");
+                    tWaitForQueueConsumer.addAndGet(System.currentTimeMillis() - tw);
+                    rowsParsed.addAndGet(rows);
+                    chunksParsed.incrementAndGet();
+                } catch (Throwable t) {
+                    parseError.compareAndSet(null, t);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+    }
+
+    private void submitChunk(ExecutorService pool, Semaphore inFlight, byte[] buf, int end, long fileOffset) {
+        final CsvChunkParser parser = new CsvChunkParser(fmt, columnTypes, fileColToBatchCol, batchSize);
+        pool.execute(() -> {
+            try {
+                long t0 = System.currentTimeMillis();
+                long[] tWait = { 0 };
+                long rows = parser.parse(buf, 0, end, fileOffset, batch -> {
+                    long tw = System.currentTimeMillis();
+                    if (!queue.put(batch, batch.getRowCount(), batch.getByteSize()))
+                        throw new InterruptedException("queue aborted");
+                    tWait[0] += System.currentTimeMillis() - tw;
+                });
+                rowsParsed.addAndGet(rows);
+                chunksParsed.incrementAndGet();
+                tWaitForQueueConsumer.addAndGet(tWait[0]);
+                tParseTime.addAndGet(System.currentTimeMillis() - t0 - tWait[0]);
+            } catch (Throwable t) {
+                parseError.compareAndSet(null, t);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    public void terminate() {
+        isTerminated = true;
+        queue.abort(null);
+    }
+
+    public void cleanUpAfterRun() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    @Override
+    public BatchChannel<ColumnBatch> getQueue() {
+        return queue;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public int[] getColumnTypes() {
+        return columnTypes;
+    }
+
+    public int getParseThreads() {
+        return parseThreads;
+    }
+
+    public long getInitTime() {
+        return tInitTime;
+    }
+
+    public long getTotalRowsParsed() {
+        return rowsParsed.get();
+    }
+
+    public long getChunksParsed() {
+        return chunksParsed.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getIOTime() {
+        return tIOTime;
+    }
+
+    // summed over all parsing threads
+    public long getParseTime() {
+        return tParseTime.get();
+    }
+
+    public long getWaitForQueueConsumer() {
+        return tWaitForQueueConsumer.get();
+    }
+}
@@ -5,49 +5,86 @@
  */
 package com.cg.sqlcp.impl;
 
+import java.io.IOException;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
-import com.cg.sqlutil.Row;
+import com.cg.sqlcp.loader.BulkLoader;
+import com.cg.sqlcp.loader.BulkLoaders;
+import com.cg.sqlcp.loader.NullLoader;
+import com.cg.sqlcp.loader.PipelinedLoader;
+import com.cg.sqlcp.loader.UpsertSql;
 import com.cg.sqlutil.SQLUtilFactory;
 import com.cg.sqlutil.SQLUtilInterface;
 
-public class ThreadWritingToDB extends Thread {
+public class ThreadWritingToDB extends Stage {
 
     private SQLUtilInterface sql;
     private String target;
     private int[] bindTypes;
-    private ThreadReadingFromDB in;
-    private int rowsWritten = 0, batchesInserted = 0;
-    private long msDBTime = 0L, msWaitTime = 0L, msInitTime = 0L;
+    private BatchSource in;
+    // lock-free, read by the monitoring loop and CopyMetrics while this thread runs
+    private final LongAdder rowsWritten = new LongAdder(), batchesInserted = new LongAdder();
+    private final LongAdder nsDBTime = new LongAdder(), msWaitTime = new LongAdder(), msInitTime = new LongAdder();
+    private final LongAdder commits = new LongAdder(), msCommitTime = new LongAdder();
+    private final LongAdder nsBindTime = new LongAdder(), nsBindHidden = new LongAdder();
     private Throwable exceptionDuringRun;
     private String jdbc, user, password;
     private String bindTypesParam;
+    private BulkLoader loader;
+    private Checkpoint checkpoint = null;
+    private AdaptiveBatchSize adaptive = null;
+    private volatile boolean retired = false;
+    private CommitPolicy commitPolicy = CommitPolicy.parse("1");
+    private boolean asyncCommit = false;
+    // written since the last commit, {range, sequence, rows} of each batch for the checkpoint
+    private long uncommittedBatches = 0, uncommittedRows = 0, tLastCommit;
+    private final ArrayList<long[]> uncommittedOrigins = new ArrayList<>();
+    private boolean pipelined = false;
+    // destMode=UPSERT, null appends
+    private String[] keyColumns = null;
+    // runs the executions of a pipelined loader, null if not pipelined
+    private ExecutorService executionThread = null;
+    private Latencies latencies = new Latencies();
 
-    public ThreadWritingToDB(ThreadReadingFromDB in, String jdbc, String user, String password, String target,
-            String bindTypes) throws SQLException {
+    public ThreadWritingToDB(BatchSource in, String jdbc, String user, String password, String target,
+            String bindTypes, String loadMethod) throws SQLException {
         this.jdbc = jdbc;
         this.user = user;
         this.password = password;
         this.in = in;
         this.target = target;
         this.bindTypesParam = bindTypes;
+        this.loader = NullLoader.isNullTarget(jdbc) ? new NullLoader() : BulkLoaders.create(loadMethod);
     }
 
     private void init() throws SQLException {
         long t0 = System.currentTimeMillis();
-        try {
-            sql = SQLUtilFactory.createSQLUtil(jdbc, user, password);
-        } catch (SQLException sqle) {
-            System.err.println("Cannot establish connection to target. jdbc=" + jdbc + " user=" + user
-                    + " len(password)=" + (password == null ? null : password.length()));
-            throw sqle;
+        // destJDBC=null: discards all rows, there is nothing to connect to
+        if (!NullLoader.isNullTarget(jdbc)) {
+            try {
+                sql = SQLUtilFactory.createSQLUtil(jdbc, user, password);
+            } catch (SQLException sqle) {
+                System.err.println("Cannot establish connection to target. jdbc=" + jdbc + " user=" + user
+                        + " len(password)=" + (password == null ? null : password.length()));
+                throw sqle;
+            }
+            sql.getConnection().setReadOnly(false);
+            sql.getConnection().setAutoCommit(false);
+            if (asyncCommit)
+                enableAsyncCommit(sql.getConnection());
         }
-        sql.getConnection().setReadOnly(false);
-        sql.getConnection().setAutoCommit(false);
-        msInitTime = System.currentTimeMillis() - t0;
+        msInitTime.add(System.currentTimeMillis() - t0);
         if (!Util.isNull(bindTypesParam)) {
             StringTokenizer st = new StringTokenizer(bindTypesParam, ",");
             ArrayList<Integer> l = new ArrayList<>();
@@ -183,10 +220,117 @@ public class ThreadWritingToDB extends Thread {
 
     }
 
+    /**
+     * Every batch is reported to the checkpoint after its commit, commit
+     * errors are not ignored then.
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    public void setAdaptiveBatchSize(AdaptiveBatchSize adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public void setCommitPolicy(CommitPolicy commitPolicy) {
+        this.commitPolicy = commitPolicy;
+    }
+
+    /**
+     * Commits return before the log is flushed, where the target supports it
+     * per session. A crash of the target database may lose the last commits.
+     */
+    public void setAsyncCommit(boolean asyncCommit) {
+        this.asyncCommit = asyncCommit;
+    }
+
+    /**
+     * Binds the next batch while the last one executes, if the load method
+     * supports it (BATCH).
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Rows with the same key columns are updated instead of inserted, needs
+     * load method BATCH.
+     */
+    public void setKeyColumns(String[] keyColumns) {
+        this.keyColumns = keyColumns;
+    }
+
+    /**
+     * Histograms of the run this writer belongs to.
+     */
+    public void setLatencies(Latencies latencies) {
+        this.latencies = latencies;
+    }
+
+    private static volatile boolean pipelineWarned = false;
+
+    // one batch executing on executionThread
+    private static class Execution implements Callable<Void> {
+        final PipelinedLoader loader;
+        final ColumnBatch batch;
+        final int slot;
+        final long bindStart;
+        long start, end;
+        Future<Void> future;
+
+        Execution(PipelinedLoader loader, ColumnBatch batch, int slot, long bindStart) {
+            this.loader = loader;
+            this.batch = batch;
+            this.slot = slot;
+            this.bindStart = bindStart;
+        }
+
+        @Override
+        public Void call() throws SQLException {
+            start = System.nanoTime();
+            try {
+                loader.execute(slot);
+            } finally {
+                end = System.nanoTime();
+            }
+            return null;
+        }
+    }
+
+    // pgjdbc binds into the statement only, other drivers lock the connection or talk to the server while binding
+    private static boolean bindsClientSide(String product) {
+        return product.startsWith("PostgreSQL");
+    }
+
+    private static volatile boolean asyncCommitWarned = false;
+
+    private void enableAsyncCommit(Connection con) throws SQLException {
+        String product = con.getMetaData().getDatabaseProductName();
+        String[] stmts;
+        if (product.startsWith("PostgreSQL"))
+            stmts = new String[] { "SET synchronous_commit TO OFF" };
+        else if (product.startsWith("Oracle"))
+            stmts = new String[] { "ALTER SESSION SET COMMIT_WAIT = NOWAIT",
+                    "ALTER SESSION SET COMMIT_LOGGING = BATCH" };
+        else {
+            // e.g. MySQL innodb_flush_log_at_trx_commit or SQL Server DELAYED_DURABILITY are database settings
+            if (!asyncCommitWarned) {
+                asyncCommitWarned = true;
+                Util.log(CLIParams.DEST_DB_ASYNC_COMMIT + " is not supported per session by " + product
+                        + ", commits stay synchronous");
+            }
+            return;
+        }
+        try (Statement stmt = con.createStatement()) {
+            for (String s : stmts)
+                stmt.execute(s);
+        }
+    }
+
     public void executeSQLBeforeInserts(String ddl) throws SQLException {
         SQLUtilInterface sql = null;
         long t0 = System.currentTimeMillis();
-        if (ddl != null && ddl.length() >= 2) {
+        if (ddl != null && ddl.length() >= 2 && !NullLoader.isNullTarget(jdbc)) {
             try {
                 sql = SQLUtilFactory.createSQLUtil(jdbc, user, password);
                 sql.executeDDL(ddl);
@@ -200,24 +344,7 @@ public class ThreadWritingToDB extends Thread {
                     sql.closeConnection();
             }
         }
-        msInitTime += System.currentTimeMillis() - t0;
-    }
-
-    private String createInsStmt(String target) throws SQLException {
-        // if start with insert%(, then target is already the insert statement
-        if (target.toUpperCase().startsWith("INSERT ")) {
-            if (target.indexOf('(') > 0)
-                return target;
-        }
-        String insSql = "insert into " + target + "(";
-        for (int i = 1; i <= in.getColumnCount(); i++) {
-            insSql += (i == 1 ? "" : ",") + in.getColumnName(i);
-        }
-        insSql += " ) values (?";
-        for (int i = 2; i <= in.getColumnCount(); i++)
-            insSql += ",?";
-        insSql += ')';
-        return insSql;
+        msInitTime.add(System.currentTimeMillis() - t0);
     }
 
     @Override
@@ -225,34 +352,81 @@ public class ThreadWritingToDB extends Thread {
         try {
             init();
 
+            PipelinedLoader pipeline = null;
+            String product = sql == null ? null : sql.getConnection().getMetaData().getDatabaseProductName();
+            if (pipelined && product != null && !bindsClientSide(product)) {
+                if (!pipelineWarned) {
+                    pipelineWarned = true;
+                    Util.log(CLIParams.DEST_DB_PIPELINE + " is ignored for " + product
+                            + ", its driver may not bind while the connection executes");
+                }
+            } else if (pipelined && loader instanceof PipelinedLoader) {
+                pipeline = (PipelinedLoader) loader;
+                pipeline.setPipelined(true);
+                String name = getName();
+                executionThread = Executors.newSingleThreadExecutor(r -> new Thread(r, name + "-execute"));
+            } else if (pipelined && !pipelineWarned) {
+                pipelineWarned = true;
+                Util.log(CLIParams.DEST_DB_PIPELINE + ": " + loader.getOperationName()
+                        + " binds and executes in one step, writing without pipeline");
+            }
+            Execution inFlight = null;
+
+            String loadTarget = target;
+            if (keyColumns != null)
+                loadTarget = UpsertSql.create(product, target, in.getColumnNames(), keyColumns, null);
+
             // from now on, target-table should be available
-            String insertStmt = createInsStmt(target);
+            loader.open(sql == null ? null : sql.getConnection(), loadTarget, in.getColumnNames(),
+                    this.bindTypes != null ? this.bindTypes : in.getColumnTypes());
+            tLastCommit = System.currentTimeMillis();
+            // start of the wait for the next batch, over several polls
+            long waitStart = System.nanoTime();
             while (true) {
-                if (in.getState() == State.TERMINATED && in.getQueue().size() == 0)
-                    break;
-
-                Row[] rows = in.getQueue().poll();
-                if (rows == null) {
-                    long t0 = System.currentTimeMillis();
-                    Thread.sleep(50);
-                    msWaitTime += System.currentTimeMillis() - t0;
+                long t0 = System.currentTimeMillis();
+                // polling, so a retired writer stops while the queue is empty
+                ColumnBatch batch = in.getQueue().poll(100);
+                msWaitTime.add(System.currentTimeMillis() - t0);
+                if (batch == null) {
+                    // nothing to bind meanwhile
+                    if (inFlight != null) {
+                        finish(inFlight);
+                        inFlight = null;
+                    }
+                    // all readers are done and the queue is drained
+                    if (retired || in.getQueue().isEndOfStream())
+                        break;
+                    // a time based commit is also due while no rows arrive
+                    if (commitPolicy.isDue(uncommittedBatches, uncommittedRows,
+                            System.currentTimeMillis() - tLastCommit))
+                        commit();
+                    continue;
+                }
+                long n0 = System.nanoTime();
+                latencies.queueTakeWait.record(n0 - waitStart);
+                if (pipeline == null) {
+                    loader.load(batch);
+                    long nanos = System.nanoTime() - n0;
+                    written(batch, nanos, nanos);
                 } else {
-                    long t0 = System.currentTimeMillis();
-                    /* int[] dmlCodes = */sql.executeDMLBatch(insertStmt, rows,
-                            this.bindTypes != null ? this.bindTypes : in.getColumnTypes());
-                    sql.commitSilent();
-                    batchesInserted++;
-                    // todo: check dmlCodes for error, print data of rows[idx_of_dmlCodes[hasError]]
-                    rowsWritten += rows.length;
-                    long dur = System.currentTimeMillis() - t0;
-                    msDBTime += dur;
-                    // try to free ressources
-                    for (int i = 0; i < rows.length; i++)
-                        rows[i] = null;
-                    rows = null;
+                    // binding overlaps with the execution of the previous batch
+                    int slot = pipeline.bind(batch);
+                    long n1 = System.nanoTime();
+                    nsBindTime.add(n1 - n0);
+                    if (inFlight != null) {
+                        finish(inFlight);
+                        nsBindHidden.add(Math.max(0, Math.min(n1, inFlight.end) - Math.max(n0, inFlight.start)));
+                    }
+                    inFlight = new Execution(pipeline, batch, slot, n0);
+                    inFlight.future = executionThread.submit(inFlight);
                 }
+                if (retired)
+                    break;
+                waitStart = System.nanoTime();
             }
-            sql.commitSilent();
+            if (inFlight != null)
+                finish(inFlight);
+            commit();
         } catch (Throwable t) {
             exceptionDuringRun = t;
             throw new RuntimeException(t);
@@ -261,33 +435,123 @@ public class ThreadWritingToDB extends Thread {
         }
     }
 
+    private void finish(Execution e) throws SQLException, IOException, InterruptedException {
+        try {
+            e.future.get();
+        } catch (ExecutionException ee) {
+            Throwable t = ee.getCause();
+            if (t instanceof SQLException)
+                throw (SQLException) t;
+            throw new SQLException(t);
+        }
+        written(e.batch, e.end - e.start, e.end - e.bindStart);
+    }
+
+    // bookkeeping after the batch is executed, commits if due
+    private void written(ColumnBatch batch, long insertNanos, long totalNanos) throws SQLException, IOException {
+        latencies.insert.record(insertNanos);
+        nsDBTime.add(insertNanos);
+        uncommittedBatches++;
+        uncommittedRows += batch.getRowCount();
+        if (checkpoint != null)
+            uncommittedOrigins.add(new long[] { batch.getRange(), batch.getSequence(), batch.getRowCount() });
+        if (commitPolicy.isDue(uncommittedBatches, uncommittedRows, System.currentTimeMillis() - tLastCommit))
+            commit();
+        if (adaptive != null)
+            adaptive.written(batch.getRowCount(), totalNanos);
+        batchesInserted.increment();
+        rowsWritten.add(batch.getRowCount());
+    }
+
+    private void commit() throws SQLException, IOException {
+        if (uncommittedBatches == 0)
+            return;
+        long n0 = System.nanoTime();
+        // a failed commit rolls back all rows since the last one, it fails the
+        // stage instead of being counted as written
+        if (sql != null)
+            sql.commit();
+        long nanos = System.nanoTime() - n0;
+        latencies.commit.record(nanos);
+        commits.increment();
+        msCommitTime.add(nanos / 1000000);
+        for (long[] o : uncommittedOrigins)
+            checkpoint.committed((int) o[0], o[1], (int) o[2]);
+        uncommittedOrigins.clear();
+        uncommittedBatches = 0;
+        uncommittedRows = 0;
+        tLastCommit = System.currentTimeMillis();
+    }
+
+    /**
+     * Stops this writer after the current batch, the others go on with the
+     * queue. Used by WriterScaler.
+     */
+    public void retire() {
+        retired = true;
+    }
+
+    public boolean isRetired() {
+        return retired;
+    }
+
     public Throwable getException() {
         return exceptionDuringRun;
     }
 
     public void cleanUpAfterRun() {
+        // an execution still running after an error fails with the closed connection
+        if (executionThread != null)
+            executionThread.shutdownNow();
+        loader.close();
         if (sql != null)
             sql.closeConnection();
     }
 
-    public synchronized long getDBTime() {
-        return msDBTime;
+    public String getLoadOperationName() {
+        return loader.getOperationName();
+    }
+
+    public long getDBTime() {
+        return nsDBTime.sum() / 1000000;
+    }
+
+    /**
+     * @return ms spent binding batches, only measured when pipelined
+     */
+    public long getBindTime() {
+        return nsBindTime.sum() / 1000000;
+    }
+
+    /**
+     * @return ms of getBindTime() that ran while the previous batch executed
+     */
+    public long getBindHiddenTime() {
+        return nsBindHidden.sum() / 1000000;
+    }
+
+    public long getCommitTime() {
+        return msCommitTime.sum();
+    }
+
+    public long getCommits() {
+        return commits.sum();
     }
 
-    public synchronized long getInitTime() {
-        return msInitTime;
+    public long getInitTime() {
+        return msInitTime.sum();
     }
 
-    public synchronized long getWaitForQueueProducer() {
-        return msWaitTime;
+    public long getWaitForQueueProducer() {
+        return msWaitTime.sum();
     }
 
-    public synchronized int getTotalRowsInserted() {
-        return rowsWritten;
+    public long getTotalRowsInserted() {
+        return rowsWritten.sum();
     }
 
-    public int getTotalBatchedInserts() {
-        return batchesInserted;
+    public long getTotalBatchedInserts() {
+        return batchesInserted.sum();
     }
 
 }
@@ -0,0 +1,118 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * One of destFileWriters consumers of the reader queue in db2file. Every
+ * writer formats, compresses and writes its batches itself into parts of its
+ * own, so writers never wait for each other. Rows of different writers are
+ * not ordered, the row counter column is unique but has gaps per file.
+ */
+public class ThreadWritingToFile extends Thread implements BlockSink {
+
+    private final BatchChannel<ColumnBatch> queue;
+    private final PartFiles parts;
+    private final BlockCompressor compressor;
+    private final PartRotator rotator;
+    private final AtomicLong rowCounter;
+    private final boolean eagerHeader, openFirstPart;
+    private PartFiles.Part part;
+    // read by the command thread while running
+    private final LongAdder rowsWritten = new LongAdder(), tWaitForReader = new LongAdder(),
+            tWriteTime = new LongAdder();
+    private volatile Throwable exceptionDuringRun;
+
+    /**
+     * @param rowCounter  rows handed out to all writers, for the row counter
+     * @param eagerHeader   see PartRotator.open()
+     * @param openFirstPart parts are opened by the first batch, a writer
+     *                      without rows leaves no part. true: this writer
+     *                      writes the one empty part of an export without
+     *                      rows.
+     */
+    public ThreadWritingToFile(BatchChannel<ColumnBatch> queue, PartFiles parts, BlockFormatter formatter,
+            BlockCompressor compressor, boolean header, boolean eagerHeader, boolean openFirstPart, long maxRows,
+            long maxBytes, String[] columnNames, int[] columnTypes, AtomicLong rowCounter) {
+        this.queue = queue;
+        this.parts = parts;
+        this.compressor = compressor;
+        this.rowCounter = rowCounter;
+        this.eagerHeader = eagerHeader;
+        this.openFirstPart = openFirstPart;
+        this.rotator = new PartRotator(this, formatter, header, maxRows, maxBytes, columnNames, columnTypes);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                long t0 = System.currentTimeMillis();
+                ColumnBatch batch = queue.take();
+                tWaitForReader.add(System.currentTimeMillis() - t0);
+                // null: all readers are done and the queue is drained
+                if (batch == null)
+                    break;
+                long first = rowCounter.getAndAdd(batch.getRowCount()) + 1;
+                rotator.write(batch, first);
+                rowsWritten.add(batch.getRowCount());
+            }
+            // the queue is drained, so the counter is final
+            if (openFirstPart && rowCounter.get() == 0)
+                rotator.open(eagerHeader);
+            rotator.close();
+        } catch (Throwable t) {
+            exceptionDuringRun = t;
+            // readers must not block on a queue nobody takes from
+            queue.abort(t);
+            parts.abort(part);
+        }
+    }
+
+    @Override
+    public void startPart() throws IOException {
+        part = parts.open(compressor);
+    }
+
+    @Override
+    public void submit(Supplier<ByteBlock> block) throws IOException {
+        ByteBlock b = compressor.compress(block.get());
+        long t0 = System.currentTimeMillis();
+        parts.write(part, compressor, b);
+        tWriteTime.add(System.currentTimeMillis() - t0);
+    }
+
+    @Override
+    public void endPart() throws IOException {
+        parts.close(part, compressor);
+        part = null;
+    }
+
+    @Override
+    public long getPartBytes() {
+        return part == null ? 0 : part.getBytes();
+    }
+
+    public Throwable getException() {
+        return exceptionDuringRun;
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.sum();
+    }
+
+    public long getWaitForReader() {
+        return tWaitForReader.sum();
+    }
+
+    public long getWriteTime() {
+        return tWriteTime.sum();
+    }
+}
@@ -7,9 +7,6 @@ package com.cg.sqlcp.impl;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.concurrent.LinkedTransferQueue;
-
-import com.cg.sqlutil.Row;
 
 public class Util {
 
@@ -27,13 +24,15 @@ public class Util {
         return Integer.parseInt(s);
     }
 
-    public static long getRowCountOfQueue(LinkedTransferQueue<Row[]> q) {
-        if (q == null)
-            return 0;
-        long s = 0;
-        for (Row[] rows : q)
-            s += rows.length;
-        return s;
+    // if contains "select " then its a statement(select, with...)
+    public static boolean isSelectStmt(String queryData) {
+        return "SQL".equals(queryData.toLowerCase().replaceFirst(".*select\\s.*", "SQL"));
+    }
+
+    public static String createSelectStmt(String queryData) {
+        if (isSelectStmt(queryData))
+            return queryData;
+        return "SELECT * FROM " + queryData;
     }
 
     public static void log(String s) {
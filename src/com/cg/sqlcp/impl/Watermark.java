@@ -0,0 +1,184 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import com.cg.sqlutil.SQLUtilFactory;
+import com.cg.sqlutil.SQLUtilInterface;
+
+/**
+ * High watermark of srcIncrementalColumn between runs of db2db. A run reads
+ * the rows with watermark < column <= MAX(column), the maximum is taken when
+ * the run starts and becomes the new watermark after the copy succeeded.
+ * Rows changed meanwhile are copied by the next run. The first run (no file
+ * yet) copies all rows up to the maximum.
+ *
+ * A row committed after the maximum was taken can still have a value equal
+ * to it (same timestamp, long transaction). With destMode=UPSERT/MERGE the
+ * next run reads column >= watermark, so such rows are copied and the rows
+ * at the watermark are only updated again. With APPEND the next run reads
+ * column > watermark to avoid duplicates, so such rows are skipped if the
+ * column is not unique and strictly increasing in commit order.
+ *
+ * The maximum of a running copy is kept as "pending" in the file, a resume
+ * with checkpointFile reads the same rows again.
+ */
+public class Watermark {
+
+    private static final String ALIAS = "sqlcp_incremental";
+
+    private final String fileName, srcData, column;
+    private String value = null, pending = null;
+    private boolean inclusive = false;
+
+    private Watermark(String fileName, String srcData, String column) {
+        this.fileName = fileName;
+        this.srcData = srcData;
+        this.column = column;
+    }
+
+    /**
+     * Reads fileName if it exists, srcData and column must be the same as
+     * before.
+     */
+    public static Watermark load(String fileName, String srcData, String column) throws IOException {
+        Watermark w = new Watermark(fileName, srcData, column);
+        if (!new File(fileName).exists())
+            return w;
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(fileName)) {
+            p.load(in);
+        }
+        check(fileName, "srcData", srcData, p.getProperty("srcData"));
+        check(fileName, CLIParams.SRC_INCREMENTAL_COLUMN, column, p.getProperty("column"));
+        w.value = p.getProperty("value");
+        w.pending = p.getProperty("pending");
+        return w;
+    }
+
+    private static void check(String fileName, String name, String expected, String found) {
+        if (!expected.equals(found))
+            throw new IllegalArgumentException("incremental state " + fileName + " belongs to another copy, " + name
+                    + "=" + found + " instead of " + expected);
+    }
+
+    /**
+     * Determines the upper bound of this run, resume keeps the one of the
+     * failed run.
+     */
+    public void start(String jdbc, String user, String password, boolean resume) throws SQLException, IOException {
+        if (resume && pending != null)
+            return;
+        pending = queryMax(jdbc, user, password);
+        save();
+    }
+
+    private String queryMax(String jdbc, String user, String password) throws SQLException {
+        SQLUtilInterface sql = null;
+        try {
+            try {
+                sql = SQLUtilFactory.createSQLUtil(jdbc, user, password);
+            } catch (SQLException sqle) {
+                System.err.println("Cannot establish connection to source. jdbc=" + jdbc + " user=" + user
+                        + " len(password)=" + (password == null ? 0 : password.length()));
+                throw sqle;
+            }
+            sql.getConnection().setReadOnly(true);
+            try (Statement stmt = sql.getConnection().createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT MAX(" + column + ") FROM ("
+                            + Util.createSelectStmt(srcData) + ") " + ALIAS)) {
+                ColumnBatch b = new ColumnBatch(new int[] { rs.getMetaData().getColumnType(1) }, 1);
+                b.fill(rs);
+                if (b.getRowCount() == 0)
+                    return null;
+                try {
+                    return Checkpoint.toLiteral(b, 0, 0);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(CLIParams.SRC_INCREMENTAL_COLUMN
+                            + " must be a numeric, date, timestamp or character column, found java.sql.Types="
+                            + b.getSqlType(0), e);
+                }
+            }
+        } finally {
+            if (sql != null)
+                sql.closeConnection();
+        }
+    }
+
+    /**
+     * @param inclusive true: rows equal to the watermark are read again, for
+     *                  targets that update rows by key
+     */
+    public void setInclusive(boolean inclusive) {
+        this.inclusive = inclusive;
+    }
+
+    /**
+     * @return predicate of the rows of this run
+     */
+    public String getPredicate() {
+        if (pending == null)
+            // source is empty
+            return "1=0";
+        if (value == null)
+            return column + "<=" + pending;
+        return column + (inclusive ? ">=" : ">") + value + " AND " + column + "<=" + pending;
+    }
+
+    /**
+     * @return srcData restricted to the rows of this run
+     */
+    public String restrict() {
+        return KeyRangeSplitter.createSelectStmt(srcData, getPredicate());
+    }
+
+    /**
+     * Called after the copy succeeded, the next run starts at the upper bound
+     * of this one.
+     */
+    public void committed() throws IOException {
+        if (pending != null)
+            value = pending;
+        pending = null;
+        save();
+    }
+
+    private void save() throws IOException {
+        Properties p = new Properties();
+        p.setProperty("srcData", srcData);
+        p.setProperty("column", column);
+        if (value != null)
+            p.setProperty("value", value);
+        if (pending != null)
+            p.setProperty("pending", pending);
+        Path dest = Paths.get(fileName);
+        Path tmp = Paths.get(fileName + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp.toFile())) {
+            p.store(out, "sqlcp db2db incremental state, value=watermark of the last successful copy");
+        }
+        Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public String toString() {
+        return column + (inclusive ? " >= " : " > ") + (value == null ? "(first run)" : value) + " AND <= "
+                + (pending == null ? "(no rows)" : pending);
+    }
+}
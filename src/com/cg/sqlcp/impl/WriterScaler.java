@@ -0,0 +1,151 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.impl;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * Grows and shrinks the writing threads of db2db between destMinThreads and
+ * destMaxThreads. check() is called by the monitoring loop and compares the
+ * last interval with the one before:
+ * <ul>
+ * <li>add a writer if the queue is more than half full and the previous add
+ * raised rows/sec by at least 5%</li>
+ * <li>retire a writer if writers spent more than half of the interval waiting
+ * for readers</li>
+ * <li>retire a writer if the previous add did not raise rows/sec and the time
+ * per row got worse by more than 20% (e.g. lock contention in the target)</li>
+ * </ul>
+ * An add that did not pay off blocks further adds until the queue drops below
+ * half full.
+ */
+public class WriterScaler {
+
+    public interface WriterFactory {
+        public ThreadWritingToDB create() throws SQLException;
+    }
+
+    private static final long INTERVAL_MS = 5000;
+
+    private final int minThreads, maxThreads;
+    private final BatchChannel<?> queue;
+    private final WriterFactory factory;
+    private final ArrayList<ThreadWritingToDB> writers = new ArrayList<>();
+    private long lastCheck = System.currentTimeMillis(), lastRows = 0, lastDBTime = 0, lastWait = 0;
+    private double lastRowsPerSec = -1, lastNanosPerRow = -1;
+    private String lastAction = null, lastDecision = "none";
+    private boolean addBlocked = false;
+    private int added = 0, retired = 0;
+
+    public WriterScaler(int minThreads, int maxThreads, BatchChannel<?> queue, WriterFactory factory,
+            ThreadWritingToDB[] started) {
+        this.minThreads = Math.max(1, minThreads);
+        this.maxThreads = Math.max(this.minThreads, maxThreads);
+        this.queue = queue;
+        this.factory = factory;
+        for (ThreadWritingToDB w : started)
+            writers.add(w);
+    }
+
+    /**
+     * @return decision for the log, null if nothing changed
+     */
+    public synchronized String check() throws SQLException {
+        long now = System.currentTimeMillis();
+        long ms = now - lastCheck;
+        if (ms < INTERVAL_MS || queue.isEndOfStream())
+            return null;
+        long rows = 0, dbTime = 0, wait = 0;
+        for (ThreadWritingToDB w : writers) {
+            rows += w.getTotalRowsInserted();
+            dbTime += w.getDBTime();
+            wait += w.getWaitForQueueProducer();
+        }
+        int active = getActive();
+        double rowsPerSec = (rows - lastRows) * 1000.0 / ms;
+        double nanosPerRow = rows > lastRows ? (dbTime - lastDBTime) * 1000000.0 / (rows - lastRows) : -1;
+        double waitShare = active == 0 ? 0 : (double) (wait - lastWait) / (ms * active);
+        double fill = (double) queue.getRows() / queue.getMaxRows();
+        boolean improved = lastRowsPerSec < 0 || rowsPerSec >= lastRowsPerSec * 1.05;
+
+        String reason = null;
+        String action = null;
+        if (fill < 0.5)
+            addBlocked = false;
+        if ("add".equals(lastAction) && !improved) {
+            addBlocked = true;
+            if (lastNanosPerRow > 0 && nanosPerRow > lastNanosPerRow * 1.2 && active > minThreads) {
+                action = "retire";
+                reason = "time/row " + (long) (lastNanosPerRow / 1000) + "->" + (long) (nanosPerRow / 1000)
+                        + "us without more rows/sec";
+            }
+        }
+        if (action == null && waitShare > 0.5 && active > minThreads) {
+            action = "retire";
+            reason = "writers wait for readers " + (int) (waitShare * 100) + "% of the time";
+        }
+        if (action == null && fill > 0.5 && active < maxThreads && !addBlocked) {
+            action = "add";
+            reason = "queue " + (int) (fill * 100) + "% full";
+        }
+
+        String decision = null;
+        if (action != null) {
+            if ("add".equals(action)) {
+                ThreadWritingToDB w = factory.create();
+                writers.add(w);
+                w.start();
+                added++;
+            } else {
+                retireOne();
+                retired++;
+            }
+            decision = "scale: " + action + " writer, " + reason + ", rows/sec=" + (long) rowsPerSec + ", writers="
+                    + getActive();
+            lastDecision = decision;
+        }
+        lastAction = action;
+        lastCheck = now;
+        lastRows = rows;
+        lastDBTime = dbTime;
+        lastWait = wait;
+        lastRowsPerSec = rowsPerSec;
+        lastNanosPerRow = nanosPerRow;
+        return decision;
+    }
+
+    // the newest writer goes first, its connection is the youngest
+    private void retireOne() {
+        for (int i = writers.size() - 1; i >= 0; i--) {
+            ThreadWritingToDB w = writers.get(i);
+            if (!w.isRetired() && w.isAlive()) {
+                w.retire();
+                return;
+            }
+        }
+    }
+
+    public synchronized int getActive() {
+        int n = 0;
+        for (ThreadWritingToDB w : writers)
+            if (!w.isRetired() && w.getState() != Thread.State.TERMINATED)
+                n++;
+        return n;
+    }
+
+    /**
+     * @return all writers ever started, including retired ones
+     */
+    public synchronized ThreadWritingToDB[] getWriters() {
+        return writers.toArray(new ThreadWritingToDB[0]);
+    }
+
+    public synchronized String getSummary() {
+        return "min=" + minThreads + ", max=" + maxThreads + ", added=" + added + ", retired=" + retired
+                + ", active=" + getActive() + ", last=" + lastDecision;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.loader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import com.cg.sqlcp.impl.ColumnBatch;
+
+/**
+ * Parameterized INSERT, one JDBC batch per ColumnBatch. Works with every
+ * driver. The statement is prepared once per connection, the column binders
+ * are created with the first batch. Pipelined, a second statement is bound
+ * while the first one executes.
+ */
+public class BatchInsertLoader implements PipelinedLoader {
+
+    private int[] bindTypes;
+    private final PreparedStatement[] ps = new PreparedStatement[2];
+    private RowBinder binder;
+    private boolean pipelined = false;
+    private int nextSlot = 0;
+
+    @Override
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    @Override
+    public void open(Connection con, String target, String[] columns, int[] bindTypes) throws SQLException {
+        this.bindTypes = bindTypes;
+        String insertStmt = createInsStmt(target, columns);
+        ps[0] = con.prepareStatement(insertStmt);
+        // both now, the connection is busy with executions later
+        if (pipelined)
+            ps[1] = con.prepareStatement(insertStmt);
+    }
+
+    static String createInsStmt(String target, String[] columns) {
+        // upsert of destMode, see UpsertSql
+        if (target.toUpperCase().startsWith("MERGE "))
+            return target;
+        // if start with insert%(, then target is already the insert statement
+        if (target.toUpperCase().startsWith("INSERT ")) {
+            if (target.indexOf('(') > 0)
+                return target;
+        }
+        String insSql = "insert into " + target + "(" + BulkLoaders.columnList(columns);
+        insSql += " ) values (?";
+        for (int i = 2; i <= columns.length; i++)
+            insSql += ",?";
+        insSql += ')';
+        return insSql;
+    }
+
+    @Override
+    public void load(ColumnBatch batch) throws SQLException {
+        execute(bind(batch));
+    }
+
+    @Override
+    public int bind(ColumnBatch batch) throws SQLException {
+        if (binder == null)
+            binder = new RowBinder(bindTypes, batch);
+        int slot = nextSlot;
+        if (pipelined)
+            nextSlot ^= 1;
+        for (int r = 0; r < batch.getRowCount(); r++) {
+            binder.bind(ps[slot], 1, batch, r);
+            ps[slot].addBatch();
+        }
+        return slot;
+    }
+
+    @Override
+    public void execute(int slot) throws SQLException {
+        // todo: check dmlCodes for error, print data of rows[idx_of_dmlCodes[hasError]]
+        /* int[] dmlCodes = */ps[slot].executeBatch();
+    }
+
+    @Override
+    public void close() {
+        try {
+            for (PreparedStatement p : ps)
+                if (p != null)
+                    p.close();
+        } catch (SQLException e) {
+            // connection will be closed anyway
+        }
+    }
+
+    @Override
+    public String getOperationName() {
+        return "ps.executeBatch()";
+    }
+}
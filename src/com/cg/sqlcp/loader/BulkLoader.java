@@ -0,0 +1,37 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.loader;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import com.cg.sqlcp.impl.ColumnBatch;
+
+/**
+ * Writes column batches into the target. Every writing thread owns one
+ * loader and one connection. Commits are done by the writing thread after
+ * load(), a loader must not commit by itself.
+ */
+public interface BulkLoader {
+
+    /**
+     * @param target     tablename, for "batch" also a complete INSERT statement
+     * @param columns    column names of the source, in select order
+     * @param bindTypes  java.sql.Types per column, used for binding/formatting
+     */
+    public void open(Connection con, String target, String[] columns, int[] bindTypes) throws SQLException;
+
+    public void load(ColumnBatch batch) throws SQLException, IOException;
+
+    public void close();
+
+    /**
+     * @return short description of one load() call for the summary, e.g.
+     *         "ps.executeBatch()"
+     */
+    public String getOperationName();
+}
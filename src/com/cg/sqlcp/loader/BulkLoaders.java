@@ -0,0 +1,81 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.loader;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+
+public final class BulkLoaders {
+
+    public static final String METHOD_BATCH = "BATCH";
+    public static final String METHOD_COPY = "COPY";
+    public static final String METHOD_LOADDATA = "LOADDATA";
+    public static final String METHOD_CSVIMPORT = "CSVIMPORT";
+    public static final String METHOD_MULTIROW = "MULTIROW";
+
+    public static final String[] METHODS = { METHOD_BATCH, METHOD_MULTIROW, METHOD_COPY, METHOD_LOADDATA,
+            METHOD_CSVIMPORT };
+
+    // destMode, UPSERT updates rows with the same destKeyColumns, MERGE does the
+    // same set-based from a staging table at the end
+    public static final String MODE_APPEND = "APPEND";
+    public static final String MODE_UPSERT = "UPSERT";
+    public static final String MODE_MERGE = "MERGE";
+
+    public static final String[] MODES = { MODE_APPEND, MODE_UPSERT, MODE_MERGE };
+
+    private BulkLoaders() {
+    }
+
+    public static BulkLoader create(String method) {
+        if (method == null || METHOD_BATCH.equalsIgnoreCase(method))
+            return new BatchInsertLoader();
+        if (METHOD_MULTIROW.equalsIgnoreCase(method))
+            return new MultiRowInsertLoader();
+        if (METHOD_COPY.equalsIgnoreCase(method))
+            return new PostgresCopyLoader();
+        if (METHOD_LOADDATA.equalsIgnoreCase(method))
+            return new MySQLLoadDataLoader();
+        if (METHOD_CSVIMPORT.equalsIgnoreCase(method))
+            return new CsvImportLoader();
+        throw new IllegalArgumentException(
+                "unknown load method=" + method + ", valid are batch, multirow, copy, loaddata, csvimport");
+    }
+
+    static String columnList(String[] columns) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(columns[i]);
+        }
+        return sb.toString();
+    }
+
+    // calls a driver specific method, unwraps the exception thrown by the driver
+    static Object invoke(Method m, Object target, Object... args) throws SQLException, IOException {
+        try {
+            return m.invoke(target, args);
+        } catch (InvocationTargetException ite) {
+            Throwable t = ite.getCause();
+            if (t instanceof SQLException)
+                throw (SQLException) t;
+            if (t instanceof IOException)
+                throw (IOException) t;
+            throw new SQLException(t);
+        } catch (IllegalAccessException iae) {
+            throw new SQLException(iae);
+        }
+    }
+
+    static void requirePlainTarget(String target, String method) {
+        if (target.toUpperCase().startsWith("INSERT "))
+            throw new IllegalArgumentException(
+                    "load method " + method + " needs a tablename as target, not an INSERT statement");
+    }
+}
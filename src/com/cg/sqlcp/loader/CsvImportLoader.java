@@ -0,0 +1,160 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.loader;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.cg.sqlcp.impl.ColumnBatch;
+
+/**
+ * Writes each batch to a temporary CSV file and lets the database import it:
+ * H2 CSVREAD or Apache Derby SYSCS_UTIL.SYSCS_IMPORT_DATA. Meant for local
+ * tests with embedded databases. HSQLDB has no import procedure (only TEXT
+ * tables), use batch there.
+ */
+public class CsvImportLoader implements BulkLoader {
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private Connection con;
+    private boolean derby;
+    private String[] columns;
+    private String target;
+    private File csv;
+
+    @Override
+    public void open(Connection con, String target, String[] columns, int[] bindTypes) throws SQLException {
+        BulkLoaders.requirePlainTarget(target, BulkLoaders.METHOD_CSVIMPORT);
+        this.con = con;
+        this.columns = columns;
+        this.target = target;
+        String product = con.getMetaData().getDatabaseProductName();
+        if (product.contains("Derby"))
+            derby = true;
+        else if (!"H2".equals(product))
+            throw new SQLException("load method csvimport supports H2 and Apache Derby, target is " + product);
+        try {
+            csv = File.createTempFile("sqlcp", ".csv");
+            csv.deleteOnExit();
+        } catch (IOException ioe) {
+            throw new SQLException("cannot create temporary file for csvimport", ioe);
+        }
+    }
+
+    @Override
+    public void load(ColumnBatch batch) throws SQLException, IOException {
+        writeCsv(batch);
+        if (derby) {
+            // [schema.]table, unquoted names are uppercase in derby
+            String schema = null, table = target;
+            int dot = target.indexOf('.');
+            if (dot > 0) {
+                schema = toDerbyName(target.substring(0, dot));
+                table = target.substring(dot + 1);
+            }
+            CallableStatement cs = con
+                    .prepareCall("CALL SYSCS_UTIL.SYSCS_IMPORT_DATA(?, ?, ?, NULL, ?, ',', '\"', 'UTF-8', 0)");
+            try {
+                cs.setString(1, schema);
+                cs.setString(2, toDerbyName(table));
+                cs.setString(3, toDerbyName(BulkLoaders.columnList(columns)));
+                cs.setString(4, csv.getAbsolutePath());
+                cs.execute();
+            } finally {
+                cs.close();
+            }
+        } else {
+            Statement stmt = con.createStatement();
+            try {
+                stmt.executeUpdate("INSERT INTO " + target + "(" + BulkLoaders.columnList(columns)
+                        + ") SELECT * FROM CSVREAD('" + csv.getAbsolutePath().replace("'", "''")
+                        + "', NULL, 'charset=UTF-8')");
+            } finally {
+                stmt.close();
+            }
+        }
+    }
+
+    private static String toDerbyName(String name) {
+        if (name.startsWith("\""))
+            return name.replace("\"", "");
+        return name.toUpperCase();
+    }
+
+    // NULL is an empty unquoted field, strings are always quoted
+    private void writeCsv(ColumnBatch b) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(csv, false), 256 * 1024);
+        try {
+            // H2 takes the column names from the first line, derby needs data only
+            if (!derby) {
+                for (int c = 0; c < columns.length; c++) {
+                    if (c > 0)
+                        out.write(',');
+                    byte[] n = columns[c].getBytes(StandardCharsets.UTF_8);
+                    writeQuoted(out, n, 0, n.length);
+                }
+                out.write('\n');
+            }
+            int cols = b.getColumnCount();
+            for (int r = 0; r < b.getRowCount(); r++) {
+                for (int c = 0; c < cols; c++) {
+                    if (c > 0)
+                        out.write(',');
+                    if (b.isNull(c, r))
+                        continue;
+                    switch (b.getKind(c)) {
+                    case ColumnBatch.KIND_STRING:
+                        writeQuoted(out, b.getData(c), b.getDataOffset(c, r), b.getDataLength(c, r));
+                        break;
+                    case ColumnBatch.KIND_BYTES:
+                        byte[] d = b.getData(c);
+                        for (int i = b.getDataOffset(c, r); i < b.getDataOffset(c, r) + b.getDataLength(c, r); i++) {
+                            out.write(HEX[(d[i] >> 4) & 0xF]);
+                            out.write(HEX[d[i] & 0xF]);
+                        }
+                        break;
+                    default:
+                        byte[] v = b.getString(c, r).getBytes(StandardCharsets.UTF_8);
+                        writeQuoted(out, v, 0, v.length);
+                    }
+                }
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeQuoted(OutputStream out, byte[] d, int off, int len) throws IOException {
+        out.write('"');
+        for (int i = off; i < off + len; i++) {
+            if (d[i] == '"')
+                out.write('"');
+            out.write(d[i]);
+        }
+        out.write('"');
+    }
+
+    @Override
+    public void close() {
+        if (csv != null)
+            csv.delete();
+    }
+
+    @Override
+    public String getOperationName() {
+        return derby ? "SYSCS_IMPORT_DATA" : "CSVREAD";
+    }
+}
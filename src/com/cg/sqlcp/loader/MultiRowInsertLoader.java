@@ -0,0 +1,136 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.loader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+import com.cg.sqlcp.impl.ColumnBatch;
+
+/**
+ * INSERT INTO t(...) VALUES (?,..),(?,..),... for drivers that do not
+ * rewrite JDBC batches. Rows per statement are limited by the bind parameter
+ * limit of the database and DatabaseMetaData.getMaxStatementLength(). The
+ * statement text is cached per row count, the statement for full chunks is
+ * prepared once.
+ */
+public class MultiRowInsertLoader implements BulkLoader {
+
+    // fallback if the database is not known
+    private static final int DEFAULT_MAX_PARAMS = 2000;
+
+    private Connection con;
+    private int[] bindTypes;
+    private String prefix, rowValues;
+    private int maxRowsPerStmt;
+    private final HashMap<Integer, String> stmtCache = new HashMap<>();
+    private PreparedStatement fullChunkStmt;
+    private RowBinder binder;
+
+    @Override
+    public void open(Connection con, String target, String[] columns, int[] bindTypes) throws SQLException {
+        BulkLoaders.requirePlainTarget(target, BulkLoaders.METHOD_MULTIROW);
+        this.con = con;
+        this.bindTypes = bindTypes;
+        prefix = "insert into " + target + "(" + BulkLoaders.columnList(columns) + ") values ";
+        StringBuilder sb = new StringBuilder("(?");
+        for (int i = 1; i < columns.length; i++)
+            sb.append(",?");
+        rowValues = sb.append(')').toString();
+
+        int byParams = getMaxBindParameters(con.getMetaData().getDatabaseProductName()) / columns.length;
+        int maxLen = con.getMetaData().getMaxStatementLength();
+        // 0 means no limit or unknown
+        int byLength = maxLen <= 0 ? Integer.MAX_VALUE : (maxLen - prefix.length()) / (rowValues.length() + 1);
+        maxRowsPerStmt = Math.max(1, Math.min(byParams, byLength));
+    }
+
+    static int getMaxBindParameters(String product) {
+        if (product == null)
+            return DEFAULT_MAX_PARAMS;
+        if (product.startsWith("PostgreSQL"))
+            return 32767;
+        if (product.startsWith("Microsoft SQL Server"))
+            return 2100;
+        if (product.startsWith("MySQL") || product.startsWith("MariaDB"))
+            return 65535;
+        if (product.startsWith("SQLite"))
+            return 999;
+        if (product.startsWith("H2") || product.startsWith("HSQL") || product.contains("Derby"))
+            return 32767;
+        return DEFAULT_MAX_PARAMS;
+    }
+
+    private String getStmt(int rows) {
+        String s = stmtCache.get(rows);
+        if (s == null) {
+            StringBuilder sb = new StringBuilder(prefix.length() + rows * (rowValues.length() + 1));
+            sb.append(prefix);
+            for (int i = 0; i < rows; i++) {
+                if (i > 0)
+                    sb.append(',');
+                sb.append(rowValues);
+            }
+            s = sb.toString();
+            stmtCache.put(rows, s);
+        }
+        return s;
+    }
+
+    @Override
+    public void load(ColumnBatch batch) throws SQLException {
+        if (binder == null)
+            binder = new RowBinder(bindTypes, batch);
+        int rows = batch.getRowCount();
+        int fullChunks = rows / maxRowsPerStmt;
+        int rest = rows % maxRowsPerStmt;
+        if (fullChunks > 0) {
+            if (fullChunkStmt == null)
+                fullChunkStmt = con.prepareStatement(getStmt(maxRowsPerStmt));
+            for (int i = 0; i < fullChunks; i++) {
+                bind(fullChunkStmt, batch, i * maxRowsPerStmt, maxRowsPerStmt);
+                fullChunkStmt.addBatch();
+            }
+            fullChunkStmt.executeBatch();
+        }
+        if (rest > 0) {
+            PreparedStatement ps = con.prepareStatement(getStmt(rest));
+            try {
+                bind(ps, batch, fullChunks * maxRowsPerStmt, rest);
+                ps.executeUpdate();
+            } finally {
+                ps.close();
+            }
+        }
+    }
+
+    private void bind(PreparedStatement ps, ColumnBatch batch, int firstRow, int rows) throws SQLException {
+        int idx = 1;
+        for (int r = firstRow; r < firstRow + rows; r++)
+            idx = binder.bind(ps, idx, batch, r);
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (fullChunkStmt != null)
+                fullChunkStmt.close();
+        } catch (SQLException e) {
+            // connection will be closed anyway
+        }
+    }
+
+    public int getMaxRowsPerStmt() {
+        return maxRowsPerStmt;
+    }
+
+    @Override
+    public String getOperationName() {
+        return "multi-row INSERT(max " + maxRowsPerStmt + " rows)";
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.loader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.cg.sqlcp.impl.ColumnBatch;
+
+/**
+ * MySQL/MariaDB LOAD DATA LOCAL INFILE, fed from memory instead of a file.
+ * Needs allowLoadLocalInfile=true in the JDBC url. The driver API is called
+ * by reflection, so the driver is only needed at runtime.
+ */
+public class MySQLLoadDataLoader implements BulkLoader {
+
+    private static final String[] STATEMENT_CLASSES = { "com.mysql.cj.jdbc.JdbcStatement",
+            "com.mysql.jdbc.Statement", "org.mariadb.jdbc.MariaDbStatement" };
+
+    private final TextFormatEncoder encoder = new TextFormatEncoder(true);
+    private Connection con;
+    private String loadSql;
+    private Class<?> statementClass;
+    private Method setInputStream;
+
+    @Override
+    public void open(Connection con, String target, String[] columns, int[] bindTypes) throws SQLException {
+        BulkLoaders.requirePlainTarget(target, BulkLoaders.METHOD_LOADDATA);
+        this.con = con;
+        loadSql = "LOAD DATA LOCAL INFILE 'sqlcp.stream' INTO TABLE " + target
+                + " CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' ("
+                + BulkLoaders.columnList(columns) + ")";
+        for (String cn : STATEMENT_CLASSES) {
+            try {
+                statementClass = Class.forName(cn);
+                setInputStream = statementClass.getMethod("setLocalInfileInputStream", InputStream.class);
+                return;
+            } catch (ReflectiveOperationException e) {
+                // try next driver
+            }
+        }
+        throw new SQLException("load method loaddata needs a MySQL or MariaDB driver");
+    }
+
+    @Override
+    public void load(ColumnBatch batch) throws SQLException, IOException {
+        encoder.encode(batch);
+        Statement stmt = con.createStatement();
+        try {
+            BulkLoaders.invoke(setInputStream, stmt.unwrap(statementClass), encoder.toInputStream());
+            stmt.execute(loadSql);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getOperationName() {
+        return "LOAD DATA";
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.loader;
+
+import java.sql.Connection;
+
+import com.cg.sqlcp.impl.ColumnBatch;
+
+/**
+ * Discards all batches, used for destJDBC=null: to measure sqlcp without the
+ * target. No connection is opened.
+ */
+public class NullLoader implements BulkLoader {
+
+    public static final String JDBC = "null:";
+
+    public static boolean isNullTarget(String jdbc) {
+        return jdbc != null && jdbc.startsWith(JDBC);
+    }
+
+    @Override
+    public void open(Connection con, String target, String[] columns, int[] bindTypes) {
+    }
+
+    @Override
+    public void load(ColumnBatch batch) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getOperationName() {
+        return "discard";
+    }
+}
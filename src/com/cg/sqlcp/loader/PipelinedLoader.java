@@ -0,0 +1,37 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.loader;
+
+import java.sql.SQLException;
+
+import com.cg.sqlcp.impl.ColumnBatch;
+
+/**
+ * A loader that binds and executes a batch in two steps, on two statements
+ * of the same connection. The writing thread binds batch N+1 into one
+ * statement while batch N still executes on the other one. bind() and
+ * execute() of the same slot never run at the same time, commits are only
+ * done while no statement executes.
+ *
+ * Binding and executing on one connection at the same time is not allowed by
+ * JDBC, it only works with drivers that bind purely client-side. The writer
+ * pipelines for PostgreSQL only.
+ */
+public interface PipelinedLoader extends BulkLoader {
+
+    /**
+     * Called before open(), prepares the second statement there.
+     */
+    public void setPipelined(boolean pipelined);
+
+    /**
+     * @return slot of the statement the batch is bound to, alternating 0 and
+     *         1 when pipelined
+     */
+    public int bind(ColumnBatch batch) throws SQLException;
+
+    public void execute(int slot) throws SQLException;
+}
@@ -0,0 +1,56 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.loader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import com.cg.sqlcp.impl.ColumnBatch;
+
+/**
+ * PostgreSQL COPY ... FROM STDIN, one COPY per batch. The driver API is
+ * called by reflection, so the PostgreSQL driver is only needed at runtime.
+ */
+public class PostgresCopyLoader implements BulkLoader {
+
+    private final TextFormatEncoder encoder = new TextFormatEncoder(false);
+    private Object copyManager;
+    private Method copyIn;
+    private String copySql;
+
+    @Override
+    public void open(Connection con, String target, String[] columns, int[] bindTypes) throws SQLException {
+        BulkLoaders.requirePlainTarget(target, BulkLoaders.METHOD_COPY);
+        copySql = "COPY " + target + "(" + BulkLoaders.columnList(columns) + ") FROM STDIN";
+        try {
+            Class<?> pgConnection = Class.forName("org.postgresql.PGConnection");
+            Object pgCon = con.unwrap(pgConnection);
+            copyManager = pgConnection.getMethod("getCopyAPI").invoke(pgCon);
+            copyIn = Class.forName("org.postgresql.copy.CopyManager").getMethod("copyIn", String.class,
+                    InputStream.class);
+        } catch (ReflectiveOperationException | SQLException e) {
+            throw new SQLException("load method copy needs a PostgreSQL connection", e);
+        }
+    }
+
+    @Override
+    public void load(ColumnBatch batch) throws SQLException, IOException {
+        encoder.encode(batch);
+        BulkLoaders.invoke(copyIn, copyManager, copySql, encoder.toInputStream());
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getOperationName() {
+        return "COPY";
+    }
+}
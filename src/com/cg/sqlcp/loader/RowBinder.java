@@ -0,0 +1,134 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.loader;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+
+import com.cg.sqlcp.impl.ColumnBatch;
+
+/**
+ * Binds rows of a ColumnBatch as statement parameters. The binder of each
+ * column is chosen once from its bind type and the kind the reader stored
+ * the column in, e.g. BIGINT from a long column is a plain setLong() on the
+ * long[]. Only bind types that need a conversion of the value go through
+ * ColumnBatch.bind().
+ */
+final class RowBinder {
+
+    interface ColumnBinder {
+        void bind(PreparedStatement ps, int idx, ColumnBatch b, int c, int r) throws SQLException;
+    }
+
+    private final ColumnBinder[] binders;
+    private final int[] types;
+
+    /**
+     * @param bindTypes java.sql.Types per column, columns without an entry are
+     *                  bound as their source type
+     */
+    RowBinder(int[] bindTypes, ColumnBatch batch) {
+        int cols = batch.getColumnCount();
+        binders = new ColumnBinder[cols];
+        types = new int[cols];
+        for (int c = 0; c < cols; c++) {
+            types[c] = c < bindTypes.length ? bindTypes[c] : batch.getSqlType(c);
+            binders[c] = create(types[c], batch.getKind(c));
+        }
+    }
+
+    static ColumnBinder create(int bindType, int kind) {
+        switch (bindType) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+            if (kind == ColumnBatch.KIND_LONG)
+                return (ps, idx, b, c, r) -> ps.setLong(idx, b.getLongs(c)[r]);
+            break;
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+            if (kind == ColumnBatch.KIND_DOUBLE)
+                return (ps, idx, b, c, r) -> ps.setDouble(idx, b.getDoubles(c)[r]);
+            break;
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+            if (kind == ColumnBatch.KIND_DECIMAL)
+                return (ps, idx, b, c, r) -> ps.setBigDecimal(idx, b.isCompactDecimal(c, r)
+                        ? BigDecimal.valueOf(b.getLongs(c)[r], b.getInts(c)[r]) : b.getBigDecimal(c, r));
+            break;
+        case Types.BIT:
+        case Types.BOOLEAN:
+            if (kind == ColumnBatch.KIND_BOOLEAN || kind == ColumnBatch.KIND_LONG)
+                return (ps, idx, b, c, r) -> ps.setBoolean(idx, b.getLongs(c)[r] != 0);
+            break;
+        case Types.DATE:
+            if (kind == ColumnBatch.KIND_DATE)
+                return (ps, idx, b, c, r) -> ps.setDate(idx, new Date(b.getLongs(c)[r]));
+            break;
+        case Types.TIME:
+            if (kind == ColumnBatch.KIND_TIME)
+                return (ps, idx, b, c, r) -> ps.setTime(idx, new Time(b.getLongs(c)[r]));
+            break;
+        case Types.TIMESTAMP:
+            if (kind == ColumnBatch.KIND_TIMESTAMP)
+                return (ps, idx, b, c, r) -> {
+                    Timestamp ts = new Timestamp(b.getLongs(c)[r]);
+                    ts.setNanos(b.getInts(c)[r]);
+                    ps.setTimestamp(idx, ts);
+                };
+            break;
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+        case Types.NCHAR:
+        case Types.NVARCHAR:
+        case Types.LONGNVARCHAR:
+        case Types.CLOB:
+        case Types.NCLOB:
+            if (kind == ColumnBatch.KIND_STRING)
+                return (ps, idx, b, c, r) -> ps.setString(idx, new String(b.getData(c), b.getDataOffset(c, r),
+                        b.getDataLength(c, r), StandardCharsets.UTF_8));
+            break;
+        case Types.BINARY:
+        case Types.VARBINARY:
+        case Types.LONGVARBINARY:
+        case Types.BLOB:
+            if (kind == ColumnBatch.KIND_BYTES)
+                return (ps, idx, b, c, r) -> {
+                    int off = b.getDataOffset(c, r);
+                    ps.setBytes(idx, Arrays.copyOfRange(b.getData(c), off, off + b.getDataLength(c, r)));
+                };
+            break;
+        default:
+        }
+        // bind type differs from the source, converted by ColumnBatch
+        return (ps, idx, b, c, r) -> b.bind(ps, idx, c, r, bindType);
+    }
+
+    /**
+     * Binds row r as parameters idx, idx+1, ...
+     *
+     * @return index of the next parameter
+     */
+    int bind(PreparedStatement ps, int idx, ColumnBatch batch, int r) throws SQLException {
+        for (int c = 0; c < binders.length; c++, idx++) {
+            if (batch.isNull(c, r))
+                ps.setNull(idx, types[c]);
+            else
+                binders[c].bind(ps, idx, batch, c, r);
+        }
+        return idx;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.loader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.cg.sqlcp.impl.ColumnBatch;
+
+/**
+ * Tab separated text format understood by PostgreSQL COPY (FORMAT text) and
+ * MySQL LOAD DATA: \N is NULL, backslash escapes tab, newline, carriage
+ * return and backslash. Encoding is UTF-8. The buffer is reused per batch.
+ */
+class TextFormatEncoder extends ByteArrayOutputStream {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final boolean mysql;
+
+    TextFormatEncoder(boolean mysql) {
+        super(1024 * 1024);
+        this.mysql = mysql;
+    }
+
+    void encode(ColumnBatch b) {
+        reset();
+        int cols = b.getColumnCount();
+        for (int r = 0; r < b.getRowCount(); r++) {
+            for (int c = 0; c < cols; c++) {
+                if (c > 0)
+                    write('\t');
+                encodeValue(b, c, r);
+            }
+            write('\n');
+        }
+    }
+
+    InputStream toInputStream() {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+
+    private void encodeValue(ColumnBatch b, int c, int r) {
+        if (b.isNull(c, r)) {
+            write('\\');
+            write('N');
+            return;
+        }
+        switch (b.getKind(c)) {
+        case ColumnBatch.KIND_STRING:
+            writeEscaped(b.getData(c), b.getDataOffset(c, r), b.getDataLength(c, r));
+            break;
+        case ColumnBatch.KIND_BYTES:
+            if (mysql)
+                writeEscaped(b.getData(c), b.getDataOffset(c, r), b.getDataLength(c, r));
+            else
+                writeBytea(b.getData(c), b.getDataOffset(c, r), b.getDataLength(c, r));
+            break;
+        case ColumnBatch.KIND_BOOLEAN:
+            if (mysql)
+                write(b.getBoolean(c, r) ? '1' : '0');
+            else
+                write(b.getBoolean(c, r) ? 't' : 'f');
+            break;
+        default:
+            byte[] v = b.getString(c, r).getBytes(StandardCharsets.UTF_8);
+            writeEscaped(v, 0, v.length);
+        }
+    }
+
+    private void writeEscaped(byte[] d, int off, int len) {
+        ensureCapacity(count + len * 2);
+        for (int i = off; i < off + len; i++) {
+            byte ch = d[i];
+            switch (ch) {
+            case '\\':
+                buf[count++] = '\\';
+                buf[count++] = '\\';
+                break;
+            case '\t':
+                buf[count++] = '\\';
+                buf[count++] = 't';
+                break;
+            case '\n':
+                buf[count++] = '\\';
+                buf[count++] = 'n';
+                break;
+            case '\r':
+                buf[count++] = '\\';
+                buf[count++] = 'r';
+                break;
+            case 0:
+                if (mysql) {
+                    buf[count++] = '\\';
+                    buf[count++] = '0';
+                } else
+                    // PostgreSQL: as is
+                    buf[count++] = ch;
+                break;
+            default:
+                buf[count++] = ch;
+            }
+        }
+    }
+
+    // bytea hex format, the backslash itself is escaped by the text format
+    private void writeBytea(byte[] d, int off, int len) {
+        ensureCapacity(count + 3 + len * 2);
+        buf[count++] = '\\';
+        buf[count++] = '\\';
+        buf[count++] = 'x';
+        for (int i = off; i < off + len; i++) {
+            buf[count++] = HEX[(d[i] >> 4) & 0xF];
+            buf[count++] = HEX[d[i] & 0xF];
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > buf.length) {
+            byte[] n = new byte[Math.max(size, buf.length * 2)];
+            System.arraycopy(buf, 0, n, 0, count);
+            buf = n;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Author Christian Gausepohl
+ * License: CC0 (no copyright if possible, otherwise fallback to public domain)
+ * https://github.com/cgausepohl/sqlcp
+ */
+package com.cg.sqlcp.loader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Update-or-insert statements by key columns, in the dialect of the target
+ * database: PostgreSQL and SQLite INSERT ... ON CONFLICT, MySQL/MariaDB
+ * INSERT ... ON DUPLICATE KEY UPDATE, H2 MERGE ... KEY, Oracle and all
+ * others SQL:2003 MERGE. The rows come from one row of bind parameters or
+ * from a table with the same columns, e.g. the staging table of
+ * destMode=MERGE.
+ */
+public final class UpsertSql {
+
+    private static final String SRC = "sqlcp_src";
+
+    private UpsertSql() {
+    }
+
+    /**
+     * @param sourceTable null: one row of parameters (?,?,...) in column order
+     */
+    public static String create(String product, String target, String[] columns, String[] keys,
+            String sourceTable) {
+        keys = keys.clone();
+        for (int i = 0; i < keys.length; i++) {
+            int c = indexOf(columns, keys[i]);
+            if (c < 0)
+                throw new IllegalArgumentException("key column " + keys[i]
+                        + " is not selected from source, columns are " + Arrays.toString(columns));
+            // same spelling as in the column list
+            keys[i] = columns[c];
+        }
+        String[] others = nonKeys(columns, keys);
+        String cols = BulkLoaders.columnList(columns);
+        String values = sourceTable == null ? "VALUES (" + params(columns.length) + ")"
+                : "SELECT " + cols + " FROM " + sourceTable;
+        String p = product == null ? "" : product;
+
+        if (p.startsWith("PostgreSQL") || p.startsWith("SQLite")) {
+            // SQLite needs WHERE true to parse ON CONFLICT after a SELECT
+            String sql = "INSERT INTO " + target + " (" + cols + ") " + values
+                    + (sourceTable != null && p.startsWith("SQLite") ? " WHERE true" : "") + " ON CONFLICT ("
+                    + BulkLoaders.columnList(keys) + ") DO ";
+            if (others.length == 0)
+                return sql + "NOTHING";
+            return sql + "UPDATE SET " + assignments(others, "", "EXCLUDED.");
+        }
+        if (p.startsWith("MySQL") || p.startsWith("MariaDB")) {
+            String[] set = others.length == 0 ? new String[] { keys[0] } : others;
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < set.length; i++)
+                sb.append(i > 0 ? ", " : "").append(set[i]).append("=VALUES(").append(set[i]).append(')');
+            return "INSERT INTO " + target + " (" + cols + ") " + values + " ON DUPLICATE KEY UPDATE " + sb;
+        }
+        if (p.startsWith("H2"))
+            return "MERGE INTO " + target + " (" + cols + ") KEY (" + BulkLoaders.columnList(keys) + ") " + values;
+
+        // SQL:2003 MERGE, Oracle has no VALUES as table and no AS for table aliases
+        String using;
+        if (sourceTable != null)
+            using = sourceTable + " " + SRC;
+        else if (p.startsWith("Oracle")) {
+            StringBuilder sb = new StringBuilder("(SELECT ");
+            for (int i = 0; i < columns.length; i++)
+                sb.append(i > 0 ? ", " : "").append("? ").append(columns[i]);
+            using = sb.append(" FROM dual) ").append(SRC).toString();
+        } else
+            using = "(VALUES (" + params(columns.length) + ")) AS " + SRC + " (" + cols + ")";
+        StringBuilder on = new StringBuilder();
+        for (int i = 0; i < keys.length; i++)
+            on.append(i > 0 ? " AND " : "").append("t.").append(keys[i]).append('=').append(SRC).append('.')
+                    .append(keys[i]);
+        StringBuilder insValues = new StringBuilder();
+        for (int i = 0; i < columns.length; i++)
+            insValues.append(i > 0 ? ", " : "").append(SRC).append('.').append(columns[i]);
+        String sql = "MERGE INTO " + target + " t USING " + using + " ON (" + on + ")";
+        if (others.length > 0)
+            sql += " WHEN MATCHED THEN UPDATE SET " + assignments(others, "t.", SRC + ".");
+        sql += " WHEN NOT MATCHED THEN INSERT (" + cols + ") VALUES (" + insValues + ")";
+        // SQL Server requires the terminator for MERGE
+        if (p.startsWith("Microsoft SQL Server"))
+            sql += ";";
+        return sql;
+    }
+
+    /**
+     * @return DDL for an empty table with the given columns of target, without
+     *         indexes and constraints. PostgreSQL gets an unlogged table,
+     *         Oracle a nologging one, the rows only live until the merge.
+     */
+    public static String createStagingTable(String product, String staging, String target, String[] columns) {
+        String p = product == null ? "" : product;
+        String select = "SELECT " + BulkLoaders.columnList(columns) + " FROM " + target;
+        if (p.startsWith("Microsoft SQL Server"))
+            return "SELECT " + BulkLoaders.columnList(columns) + " INTO " + staging + " FROM " + target + " WHERE 1=0";
+        if (p.startsWith("HSQL") || p.startsWith("DB2") || p.startsWith("Apache Derby"))
+            return "CREATE TABLE " + staging + " AS (" + select + ") WITH NO DATA";
+        if (p.startsWith("PostgreSQL"))
+            return "CREATE UNLOGGED TABLE " + staging + " AS " + select + " WHERE 1=0";
+        if (p.startsWith("Oracle"))
+            return "CREATE TABLE " + staging + " NOLOGGING AS " + select + " WHERE 1=0";
+        return "CREATE TABLE " + staging + " AS " + select + " WHERE 1=0";
+    }
+
+    /**
+     * @return key columns of a comma separated list, trimmed
+     */
+    public static String[] parseKeys(String keyColumns) {
+        ArrayList<String> l = new ArrayList<>();
+        for (String k : keyColumns.split(","))
+            if (!k.trim().isEmpty())
+                l.add(k.trim());
+        return l.toArray(new String[0]);
+    }
+
+    private static int indexOf(String[] columns, String name) {
+        for (int i = 0; i < columns.length; i++)
+            if (columns[i].equalsIgnoreCase(name))
+                return i;
+        return -1;
+    }
+
+    private static String[] nonKeys(String[] columns, String[] keys) {
+        ArrayList<String> l = new ArrayList<>();
+        for (String c : columns) {
+            boolean isKey = false;
+            for (String k : keys)
+                isKey |= c.equalsIgnoreCase(k);
+            if (!isKey)
+                l.add(c);
+        }
+        return l.toArray(new String[0]);
+    }
+
+    private static String params(int n) {
+        StringBuilder sb = new StringBuilder("?");
+        for (int i = 1; i < n; i++)
+            sb.append(",?");
+        return sb.toString();
+    }
+
+    private static String assignments(String[] columns, String targetPrefix, String sourcePrefix) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length; i++)
+            sb.append(i > 0 ? ", " : "").append(targetPrefix).append(columns[i]).append('=').append(sourcePrefix)
+                    .append(columns[i]);
+        return sb.toString();
+    }
+}